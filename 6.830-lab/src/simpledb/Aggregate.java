@@ -5,12 +5,33 @@ import java.util.*;
 /**
  * The Aggregator operator that computes an aggregate (e.g., sum, avg, max,
  * min).  Note that we only support aggregates over a single column, grouped
- * by a single column.
+ * by a single column; see {@link MultiAggregate} for more.
+ * <p>
+ * The child is read when the operator is opened, not when it is built.
+ * If the child's tuples come with those of each group together (see
+ * {@link #isGroupedOn}), the aggregate streams: it reads a group at a time
+ * and returns its result as soon as the next group starts, keeping only
+ * that group's aggregate.  Otherwise open merges every tuple into an
+ * {@link Aggregator}, and rewind returns its results again.
+ * <p>
+ * Given several threads and a scan of a HeapFile as its child, the
+ * aggregate instead reads the file with a {@link ParallelAggregator}, each
+ * thread aggregating a range of its pages.
  */
 public class Aggregate extends AbstractDbIterator {
+    /** Fewest pages of a file each thread of a parallel aggregate is given (see {@link #parallelism}). */
+    public static final int PARALLEL_PAGES_PER_THREAD = 64;
+
     private DbIterator child;
     private TupleDesc td;
-    private Aggregator agg;
+    private int afield, gfield;
+    private Aggregator.Op aop;
+    private int threads;
+    private boolean streaming;
+    /** The results of the Aggregator, when not streaming. */
+    private DbIterator results;
+    /** When streaming, the first tuple of the next group, if it has been read. */
+    private Tuple pending;
     /**
      * Constructor.  
      *
@@ -23,36 +44,98 @@ public class Aggregate extends AbstractDbIterator {
      * @param gfield The column over which we are grouping the result, or -1 if there is no grouping
      * @param aop The aggregation operator to use
      */
-    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) 
-        throws DbException, TransactionAbortedException, NoSuchElementException {
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, 1);
+    }
+
+    /**
+     * Constructor for an aggregate that reads its child with the specified
+     * number of threads if the child is a scan of a HeapFile and is not
+     * grouped (see {@link #isParallel}).
+     *
+     * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+     * @see #parallelism
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int threads) {
         // some code goes here
         TupleDesc ctd = child.getTupleDesc();
         String aFieldName = ctd.getFieldName(afield) == null ? null : aggName(aop) + "(" + ctd.getFieldName(afield) + ")";
         if (gfield == Aggregator.NO_GROUPING) {
             td = new TupleDesc(new Type[]{ctd.getType(afield)}, 
                 new String[]{aFieldName});
-            agg = (ctd.getType(afield) == Type.INT_TYPE) ? 
-                new IntAggregator(Aggregator.NO_GROUPING, null, afield, aop) :
-                new StringAggregator(Aggregator.NO_GROUPING, null, afield, aop);
         }
         else {
             td = new TupleDesc(new Type[]{ctd.getType(gfield), ctd.getType(afield)}, 
                 new String[]{ctd.getFieldName(gfield), aFieldName});
-            agg = (ctd.getType(afield) == Type.INT_TYPE) ? 
-                new IntAggregator(gfield, td.getType(0), afield, aop) :
-                new StringAggregator(gfield, td.getType(0), afield, aop);
         }
-        try {
-            child.open();
-            while (child.hasNext()) {
-                agg.merge(child.next());
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.threads = threads;
+        // fails now, rather than at open, for an operator the field's type lacks
+        newAggregator();
+        this.streaming = gfield != Aggregator.NO_GROUPING && isGroupedOn(child, new int[] { gfield });
+    }
+
+    /** @return an empty Aggregator for this operator's fields and operator */
+    private Aggregator newAggregator() {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getType(0);
+        return (child.getTupleDesc().getType(afield) == Type.INT_TYPE) ?
+            new IntAggregator(gfield, gtype, afield, aop) :
+            new StringAggregator(gfield, gtype, afield, aop);
+    }
+
+    /**
+     * Returns true if the tuples of the specified iterator come with those
+     * equal on the specified fields together: the tuples of an OrderBy
+     * whose leading fields are those fields, in either direction, or of an
+     * iterator sorted on the one field (see {@link SortMergeJoin#isSortedOn}).
+     */
+    public static boolean isGroupedOn(DbIterator it, int[] fields) {
+        if (fields.length == 0)
+            return false;
+        if (it instanceof OrderBy) {
+            int[] order = ((OrderBy)it).getOrderByFields();
+            if (order.length < fields.length)
+                return false;
+            for (int f : fields) {
+                boolean found = false;
+                for (int i = 0;i < fields.length;i++)
+                    found |= order[i] == f;
+                if (!found)
+                    return false;
             }
-            child.close();
+            return true;
         }
-        catch(Exception e) {
+        return fields.length == 1 && SortMergeJoin.isSortedOn(it, fields[0]);
+    }
 
-        }
-        this.child = agg.iterator();
+    /**
+     * Returns the number of threads to aggregate a table of the specified
+     * number of pages with: one per {@link #PARALLEL_PAGES_PER_THREAD}
+     * pages, up to the number of processors.
+     */
+    public static int parallelism(int numPages) {
+        return parallelism(numPages, Runtime.getRuntime().availableProcessors());
+    }
+
+    static int parallelism(int numPages, int processors) {
+        return Math.max(1, Math.min(processors, numPages / PARALLEL_PAGES_PER_THREAD));
+    }
+
+    /**
+     * @return true if this aggregate reads its child's file with several
+     *   threads rather than through the child
+     */
+    public boolean isParallel() {
+        return threads > 1 && !streaming && child instanceof SeqScan &&
+            Database.getCatalog().getDbFile(((SeqScan)child).getTableId()) instanceof HeapFile;
+    }
+
+    /** @return true if this aggregate streams a group at a time */
+    public boolean isStreaming() {
+        return streaming;
     }
 
     public static String aggName(Aggregator.Op aop) {
@@ -74,7 +157,26 @@ public class Aggregate extends AbstractDbIterator {
     public void open()
         throws NoSuchElementException, DbException, TransactionAbortedException {
         // some code goes here
+        pending = null;
+        if (isParallel()) {
+            SeqScan scan = (SeqScan)child;
+            TupleDesc ctd = child.getTupleDesc();
+            ParallelAggregator agg = new ParallelAggregator(gfield,
+                gfield == Aggregator.NO_GROUPING ? null : ctd.getType(gfield),
+                afield, ctd.getType(afield), aop, threads);
+            agg.scan(scan.getTransactionId(), (HeapFile)Database.getCatalog().getDbFile(scan.getTableId()));
+            results = agg.iterator();
+            results.open();
+            return;
+        }
         child.open();
+        if (streaming)
+            return;
+        Aggregator agg = newAggregator();
+        while (child.hasNext())
+            agg.merge(child.next());
+        results = agg.iterator();
+        results.open();
     }
 
     /**
@@ -87,15 +189,41 @@ public class Aggregate extends AbstractDbIterator {
      */
     protected Tuple readNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while(child.hasNext()) {
-            return child.next();
+        if (!streaming)
+            return results != null && results.hasNext() ? results.next() : null;
+        if (pending == null) {
+            if (!child.hasNext())
+                return null;
+            pending = child.next();
         }
-        return null;
+        Field group = pending.getField(gfield);
+        Aggregator agg = newAggregator();
+        agg.merge(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!group.equals(t.getField(gfield))) {
+                pending = t;
+                break;
+            }
+            agg.merge(t);
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        Tuple result = it.next();
+        it.close();
+        return result;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child.rewind();
+        super.close();
+        if (streaming) {
+            child.rewind();
+            pending = null;
+        }
+        else
+            results.rewind();
     }
 
     /**
@@ -116,6 +244,11 @@ public class Aggregate extends AbstractDbIterator {
 
     public void close() {
         // some code goes here
+        super.close();
         child.close();
+        if (results != null)
+            results.close();
+        results = null;
+        pending = null;
     }
 }
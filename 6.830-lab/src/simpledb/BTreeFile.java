@@ -0,0 +1,535 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table.  Its leaves map
+ * each key to the RecordIds of the table's tuples with that key, and its
+ * tuples are the table's tuples in key order: {@link #iterator} reads the
+ * index and fetches each tuple from the table through the buffer pool.
+ * <p>
+ * The index is kept in sync with the table by {@link BufferPool#insertTuple}
+ * and {@link BufferPool#deleteTuple}, once it is registered with
+ * {@link Catalog#addIndex}; {@link #addTuple} and {@link #deleteTuple} add
+ * and remove the entry of a tuple already stored in the table.  The root is
+ * always page 0.  Full pages are split; pages emptied by deletes are left
+ * in the tree rather than merged, as most trees shrink only when rebuilt
+ * (see {@link #build}).  Its pages are the size of its table's.
+ * <p>
+ * A transaction that changes the index read-locks the pages on its way
+ * down and write-locks only the leaf it changes, and a parent only when
+ * the leaf below it splits; so transactions that change different leaves
+ * do not block each other.
+ * <p>
+ * A stamp next to the index file records the length and modification
+ * time of the table file each time the index is written (see
+ * {@link IndexStamp}); an index whose stamp does not match its table file
+ * (see {@link #isCurrent}) must be rebuilt.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+    private final File f;
+    private final int tableId;
+    private final TupleDesc td;
+    private final int keyField;
+    private final Type keyType;
+    private final int pageSize;
+    /** The channel pages are read and written through, kept open until {@link #close}. */
+    private final PageChannel io;
+    private final IndexStamp stamp;
+
+    /**
+     * Constructs a B+ tree index backed by the specified file.
+     *
+     * @param f the file that stores the index
+     * @param table the table the index is on
+     * @param keyField the index of the field in the table's tuples that is
+     *   the key of the index
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        this.f = f;
+        this.tableId = table.getId();
+        this.td = table.getTupleDesc();
+        this.keyField = keyField;
+        this.keyType = td.getType(keyField);
+        this.pageSize = table instanceof HeapFile ? ((HeapFile)table).getPageSize() : BufferPool.PAGE_SIZE;
+        this.io = new PageChannel(f);
+        this.stamp = new IndexStamp(f, table, pageSize);
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this index, the hash of the
+     *   absolute name of its file
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the key of this index */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the size in bytes of this index's pages */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, since the tuples of an
+     * index are those of its table.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this index.  An empty file has one
+     * page: the root, an empty leaf.
+     */
+    public int numPages() {
+        return Math.max(1, (int)(f.length() / pageSize));
+    }
+
+    /**
+     * Returns the number of levels of the tree, read from the pages on
+     * disk (so ignoring changes not yet committed).
+     */
+    public int height() {
+        int h = 1;
+        BTreePage pg = (BTreePage)readPage(new BTreePageId(getId(), 0));
+        while (!pg.isLeaf()) {
+            pg = (BTreePage)readPage(new BTreePageId(getId(), pg.getChild(0)));
+            h++;
+        }
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        if (getId() != pid.getTableId())
+            throw new IllegalArgumentException();
+        int pgNo = pid.pageno();
+        if (pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException();
+
+        try {
+            // the root of an empty file reads as zeroes: an empty leaf
+            byte[] data = io.read((long)pgNo * pageSize, pageSize);
+            return new BTreePage(new BTreePageId(getId(), pgNo), data, keyType, pageSize);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.write((long)page.getId().pageno() * pageSize, page.getPageData());
+    }
+
+    /**
+     * Closes the index file.  It is reopened if the index is used again.
+     */
+    public void close() throws IOException {
+        io.close();
+    }
+
+    /**
+     * Returns true if the index was last written for its table file as it
+     * is now: its stamp records the table file's length and modification
+     * time, and this index's page size.  An index whose table file was
+     * regenerated or written behind its back is not current.
+     */
+    public boolean isCurrent() {
+        return stamp.isCurrent();
+    }
+
+    /**
+     * Records in the stamp that the index matches its table file as it is
+     * now.  Called once a transaction's pages of the index and its table
+     * have been written (see {@link BufferPool#flushPages}), and by build.
+     */
+    public void saveStamp() throws IOException {
+        stamp.save();
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (BTreePage)Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Adds a page at the end of the file and returns it, write-locked and
+     * empty, from the buffer pool.
+     *
+     * @param level the level of the page, 0 for a leaf
+     */
+    private BTreePage newPage(TransactionId tid, int level)
+        throws DbException, IOException, TransactionAbortedException {
+        int pgNo;
+        synchronized (this) {
+            pgNo = numPages();
+            writePage(new BTreePage(new BTreePageId(getId(), pgNo), new byte[pageSize], keyType, pageSize));
+        }
+        BTreePage pg = getPage(tid, pgNo, Permissions.READ_WRITE);
+        pg.reset(level);
+        return pg;
+    }
+
+    /**
+     * Descends from the root to the leaf where the entry of the specified
+     * tuple belongs.  The pages on the way are read-locked, and the leaf,
+     * which the level of its parent gives away, write-locked.
+     *
+     * @param path receives the page numbers of the internal pages on the
+     *   way, root first
+     */
+    private BTreePage findLeaf(TransactionId tid, Tuple t, List<Integer> path)
+        throws DbException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        RecordId rid = t.getRecordId();
+        // the root is a leaf until it is first split, into new pages
+        Permissions perm = numPages() == 1 ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+        BTreePage pg = getPage(tid, 0, perm);
+        if (pg.isLeaf() && perm == Permissions.READ_ONLY)
+            pg = getPage(tid, 0, Permissions.READ_WRITE);
+        while (!pg.isLeaf()) {
+            path.add(pg.getId().pageno());
+            int child = pg.getChild(pg.search(key, rid.getPageId().pageno(), rid.tupleno()));
+            pg = getPage(tid, child, pg.getLevel() == 1 ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+        }
+        return pg;
+    }
+
+    private void checkTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+    }
+
+    /**
+     * Adds the index entry of the specified tuple, which must already be
+     * stored in the indexed table.
+     *
+     * @return the pages that were modified
+     * @throws DbException if the tuple is not in the indexed table or
+     *   already has an entry
+     */
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        checkTuple(t);
+        Field key = t.getField(keyField);
+        int pgNo = t.getRecordId().getPageId().pageno(), slot = t.getRecordId().tupleno();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        BTreePage pg = findLeaf(tid, t, path);
+        int i = pg.search(key, pgNo, slot);
+        if (i < pg.getNumEntries() && BTreePage.compare(pg.keys[i], pg.pages[i], pg.slots[i], key, pgNo, slot) == 0)
+            throw new DbException("tuple is already in the index");
+        pg.insertEntry(i, key, pgNo, slot);
+        dirtied.add(pg);
+
+        while (pg.getNumEntries() > pg.capacity()) {
+            int mid = pg.getNumEntries() / 2;
+            Field sepKey = pg.keys[mid];
+            int sepPage = pg.pages[mid], sepSlot = pg.slots[mid];
+            if (pg.getId().pageno() == 0) {
+                splitRoot(tid, pg, mid, dirtied);
+                break;
+            }
+            BTreePage right = newPage(tid, pg.getLevel());
+            moveUpperHalf(pg, right, mid);
+            dirtied.add(right);
+            // the parent changes too, so its read lock is upgraded
+            BTreePage parent = getPage(tid, path.remove(path.size() - 1), Permissions.READ_WRITE);
+            parent.insertChild(parent.search(sepKey, sepPage, sepSlot), sepKey, sepPage, sepSlot, right.getId().pageno());
+            dirtied.add(parent);
+            pg = parent;
+        }
+        return dirtied;
+    }
+
+    /**
+     * Moves the entries of left from position mid on to the empty page
+     * right.  On an internal page the entry at mid is dropped, as it moves
+     * up to the parent.
+     */
+    private static void moveUpperHalf(BTreePage left, BTreePage right, int mid) {
+        int from = left.isLeaf() ? mid : mid + 1;
+        int count = left.n - from;
+        System.arraycopy(left.keys, from, right.keys, 0, count);
+        System.arraycopy(left.pages, from, right.pages, 0, count);
+        System.arraycopy(left.slots, from, right.slots, 0, count);
+        if (left.isLeaf()) {
+            right.next = left.next;
+            left.next = right.getId().pageno();
+        }
+        else {
+            System.arraycopy(left.children, from, right.children, 0, count + 1);
+        }
+        right.n = count;
+        for (int i = mid;i < left.n;i++)
+            left.keys[i] = null;
+        left.n = mid;
+    }
+
+    /**
+     * Splits the overflowing root into two new pages and makes it an
+     * internal page over them, so the root stays at page 0.
+     */
+    private void splitRoot(TransactionId tid, BTreePage root, int mid, List<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        Field sepKey = root.keys[mid];
+        int sepPage = root.pages[mid], sepSlot = root.slots[mid];
+        int level = root.getLevel();
+        BTreePage left = newPage(tid, level);
+        BTreePage right = newPage(tid, level);
+        System.arraycopy(root.keys, 0, left.keys, 0, root.n);
+        System.arraycopy(root.pages, 0, left.pages, 0, root.n);
+        System.arraycopy(root.slots, 0, left.slots, 0, root.n);
+        if (!root.isLeaf())
+            System.arraycopy(root.children, 0, left.children, 0, root.n + 1);
+        left.n = root.n;
+        moveUpperHalf(left, right, mid);
+        root.reset(level + 1);
+        root.children[0] = left.getId().pageno();
+        root.insertChild(0, sepKey, sepPage, sepSlot, right.getId().pageno());
+        dirtied.add(left);
+        dirtied.add(right);
+    }
+
+    /**
+     * Removes the index entry of the specified tuple, which must still be
+     * stored in the indexed table.
+     *
+     * @return the leaf the entry was removed from
+     * @throws DbException if the tuple has no entry in the index
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+        checkTuple(t);
+        Field key = t.getField(keyField);
+        int pgNo = t.getRecordId().getPageId().pageno(), slot = t.getRecordId().tupleno();
+        BTreePage pg = findLeaf(tid, t, new ArrayList<Integer>());
+        int i = pg.search(key, pgNo, slot);
+        if (i >= pg.getNumEntries() || BTreePage.compare(pg.keys[i], pg.pages[i], pg.slots[i], key, pgNo, slot) != 0)
+            throw new DbException("tuple is not in the index");
+        pg.removeEntry(i);
+        return pg;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table, in key
+     * order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * satisfies <tt>key op operand</tt>, in key order.  Only the leaves
+     * that hold matching keys are read.
+     *
+     * @param op EQUALS or a range comparison, or null for all tuples
+     * @throws IllegalArgumentException for LIKE and NOT_EQUALS
+     */
+    public DbFileIterator iterator(final TransactionId tid, final Predicate.Op op, final Field operand) {
+        if (!supports(op))
+            throw new IllegalArgumentException("a B+ tree index cannot evaluate " + op);
+        return new AbstractDbFileIterator() {
+            private BufferPool bp = Database.getBufferPool();
+            // a copy of the current leaf's entries, so the transaction may
+            // delete the tuples it reads without shifting the entries under us
+            private Field keys[];
+            private int pages[], slots[];
+            private int n, next, pos;
+            private boolean open = false;
+
+            private void readLeaf(BTreePage leaf) {
+                n = leaf.getNumEntries();
+                keys = leaf.keys.clone();
+                pages = leaf.pages.clone();
+                slots = leaf.slots.clone();
+                next = leaf.getNext();
+            }
+
+            public void open() throws DbException, TransactionAbortedException {
+                boolean seek = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ;
+                BTreePage pg = getPage(tid, 0, Permissions.READ_ONLY);
+                while (!pg.isLeaf()) {
+                    int child = seek ? pg.search(operand, Integer.MIN_VALUE, Integer.MIN_VALUE) : 0;
+                    pg = getPage(tid, pg.getChild(child), Permissions.READ_ONLY);
+                }
+                readLeaf(pg);
+                pos = seek ? pg.search(operand, Integer.MIN_VALUE, Integer.MIN_VALUE) : 0;
+                open = true;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (open) {
+                    if (pos >= n) {
+                        if (next == 0)
+                            break;
+                        readLeaf(getPage(tid, next, Permissions.READ_ONLY));
+                        pos = 0;
+                        continue;
+                    }
+                    int i = pos++;
+                    if (op != null && !keys[i].compare(op, operand)) {
+                        // keys only grow from here: past the end of the range
+                        if (op != Predicate.Op.GREATER_THAN)
+                            break;
+                        continue;
+                    }
+                    HeapPageId pid = new HeapPageId(tableId, pages[i]);
+                    Tuple t = ((TuplePage)bp.getPage(tid, pid, Permissions.READ_ONLY)).getTuple(slots[i]);
+                    if (t != null)
+                        return t;
+                }
+                open = false;
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                open = false;
+                keys = null;
+            }
+        };
+    }
+
+    /**
+     * Returns true for EQUALS and the range comparisons.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /** Returns the height of the tree: one page per level. */
+    public int probeCost() {
+        return height();
+    }
+
+    /**
+     * Rebuilds the index from a scan of its table, replacing its contents.
+     * The entries are sorted and packed into full leaves, and the upper
+     * levels built over them, and the stamp saved.  The index must be in
+     * the catalog, and no transaction may be using it.
+     */
+    public synchronized void build() throws DbException, TransactionAbortedException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0;i < numPages();i++)
+            bp.discardPage(new BTreePageId(getId(), i));
+
+        final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableId).iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                // only the key and the RecordId are kept
+                Tuple e = new Tuple(td);
+                e.setField(keyField, t.getField(keyField));
+                e.setRecordId(t.getRecordId());
+                entries.add(e);
+            }
+            it.close();
+        }
+        finally {
+            bp.transactionComplete(tid);
+        }
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreePage.compare(a.getField(keyField), a.getRecordId().getPageId().pageno(), a.getRecordId().tupleno(),
+                    b.getField(keyField), b.getRecordId().getPageId().pageno(), b.getRecordId().tupleno());
+            }
+        });
+
+        io.truncate(0);
+        writeTree(entries);
+        saveStamp();
+    }
+
+    /** Writes a tree of the specified entries, sorted, to the empty file. */
+    private void writeTree(List<Tuple> entries) throws IOException {
+        int leafCapacity = BTreePage.leafCapacity(keyType, pageSize);
+        if (entries.size() <= leafCapacity) {
+            BTreePage root = emptyPage(0, 0);
+            for (Tuple e : entries)
+                root.insertEntry(root.n, e.getField(keyField), e.getRecordId().getPageId().pageno(), e.getRecordId().tupleno());
+            writePage(root);
+            return;
+        }
+
+        // each level is a list of pages, each with the first entry below it;
+        // page 0 is left for the root
+        int nextPgNo = 1;
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<Tuple> firsts = new ArrayList<Tuple>();
+        int numLeaves = (entries.size() + leafCapacity - 1) / leafCapacity;
+        for (int l = 0;l < numLeaves;l++) {
+            BTreePage leaf = emptyPage(nextPgNo++, 0);
+            for (int i = l * leafCapacity;i < Math.min(entries.size(), (l + 1) * leafCapacity);i++) {
+                Tuple e = entries.get(i);
+                leaf.insertEntry(leaf.n, e.getField(keyField), e.getRecordId().getPageId().pageno(), e.getRecordId().tupleno());
+            }
+            leaf.next = l + 1 < numLeaves ? nextPgNo : 0;
+            writePage(leaf);
+            level.add(leaf.getId().pageno());
+            firsts.add(entries.get(l * leafCapacity));
+        }
+
+        int fanout = BTreePage.internalCapacity(keyType, pageSize) + 1;
+        for (int height = 1;;height++) {
+            boolean root = level.size() <= fanout;
+            ArrayList<Integer> upper = new ArrayList<Integer>();
+            ArrayList<Tuple> upperFirsts = new ArrayList<Tuple>();
+            for (int start = 0;start < level.size();start += fanout) {
+                BTreePage pg = emptyPage(root ? 0 : nextPgNo++, height);
+                pg.children[0] = level.get(start);
+                for (int i = start + 1;i < Math.min(level.size(), start + fanout);i++) {
+                    Tuple e = firsts.get(i);
+                    pg.insertChild(pg.n, e.getField(keyField), e.getRecordId().getPageId().pageno(), e.getRecordId().tupleno(), level.get(i));
+                }
+                writePage(pg);
+                upper.add(pg.getId().pageno());
+                upperFirsts.add(firsts.get(start));
+            }
+            if (root)
+                break;
+            level = upper;
+            firsts = upperFirsts;
+        }
+    }
+
+    private BTreePage emptyPage(int pgNo, int level) throws IOException {
+        BTreePage pg = new BTreePage(new BTreePageId(getId(), pgNo), new byte[pageSize], keyType, pageSize);
+        pg.reset(level);
+        return pg;
+    }
+}
@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage is a node of a {@link BTreeFile}.  Leaf pages hold index
+ * entries, a key and the RecordId of the tuple it came from, sorted by key
+ * and then by RecordId, so that every entry is unique even when keys are
+ * not.  Internal pages hold n separator entries and n+1 child page numbers;
+ * child i holds the entries that sort at or after separator i-1 and before
+ * separator i.
+ * <p>
+ * A page starts with three ints: 1 for an internal page (0 for a leaf),
+ * the number of entries n, and, on a leaf, the number of the next leaf
+ * (0 for none: page 0 is always the root), or on an internal page its
+ * level (1 over leaves, one more for each level up).  A leaf continues with its n
+ * entries, each a key of the index's key type followed by the page number
+ * and slot of its tuple; an internal page with its n+1 children and then
+ * its n separators.  An all-zero page is an empty leaf.
+ */
+public class BTreePage implements Page {
+    static final int HEADER_SIZE = 12;
+
+    final BTreePageId pid;
+    final Type keyType;
+    final int pageSize;
+    boolean leaf;
+    /** 0 for a leaf, 1 for the parent of leaves, and so on up to the root. */
+    int level;
+    /** Number of entries; may exceed the page's capacity by one until the page is split. */
+    int n;
+    int next;
+    Field keys[];
+    /** Page number and slot of each entry's tuple. */
+    int pages[];
+    int slots[];
+    int children[];
+
+    byte[] oldData;
+    TransactionId tid;
+
+    /**
+     * Create a BTreePage from a page of data read from disk.  The key type
+     * and page size are those of the BTreeFile the page belongs to, found
+     * in the catalog.
+     *
+     * @param id the id of this page
+     * @param data the page's bytes
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, ((BTreeFile)Database.getCatalog().getDbFile(id.getTableId())).getKeyType(),
+            ((BTreeFile)Database.getCatalog().getDbFile(id.getTableId())).getPageSize());
+    }
+
+    /**
+     * Create a BTreePage of an index with the specified key type and page
+     * size.
+     *
+     * @see #BTreePage(BTreePageId, byte[])
+     */
+    BTreePage(BTreePageId id, byte[] data, Type keyType, int pageSize) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.pageSize = pageSize;
+        if (data.length < pageSize)
+            throw new IOException("page data too short: " + data.length + " bytes");
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        leaf = buf.getInt(0) == 0;
+        n = buf.getInt(4);
+        next = leaf ? buf.getInt(8) : 0;
+        level = leaf ? 0 : buf.getInt(8);
+        if (!leaf && level < 1)
+            throw new IOException("corrupt B+ tree page " + id.pageno());
+        int capacity = leaf ? leafCapacity(keyType, pageSize) : internalCapacity(keyType, pageSize);
+        if (n < 0 || n > capacity)
+            throw new IOException("corrupt B+ tree page " + id.pageno());
+        allocate(capacity);
+        int off = HEADER_SIZE;
+        if (!leaf) {
+            for (int i = 0;i <= n;i++) {
+                children[i] = buf.getInt(off);
+                off += 4;
+            }
+        }
+        for (int i = 0;i < n;i++) {
+            keys[i] = keyType.parse(buf, off);
+            off += keyType.getLen();
+            pages[i] = buf.getInt(off);
+            slots[i] = buf.getInt(off + 4);
+            off += 8;
+        }
+        oldData = data.clone();
+    }
+
+    private void allocate(int capacity) {
+        keys = new Field[capacity + 1];
+        pages = new int[capacity + 1];
+        slots = new int[capacity + 1];
+        children = leaf ? null : new int[capacity + 2];
+    }
+
+    /** @return the number of entries that fit on a leaf page of the specified size */
+    static int leafCapacity(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the number of separators that fit on an internal page of the specified size */
+    static int internalCapacity(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE - 4) / (keyType.getLen() + 12);
+    }
+
+    /** @return the number of entries this page holds when full */
+    int capacity() {
+        return leaf ? leafCapacity(keyType, pageSize) : internalCapacity(keyType, pageSize);
+    }
+
+    /**
+     * Turns this page into an empty page of the specified level, 0 for a
+     * leaf.
+     */
+    void reset(int level) {
+        this.leaf = level == 0;
+        this.level = level;
+        n = 0;
+        next = 0;
+        allocate(capacity());
+    }
+
+    /**
+     * Orders two entries by key, then by page number and slot.
+     */
+    static int compare(Field k1, int p1, int s1, Field k2, int p2, int s2) {
+        if (!k1.equals(k2))
+            return k1.compare(Predicate.Op.LESS_THAN, k2) ? -1 : 1;
+        if (p1 != p2)
+            return p1 < p2 ? -1 : 1;
+        if (s1 != s2)
+            return s1 < s2 ? -1 : 1;
+        return 0;
+    }
+
+    /**
+     * On a leaf, returns the position of the first entry at or after the
+     * specified one; on an internal page, the child whose entries the
+     * specified one falls among.
+     */
+    int search(Field key, int pgNo, int slot) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(keys[mid], pages[mid], slots[mid], key, pgNo, slot);
+            if (c < 0 || (!leaf && c == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Inserts an entry at the specified position of a leaf. */
+    void insertEntry(int i, Field key, int pgNo, int slot) {
+        System.arraycopy(keys, i, keys, i + 1, n - i);
+        System.arraycopy(pages, i, pages, i + 1, n - i);
+        System.arraycopy(slots, i, slots, i + 1, n - i);
+        keys[i] = key;
+        pages[i] = pgNo;
+        slots[i] = slot;
+        n++;
+    }
+
+    /**
+     * Inserts a separator at the specified position of an internal page,
+     * with the child that holds the entries from the separator on.
+     */
+    void insertChild(int i, Field key, int pgNo, int slot, int child) {
+        System.arraycopy(children, i + 1, children, i + 2, n - i);
+        children[i + 1] = child;
+        insertEntry(i, key, pgNo, slot);
+    }
+
+    /** Removes the entry at the specified position of a leaf. */
+    void removeEntry(int i) {
+        System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+        System.arraycopy(pages, i + 1, pages, i, n - i - 1);
+        System.arraycopy(slots, i + 1, slots, i, n - i - 1);
+        n--;
+        keys[n] = null;
+    }
+
+    /** @return true if this is a leaf page */
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    /** @return the level of this page: 0 for a leaf, 1 for the parent of leaves, and so on */
+    public int getLevel() {
+        return level;
+    }
+
+    /** @return the number of entries (or, on an internal page, separators) */
+    public int getNumEntries() {
+        return n;
+    }
+
+    /** @return the key of the specified entry */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the page number of the next leaf, or 0 if this is the last
+     *   one
+     */
+    public int getNext() {
+        return next;
+    }
+
+    /** @return the page number of the specified child of an internal page */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        if (n > capacity())
+            throw new IllegalStateException("B+ tree page " + pid.pageno() + " overflows");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(leaf ? 0 : 1);
+            dos.writeInt(n);
+            dos.writeInt(leaf ? next : level);
+            if (!leaf) {
+                for (int i = 0;i <= n;i++)
+                    dos.writeInt(children[i]);
+            }
+            for (int i = 0;i < n;i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(pages[i]);
+                dos.writeInt(slots[i]);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        byte[] data = new byte[pageSize];
+        byte[] used = baos.toByteArray();
+        System.arraycopy(used, 0, data, 0, used.length);
+        return data;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(pid, oldData, keyType, pageSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return tid;
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+/** Unique identifier for BTreePage objects. */
+public class BTreePageId implements PageId {
+
+    private int tableId;
+    private int pgNo;
+    private int hash;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree index.
+     *
+     * @param tableId The index that is being referenced
+     * @param pgNo The page number in that index.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.hash = ("" + tableId + "#" + pgNo).hashCode();
+    }
+
+    /** @return the index associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the index getTableId() associated with
+     *   this PageId
+     */
+    public int pageno() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     *   the index id and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof PageId))
+            return false;
+        PageId pgId = (PageId)o;
+        return getTableId() == pgId.getTableId() && pageno() == pgId.pageno();
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+        data[0] = getTableId();
+        data[1] = pageno();
+        return data;
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin evaluates any join predicate, like {@link Join}, but
+ * reads the outer child a block of tuples at a time and makes one pass over
+ * the inner child per block instead of per outer tuple.  A block holds as
+ * many outer tuples as fit in its pages of memory, which are reserved from
+ * the buffer pool (see {@link BufferPool#reserveWorkPages}), a tuple being
+ * counted as the bytes it takes on a page.
+ * <p>
+ * The tuples returned are those of Join; within a block they come in the
+ * order of the inner child, each inner tuple joined with the matching outer
+ * tuples of the block in turn.
+ */
+public class BlockNestedLoopJoin extends AbstractDbIterator {
+    private JoinPredicate p;
+    private DbIterator child1, child2;
+    private TupleDesc td;
+    /** The frames reserved by open for a block. */
+    private WorkMemory work;
+    /** Most outer tuples in a block. */
+    private int blockTuples;
+    private ArrayList<Tuple> block;
+    /** The inner tuple being joined with the block, and the next outer tuple to try. */
+    private Tuple t2;
+    private int pos;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate
+     * to join them on.  The join asks for a quarter of the buffer pool's
+     * pages as memory for a block.
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.work = new WorkMemory(-1);
+    }
+
+    /**
+     * Constructor for a join whose blocks are the specified number of
+     * pages.  open reserves as many of them as the buffer pool can spare,
+     * and the join works with those (see {@link WorkMemory}).
+     *
+     * @see #BlockNestedLoopJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+        this(p, child1, child2);
+        this.work = new WorkMemory(blockPages);
+    }
+
+    /** @return the number of outer tuples of the specified size in a block of the specified pages */
+    public static int blockTuples(int tupleSize, int blockPages) {
+        return Math.max(1, (int)((long)blockPages * BufferPool.PAGE_SIZE / tupleSize));
+    }
+
+    /** @return the most outer tuples in a block, once open */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        work.reserve();
+        boolean opened = false;
+        try {
+            blockTuples = blockTuples(child1.getTupleDesc().getSize(), work.pages());
+            child1.open();
+            child2.open();
+            block = new ArrayList<Tuple>();
+            fillBlock();
+            opened = true;
+        }
+        finally {
+            if (!opened)
+                close();
+        }
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        t2 = null;
+        work.release();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child1.rewind();
+        child2.rewind();
+        fillBlock();
+    }
+
+    /** Reads the next block of outer tuples, which is empty once child1 is exhausted. */
+    private void fillBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next().materialize());
+        t2 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are
+     * no more tuples, as the concatenation of the outer and inner tuples
+     * like {@link Join#readNext}.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t2 != null) {
+                while (pos < block.size()) {
+                    Tuple t1 = block.get(pos++);
+                    if (p.filter(t1, t2))
+                        return Join.merge(td, t1, t2);
+                }
+                t2 = null;
+            }
+            if (block.isEmpty())
+                return null;
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                pos = 0;
+            }
+            else {
+                fillBlock();
+                if (block.isEmpty())
+                    return null;
+                child2.rewind();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy is a hint passed to {@link BufferPool#getPage} by
+ * one-pass readers such as sequential scans of large tables.  Pages the
+ * reader misses on are read into a small private ring of frames: once the
+ * ring is full, the frame holding the oldest page read through the ring is
+ * reused for the next one, as long as nobody has dirtied or write-locked
+ * that page in the meantime.  A big scan therefore only ever occupies a
+ * few frames instead of cycling the whole pool through the replacement
+ * policy and evicting the working set.
+ * <p>
+ * A strategy belongs to the BufferPool that created it (see
+ * {@link BufferPool#scanStrategy}) and to a single reader.
+ */
+public class BufferAccessStrategy {
+    private int[] frames;
+    private PageId[] pids;
+    private int next;
+    private int size;
+
+    /**
+     * @param ringSize the number of frames in the ring
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize < 1)
+            throw new IllegalArgumentException("ring must have at least one frame");
+        frames = new int[ringSize];
+        pids = new PageId[ringSize];
+        next = 0;
+        size = 0;
+    }
+
+    /** @return the number of frames in the ring */
+    public int getRingSize() {
+        return frames.length;
+    }
+
+    /** @return true once every slot of the ring has been used */
+    boolean isFull() {
+        return size == frames.length;
+    }
+
+    /** @return the frame that should be reused for the next miss */
+    int victimFrame() {
+        return frames[next];
+    }
+
+    /** @return the page that was read into {@link #victimFrame} through this ring */
+    PageId victimPageId() {
+        return pids[next];
+    }
+
+    /**
+     * Record that a page was read into the specified frame on behalf of
+     * this ring; it replaces the current victim slot.
+     */
+    void record(int frame, PageId pid) {
+        frames[next] = frame;
+        pids[next] = pid;
+        next = (next + 1) % frames.length;
+        if (size < frames.length)
+            size++;
+    }
+}
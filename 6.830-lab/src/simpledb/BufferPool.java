@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,28 +16,104 @@ import java.util.*;
  */
 public class BufferPool {
     private Page[] buffer;
-    private int evictIdx;
+    /** One latch per frame, guarding that frame's slot in buffer. */
+    private Object[] frameLatches;
+    /** Striped latches that make concurrent misses on one page read it only once. */
+    private Object[] loadLatches;
+    private ConcurrentHashMap<PageId, Integer> pageTable;
+    /** Guarded by this, as are all changes to which page a frame holds. */
+    private LinkedList<Integer> freeFrames;
+    /** Frames lent to operators as working memory; guarded by this. */
+    private LinkedList<Integer> workFrames;
+    private ReplacementPolicy policy;
+    private ReplacementPolicy.EvictionFilter evictable;
+    private AtomicLong hits, misses;
+    /** Frames whose page was read ahead and has not been requested yet; guarded by the frame latches. */
+    private boolean[] prefetched;
+    private volatile int prefetchWindow;
+    private AtomicLong prefetchedPages, prefetchHits;
     private LockManager lm;
-    private Map<Long, HashSet<PageId>> hasPages;
-    /** Bytes per page, including header. */
+    private ConcurrentHashMap<Long, Set<PageId>> hasPages;
+    /**
+     * The tables each transaction inserted into, whose free-space maps are
+     * saved when it commits even if it appended pages only.
+     */
+    private ConcurrentHashMap<Long, Set<Integer>> insertedInto;
+    /** Bytes per page, including header, of files that do not set their own page size. */
     public static final int PAGE_SIZE = 4096;
 
+    /** Smallest page size a file may use. */
+    public static final int MIN_PAGE_SIZE = 512;
+
+    /** Largest page size a file may use; SlottedPage offsets are 16 bits. */
+    public static final int MAX_PAGE_SIZE = 65536;
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Replacement policy used when none is passed to the constructor. */
+    public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.CLOCK;
+
+    /** Largest ring handed out by {@link #scanStrategy}. */
+    public static final int SCAN_RING_PAGES = 32;
+
+    /** Number of latches misses are striped over. */
+    static final int LOAD_STRIPES = 64;
+
+    /** Default number of pages a sequential reader is read ahead by. */
+    public static final int DEFAULT_PREFETCH_PAGES = 8;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * pages according to the specified replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the page replacement policy to use.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind) {
         // some code goes here
         buffer = new Page[numPages];
-        evictIdx = -1;
+        frameLatches = new Object[numPages];
+        for (int i = 0;i < numPages;i++)
+            frameLatches[i] = new Object();
+        loadLatches = new Object[LOAD_STRIPES];
+        for (int i = 0;i < LOAD_STRIPES;i++)
+            loadLatches[i] = new Object();
+        pageTable = new ConcurrentHashMap<PageId, Integer>(numPages * 4 / 3 + 1);
+        freeFrames = new LinkedList<Integer>();
+        for (int i = 0;i < numPages;i++)
+            freeFrames.add(i);
+        workFrames = new LinkedList<Integer>();
+        policy = kind.create(numPages);
+        // For the sake of NO STEAL policy, dirty pages and pages with
+        // write lock cannot be evicted.
+        evictable = new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(int frame) {
+                Page pg = buffer[frame];
+                return pg != null && pg.isDirty() == null &&
+                    !lm.writeLockHeld(pg.getId().hashCode());
+            }
+        };
+        hits = new AtomicLong(0);
+        misses = new AtomicLong(0);
+        prefetched = new boolean[numPages];
+        prefetchWindow = DEFAULT_PREFETCH_PAGES;
+        prefetchedPages = new AtomicLong(0);
+        prefetchHits = new AtomicLong(0);
         lm = new LockManager();
-        hasPages = new HashMap<Long, HashSet<PageId>>();
+        hasPages = new ConcurrentHashMap<Long, Set<PageId>>();
+        insertedInto = new ConcurrentHashMap<Long, Set<Integer>>();
     }
 
     /**
@@ -54,16 +132,36 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading
+     * it through the ring of the specified access strategy if it is not
+     * resident.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy the ring to read the page into, or null to use the
+     *   whole pool
+     * @see BufferAccessStrategy
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
         throws TransactionAbortedException, DbException {
         // some code goes here
         // Acquire the lock firstant
-        Long key = tid == null ? -1 : tid.getId();
-        if (!hasPages.containsKey(key))
-            hasPages.put(key, new HashSet<PageId>());
-        hasPages.get(key).add(pid);
-            
-        //System.out.println("tid: " + tid.getId() + " has page: " + pid.hashCode() + " Perm: " 
-        //   + (perm.equals(Permissions.READ_ONLY) ? "r" : "rw"));
+        if (tid != null) {
+            Set<PageId> pages = hasPages.get(tid.getId());
+            if (pages == null) {
+                Set<PageId> created = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+                pages = hasPages.putIfAbsent(tid.getId(), created);
+                if (pages == null)
+                    pages = created;
+            }
+            pages.add(pid);
+        }
 
         lm.addLock(pid.hashCode());
         try {
@@ -78,25 +176,309 @@ public class BufferPool {
         }
 
         // Load the page and return
-        int emptyIdx = -1;
-        for (int i = 0;i < buffer.length;i++) {
-            if (buffer[i] == null) {
-                if (emptyIdx == -1)
-                    emptyIdx = i;
-                break;
+        Page pg = lookupPage(pid);
+        if (pg != null)
+            return pg;
+        return loadPage(pid, strategy, false);
+    }
+
+    /**
+     * Returns the cached copy of the page, or null if it is not resident.
+     * Only latches the page's frame, so hits on different pages never
+     * contend.
+     */
+    private Page lookupPage(PageId pid) {
+        Integer frame = pageTable.get(pid);
+        if (frame == null)
+            return null;
+        Page pg;
+        boolean readAhead;
+        synchronized (frameLatches[frame]) {
+            pg = buffer[frame];
+            // the frame may have been reused since the table was read
+            if (pg == null || !pg.getId().equals(pid))
+                return null;
+            readAhead = prefetched[frame];
+            prefetched[frame] = false;
+        }
+        hits.incrementAndGet();
+        if (readAhead)
+            prefetchHits.incrementAndGet();
+        policy.pageAccessed(frame);
+        return pg;
+    }
+
+    /**
+     * Reads a page that was not resident into a free frame (evicting
+     * another page if necessary).  Misses on the same page are serialized
+     * by a striped latch so the page is read only once; the read itself
+     * happens outside the pool-wide lock.
+     * With a strategy, the oldest frame of its ring is reused if possible.
+     *
+     * @param prefetch true if the page is read ahead rather than requested;
+     *   it is then not counted as a miss, and null is returned if it has
+     *   become resident in the meantime
+     */
+    private Page loadPage(PageId pid, BufferAccessStrategy strategy, boolean prefetch) throws DbException {
+        synchronized (loadLatches[(pid.hashCode() & 0x7fffffff) % LOAD_STRIPES]) {
+            Page pg;
+            if (prefetch) {
+                if (pageTable.containsKey(pid))
+                    return null;
+                prefetchedPages.incrementAndGet();
             }
-            else if (buffer[i].getId().equals(pid)) {
-                return buffer[i];
+            else {
+                pg = lookupPage(pid);
+                if (pg != null)
+                    return pg;
+                misses.incrementAndGet();
             }
+            int idx = allocateFrame(strategy);
+            try {
+                pg = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+            }
+            catch (RuntimeException e) {
+                synchronized (this) {
+                    freeFrames.addFirst(idx);
+                }
+                throw e;
+            }
+            synchronized (this) {
+                synchronized (frameLatches[idx]) {
+                    buffer[idx] = pg;
+                    prefetched[idx] = prefetch;
+                }
+                pageTable.put(pid, idx);
+                policy.pageLoaded(idx, pid);
+                if (strategy != null)
+                    strategy.record(idx, pid);
+            }
+            return pg;
         }
-        if (emptyIdx < 0) {
-            evictPage();
-            return getPage(tid, pid, perm);
+    }
+
+    /**
+     * Takes a frame for a page about to be read: from the strategy's ring,
+     * from the free list, or by evicting a page.
+     */
+    private synchronized int allocateFrame(BufferAccessStrategy strategy) throws DbException {
+        int idx = strategy == null ? -1 : reuseRingFrame(strategy);
+        if (idx < 0) {
+            if (freeFrames.isEmpty())
+                evictPage();
+            idx = freeFrames.removeFirst();
         }
-        else {
-            buffer[emptyIdx] = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-            return buffer[emptyIdx];
+        return idx;
+    }
+
+    /**
+     * Empties the frame a full ring would read its next page into and
+     * returns it, without putting it on the free list.  Returns -1 when the
+     * ring still has room, or when its oldest page has since been evicted
+     * by the pool, dirtied or write-locked.  Callers must hold the lock on
+     * this pool.
+     */
+    private int reuseRingFrame(BufferAccessStrategy strategy) {
+        if (!strategy.isFull())
+            return -1;
+        int frame = strategy.victimFrame();
+        if (buffer[frame] == null || !buffer[frame].getId().equals(strategy.victimPageId()) ||
+            !evictable.canEvict(frame))
+            return -1;
+        clearFrame(frame);
+        return frame;
+    }
+
+    /**
+     * Returns an access strategy for a one-pass read of numPages pages, or
+     * null if the read is small enough to go through the shared pool.
+     * Reads that could not be cached by the whole pool anyway get a
+     * private ring; smaller ones are cached for the next reader.
+     *
+     * @param numPages the number of pages that will be read
+     */
+    public BufferAccessStrategy scanStrategy(int numPages) {
+        if (numPages <= buffer.length)
+            return null;
+        return new BufferAccessStrategy(Math.max(1, Math.min(SCAN_RING_PAGES, buffer.length / 8)));
+    }
+
+    /** @return the number of frames in this buffer pool */
+    public int getNumPages() {
+        return buffer.length;
+    }
+
+    /** Fewest pages of memory an operator works with, even if the pool has none to spare. */
+    public static final int MIN_WORK_PAGES = 3;
+
+    /** @return the number of pages of memory an operator asks for by default: a quarter of the pool's */
+    public int defaultWorkPages() {
+        return Math.max(MIN_WORK_PAGES, buffer.length / 4);
+    }
+
+    /**
+     * Takes up to n frames out of the pool as working memory for an
+     * operator, such as the hash table of a {@link HashJoin}, so that
+     * operators and cached pages together stay within the pool's pages.
+     * Free frames are taken first, then those of pages that can be
+     * evicted; at least half of the frames are always left for pages.
+     * The frames must be given back with {@link #releaseWorkPages};
+     * operators reserve them through a {@link WorkMemory}.
+     *
+     * @return the number of frames taken, which may be fewer than n
+     */
+    public synchronized int reserveWorkPages(int n) {
+        int taken = 0;
+        while (taken < n && workFrames.size() < buffer.length / 2) {
+            if (freeFrames.isEmpty()) {
+                try {
+                    evictPage();
+                }
+                catch (DbException e) {
+                    break;
+                }
+            }
+            workFrames.add(freeFrames.removeFirst());
+            taken++;
         }
+        return taken;
+    }
+
+    /**
+     * Returns n frames taken by {@link #reserveWorkPages} to the pool.
+     */
+    public synchronized void releaseWorkPages(int n) {
+        if (n > workFrames.size())
+            throw new IllegalArgumentException("releasing more frames than were reserved");
+        for (int i = 0;i < n;i++)
+            freeFrames.add(workFrames.removeFirst());
+    }
+
+    /** @return the number of frames currently lent to operators */
+    public synchronized int getWorkPages() {
+        return workFrames.size();
+    }
+
+    /**
+     * Checks that a file may use the specified page size: a power of two
+     * between MIN_PAGE_SIZE and MAX_PAGE_SIZE.
+     *
+     * @throws IllegalArgumentException if it may not
+     */
+    public static void checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+            throw new IllegalArgumentException("invalid page size " + pageSize);
+    }
+
+    /**
+     * @return the page size of new tables in this database, set with
+     *   -Dsimpledb.PageSize (PAGE_SIZE by default)
+     */
+    public static int databasePageSize() {
+        int pageSize = Integer.getInteger("simpledb.PageSize", PAGE_SIZE);
+        checkPageSize(pageSize);
+        return pageSize;
+    }
+
+    /**
+     * Reads the specified page into the pool ahead of its first request,
+     * unless it is already resident.  Called on the {@link Prefetcher}'s
+     * I/O thread; does not take a lock on the page, so the page must be
+     * requested through {@link #getPage} before it is used.
+     *
+     * @param pid the page to read
+     * @param strategy the ring of the reader the page is read for, or null
+     */
+    void prefetchPage(PageId pid, BufferAccessStrategy strategy) {
+        if (pageTable.containsKey(pid))
+            return;
+        try {
+            loadPage(pid, strategy, true);
+        }
+        catch (DbException e) {
+            // every frame is pinned by dirty pages; the reader will read
+            // the page itself
+        }
+    }
+
+    /**
+     * Sets how many pages sequential readers are read ahead by; 0 disables
+     * read-ahead.
+     */
+    public void setPrefetchWindow(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("prefetch window must not be negative");
+        prefetchWindow = pages;
+    }
+
+    /** @return the number of pages sequential readers are read ahead by */
+    public int getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    /**
+     * The read-ahead window actually used for a reader.  It is kept small
+     * enough that pages read ahead are not evicted again before they are
+     * requested: a quarter of the pool, or half of the reader's ring.
+     *
+     * @param strategy the reader's ring, or null
+     */
+    int prefetchWindow(BufferAccessStrategy strategy) {
+        int window = Math.min(prefetchWindow, buffer.length / 4);
+        if (strategy != null)
+            window = Math.min(window, strategy.getRingSize() / 2);
+        return window;
+    }
+
+    /** @return the number of pages read ahead into the pool */
+    public long getPrefetchedPages() {
+        return prefetchedPages.get();
+    }
+
+    /** @return the number of pages read ahead that were later requested through getPage */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /** @return the number of getPage calls that found the page in the pool */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read the page from disk */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Reset the hit, miss and read-ahead counters to zero. */
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        prefetchedPages.set(0);
+        prefetchHits.set(0);
+    }
+
+    /**
+     * Drops the page held in the specified frame, leaving the frame empty.
+     * Does not flush the page.  Callers must hold the lock on this pool.
+     */
+    private void clearFrame(int idx) {
+        policy.pageRemoved(idx);
+        synchronized (frameLatches[idx]) {
+            pageTable.remove(buffer[idx].getId(), idx);
+            buffer[idx] = null;
+            prefetched[idx] = false;
+        }
+    }
+
+    /**
+     * Drops the page held in the specified frame and returns the frame to
+     * the free list.  Does not flush the page.  Callers must hold the lock
+     * on this pool.
+     */
+    private void freeFrame(int idx) {
+        clearFrame(idx);
+        freeFrames.add(idx);
     }
 
     /**
@@ -133,12 +515,9 @@ public class BufferPool {
     public   boolean holdsLock(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        for (int i = 0;i < buffer.length;i++) {
-            if (buffer[i] != null && buffer[i].getId().equals(pid)) {
-                return lm.holdsLock(tid, i);
-            }
-        }
-        return false;
+        if (!pageTable.containsKey(pid))
+            return false;
+        return lm.holdsLock(tid, pid.hashCode());
     }
 
     /**
@@ -152,20 +531,26 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        if (!hasPages.containsKey(tid.getId()))
-            return ;
-        if (commit) {
+        if (commit)
             flushPages(tid);
-        }
-        else if (!commit) {
-            for (int i = 0;i < buffer.length;i++) {
-                if (buffer[i] != null && 
-                    (tid.equals(buffer[i].isDirty()) || lm.holdsWriteLock(tid, buffer[i].getId().hashCode()))) {
-                    buffer[i] = null;
+        else
+            insertedInto.remove(tid.getId());
+        Set<PageId> pages = hasPages.get(tid.getId());
+        if (pages == null)
+            return ;
+        if (!commit) {
+            synchronized (this) {
+                for (PageId pid: pages) {
+                    Integer frame = pageTable.get(pid);
+                    if (frame == null || buffer[frame] == null || !buffer[frame].getId().equals(pid))
+                        continue;
+                    if (tid.equals(buffer[frame].isDirty()) || lm.holdsWriteLock(tid, pid.hashCode())) {
+                        freeFrame(frame);
+                    }
                 }
             }
         }
-        Iterator<PageId> it = hasPages.get(tid.getId()).iterator();
+        Iterator<PageId> it = pages.iterator();
         while(it.hasNext()) {
             releasePage(tid, it.next());
         }
@@ -173,7 +558,8 @@ public class BufferPool {
     }
 
     /**
-     * Add a tuple to the specified table behalf of transaction tid.  Will
+     * Add a tuple to the specified table behalf of transaction tid, and
+     * its entries to the table's indexes.  Will
      * acquire a write lock on the page the tuple is added to(Lock 
      * acquisition is not needed for lab2). May block if the lock cannot 
      * be acquired.
@@ -193,10 +579,23 @@ public class BufferPool {
         ArrayList<Page> pgAr = Database.getCatalog().getDbFile(tableId).addTuple(tid, t);
         for (Page pg: pgAr)
             pg.markDirty(true, tid);
+        Set<Integer> tables = insertedInto.get(tid.getId());
+        if (tables == null) {
+            Set<Integer> created = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+            tables = insertedInto.putIfAbsent(tid.getId(), created);
+            if (tables == null)
+                tables = created;
+        }
+        tables.add(tableId);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page pg : index.addTuple(tid, t))
+                pg.markDirty(true, tid);
+        }
     }
 
     /**
-     * Remove the specified tuple from the buffer pool.
+     * Remove the specified tuple from the buffer pool, and its entries
+     * from the indexes on its table.
      * Will acquire a write lock on the page the tuple is removed from. May block if
      * the lock cannot be acquired.
      *
@@ -213,6 +612,9 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         int tableid = t.getRecordId().getPageId().getTableId();
+        // index entries are found by the tuple's RecordId, so go first
+        for (IndexFile index : Database.getCatalog().getIndexes(tableid))
+            index.deleteTuple(tid, t).markDirty(true, tid);
         Page pg = Database.getCatalog().getDbFile(tableid).deleteTuple(tid, t);
         pg.markDirty(true, tid);
     }
@@ -222,7 +624,7 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException, DbException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
         for (int i = 0;i < buffer.length;i++) {
@@ -243,79 +645,102 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        Integer frame = pageTable.get(pid);
+        if (frame != null && buffer[frame] != null && buffer[frame].getId().equals(pid))
+            freeFrame(frame);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException, DbException {
+    private void flushPage(PageId pid) throws IOException, DbException {
         // some code goes here
         // not necessary for lab1
-        int i = 0;
-        for (;i < buffer.length;i++) {
-            if (buffer[i] != null && buffer[i].getId().equals(pid) && buffer[i].isDirty() != null) {
-                HeapFile hf = (HeapFile)Database.getCatalog().getDbFile(pid.getTableId());
-                hf.writePage(buffer[i]);
-                buffer[i].markDirty(false, null);
-                break;
-            }
-        }
+        Integer frame = pageTable.get(pid);
+        if (frame != null)
+            flushPage(frame, pid, null);
+    }
+
+    private void flushPage(int pgIdx) throws IOException, DbException {
+        flushPage(pgIdx, null, null);
     }
 
-    private synchronized  void flushPage(int pgIdx) throws IOException, DbException {
-        if (buffer[pgIdx] != null && buffer[pgIdx].isDirty() != null) {
-            HeapFile hf = (HeapFile)Database.getCatalog().getDbFile(buffer[pgIdx].getId().getTableId());
-            hf.writePage(buffer[pgIdx]);
-            buffer[pgIdx].markDirty(false, null);
+    /**
+     * Writes the page in the specified frame to disk if it is dirty.  Holds
+     * only that frame's latch while writing.
+     *
+     * @param pgIdx the frame to flush
+     * @param pid only flush if the frame still holds this page; null for any page
+     * @param tid only flush if this transaction dirtied the page; null for any
+     * @return true if the page was written
+     */
+    private boolean flushPage(int pgIdx, PageId pid, TransactionId tid) throws IOException {
+        synchronized (frameLatches[pgIdx]) {
+            Page pg = buffer[pgIdx];
+            if (pg == null || pg.isDirty() == null)
+                return false;
+            if ((pid != null && !pid.equals(pg.getId())) || (tid != null && !tid.equals(pg.isDirty())))
+                return false;
+            DbFile file = Database.getCatalog().getDbFile(pg.getId().getTableId());
+            file.writePage(pg);
+            pg.markDirty(false, null);
+            return true;
         }
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /** Write all pages of the specified transaction to disk, then the
+     * free-space maps of the heap files they belong to or it inserted into.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2|lab3
-        for (int i = 0;i < buffer.length;i++) {
-            if (buffer[i] != null && hasPages.get(tid.getId()).contains(buffer[i].getId()) && tid.equals(buffer[i].isDirty())) {
-                HeapFile hf = (HeapFile)Database.getCatalog().getDbFile(buffer[i].getId().getTableId());
-                hf.writePage(buffer[i]);
-                buffer[i].markDirty(false, null);
+        Set<PageId> pages = hasPages.get(tid.getId());
+        Set<Integer> tables = new HashSet<Integer>();
+        if (pages != null) {
+            for (PageId pid: pages) {
+                Integer frame = pageTable.get(pid);
+                if (frame != null && flushPage(frame, pid, tid))
+                    tables.add(pid.getTableId());
             }
         }
+        // appended pages were written directly, bypassing the pool
+        Set<Integer> inserted = insertedInto.remove(tid.getId());
+        if (inserted != null)
+            tables.addAll(inserted);
+        for (int tableid : tables) {
+            DbFile file = Database.getCatalog().getDbFile(tableid);
+            if (file instanceof HeapFile)
+                ((HeapFile)file).saveFreeSpaceMap();
+        }
+        // indexes are stamped once their tables' pages are written too
+        for (int tableid : tables) {
+            DbFile file = Database.getCatalog().getDbFile(tableid);
+            if (file instanceof IndexFile)
+                ((IndexFile)file).saveStamp();
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the replacement policy.
      * For the sake of NO STEAL policy, dirty pages and pages with write lock cannot be 
      * evicted. If no page can be evicted, throw a DbException.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        int i = 0;
-        for (;i < buffer.length;i++) {
-            evictIdx = (evictIdx+1) % buffer.length;
-            if (buffer[evictIdx] == null || 
-                (buffer[evictIdx].isDirty() == null && !lm.writeLockHeld(buffer[evictIdx].getId().hashCode()))) {
-                break;
-            }
-        }
-        //System.out.println("evict index end at " + evictIdx);
-        //lm.show();
-        if (i == buffer.length) {
+        int victim = policy.chooseVictim(evictable);
+        if (victim < 0) {
             throw new DbException("No page can be evicted.");
         }
-        if (buffer[evictIdx] != null) {
-            try {
-                flushPage(evictIdx);
-                buffer[evictIdx] = null;
-                return ;
-            }
-            catch (Exception e) {
-                throw new DbException(e.getMessage());
-            } 
+        try {
+            flushPage(victim);
+            freeFrame(victim);
+        }
+        catch (IOException e) {
+            throw new DbException(e.getMessage());
         }
     }
 
@@ -52,6 +52,8 @@ public class Catalog {
     }
     private TreeMap<Integer, CatEntry> id2Entry;
     private TreeMap<String, Integer> name2Id;
+    /** Indexes by their own id, so the buffer pool can find their pages. */
+    private TreeMap<Integer, IndexFile> id2Index;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -60,6 +62,7 @@ public class Catalog {
         // some code goes here
         id2Entry = new TreeMap<Integer, CatEntry>();
         name2Id = new TreeMap<String, Integer>();
+        id2Index = new TreeMap<Integer, IndexFile>();
     }
 
     /**
@@ -74,13 +77,68 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
         if (name2Id.containsKey(name)) {
-            id2Entry.remove(name2Id.get(name));
+            CatEntry old = id2Entry.remove(name2Id.get(name));
+            if (old != null && old.getFile() != file) {
+                closeFile(old.getFile());
+                dropIndexes(old.getFile().getId());
+            }
             name2Id.remove(name);
         }
-        id2Entry.put(file.getId(), new CatEntry(file, name, pkeyField));
+        CatEntry old = id2Entry.put(file.getId(), new CatEntry(file, name, pkeyField));
+        if (old != null && old.getFile() != file) {
+            closeFile(old.getFile());
+            dropIndexes(old.getFile().getId());
+        }
         name2Id.put(name, file.getId());
     }
 
+    /**
+     * Adds an index on a table already in the catalog, replacing any
+     * index on the same field.  From then on the index is kept up to date
+     * by {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+     *
+     * @throws NoSuchElementException if the indexed table is not in the catalog
+     */
+    public void addIndex(IndexFile index) {
+        if (!id2Entry.containsKey(index.getTableId()))
+            throw new NoSuchElementException();
+        IndexFile old = getIndex(index.getTableId(), index.getKeyField());
+        if (old != null) {
+            id2Index.remove(old.getId());
+            if (old != index)
+                closeFile(old);
+        }
+        id2Index.put(index.getId(), index);
+    }
+
+    /**
+     * @return the index on the specified field of the specified table, or
+     *   null if there is none
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        for (IndexFile index : id2Index.values())
+            if (index.getTableId() == tableid && index.getKeyField() == field)
+                return index;
+        return null;
+    }
+
+    /** @return the indexes on the specified table */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> indexes = new ArrayList<IndexFile>();
+        for (IndexFile index : id2Index.values())
+            if (index.getTableId() == tableid)
+                indexes.add(index);
+        return indexes;
+    }
+
+    /** Removes the indexes on a table that left the catalog. */
+    private void dropIndexes(int tableid) {
+        for (IndexFile index : getIndexes(tableid)) {
+            id2Index.remove(index.getId());
+            closeFile(index);
+        }
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file,name,"");
     }
@@ -123,23 +181,60 @@ public class Catalog {
     }
 
     /**
-     * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * Returns the size in bytes of the pages of the specified table or
+     * index: the page size of its HeapFile or IndexFile, or the default
+     * page size for other files.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        DbFile f = getDbFile(tableid);
+        if (f instanceof HeapFile)
+            return ((HeapFile)f).getPageSize();
+        if (f instanceof IndexFile)
+            return ((IndexFile)f).getPageSize();
+        return BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Returns the DbFile that can be used to read the contents of the
+     * specified table, or the specified index.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable, or of an index passed to addIndex
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
         if (id2Entry.containsKey(tableid))
             return id2Entry.get(tableid).getFile();
+        if (id2Index.containsKey(tableid))
+            return id2Index.get(tableid);
         throw new NoSuchElementException();
     }
 
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (CatEntry e: id2Entry.values())
+            closeFile(e.getFile());
+        for (IndexFile index : id2Index.values())
+            closeFile(index);
         id2Entry.clear();
         name2Id.clear();
+        id2Index.clear();
+    }
+
+    /** Releases the open file handle of a table or index that left the catalog. */
+    private void closeFile(DbFile file) {
+        try {
+            if (file instanceof HeapFile)
+                ((HeapFile)file).close();
+            else if (file instanceof IndexFile)
+                ((IndexFile)file).close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public String getPrimaryKey(int tableid) throws NoSuchElementException {
@@ -171,7 +266,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [pagesize n] [slotted] [hash]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -202,16 +297,77 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
+                // a table's page size is taken from its catalog entry, or
+                // from its file; new files get the database's page size
+                File tabFile = new File(name + ".dat");
+                // options: "pagesize <bytes>", "slotted" for SlottedPages, and
+                // "hash" to index the primary key with a HashFile, not a BTreeFile
+                String[] opts = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                int pageSize = 0;
+                boolean slotted = false, hash = false;
+                for (int i = 0;i < opts.length;i++) {
+                    String opt = opts[i].toLowerCase();
+                    if (opt.length() == 0)
+                        continue;
+                    if (opt.equals("pagesize") && i + 1 < opts.length)
+                        pageSize = Integer.parseInt(opts[++i]);
+                    else if (opt.equals("slotted"))
+                        slotted = true;
+                    else if (opt.equals("hash") && !primaryKey.equals(""))
+                        hash = true;
+                    else if (opt.equals("hash")) {
+                        System.out.println("Option hash of table " + name + " needs a primary key");
+                        System.exit(0);
+                        return;
+                    }
+                    else {
+                        System.out.println("Unknown table option " + opts[i]);
+                        System.exit(0);
+                        return;
+                    }
+                }
+                if (pageSize == 0 && tabFile.length() == 0)
+                    pageSize = BufferPool.databasePageSize();
+                HeapFile tabHf;
+                if (slotted)
+                    tabHf = pageSize > 0 ? new SlottedFile(tabFile, t, pageSize) : new SlottedFile(tabFile, t);
+                else
+                    tabHf = pageSize > 0 ? new HeapFile(tabFile, t, pageSize) : new HeapFile(tabFile, t);
+                // Tables that are only read can be memory mapped:
+                // -Dsimpledb.MemoryMapped=true
+                if (Boolean.getBoolean("simpledb.MemoryMapped"))
+                    tabHf.setMemoryMapped(true);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                // primary keys are indexed; the index is rebuilt only if
+                // the table file changed (e.g. was regenerated) since it was saved
+                if (!primaryKey.equals("")) {
+                    IndexFile index;
+                    if (hash)
+                        index = new HashFile(new File(name + "." + primaryKey + ".hash"), tabHf, t.nameToId(primaryKey));
+                    else
+                        index = new BTreeFile(new File(name + "." + primaryKey + ".idx"), tabHf, t.nameToId(primaryKey));
+                    addIndex(index);
+                    if (!index.isCurrent())
+                        index.build();
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            // a malformed or mismatched page size or layout
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
         }
     }
 }
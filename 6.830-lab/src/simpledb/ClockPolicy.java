@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * CLOCK-sweep replacement: every frame has a reference bit that is set
+ * whenever its page is used.  The clock hand sweeps over the frames,
+ * clearing set bits and evicting the first evictable frame whose bit is
+ * already clear, so recently used pages get a second chance.
+ * <p>
+ * Hits do not take the policy's lock, which makes CLOCK the cheapest
+ * policy for concurrent readers.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private boolean[] used;
+    private boolean[] referenced;
+    private int hand;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public ClockPolicy(int numFrames) {
+        used = new boolean[numFrames];
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        used[frame] = true;
+        referenced[frame] = true;
+    }
+
+    // not synchronized: hits only set a flag, and a lost update merely
+    // costs the page its second chance
+    public void pageAccessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public synchronized void pageRemoved(int frame) {
+        used[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public synchronized int chooseVictim(EvictionFilter filter) {
+        // two full turns: the first may only clear reference bits
+        for (int i = 0;i < 2 * used.length;i++) {
+            int frame = hand;
+            hand = (hand + 1) % used.length;
+            if (!used[frame] || !filter.canEvict(frame))
+                continue;
+            if (referenced[frame])
+                referenced[frame] = false;
+            else
+                return frame;
+        }
+        return -1;
+    }
+}
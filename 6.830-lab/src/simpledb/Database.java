@@ -14,13 +14,18 @@ public class Database {
 	private static Database _instance = new Database();
     private final Catalog _catalog;
     private BufferPool _bufferpool; 
+    private final ReplacementPolicy.Kind _policy;
 
     private final static String LOGFILENAME = "log";
     private LogFile _logfile;
 
     private Database() {
     	_catalog = new Catalog();
-    	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        // The page replacement policy can be chosen with a system property:
+        // e.g. -Dsimpledb.ReplacementPolicy=lru_k
+        String policy = System.getProperty("simpledb.ReplacementPolicy");
+        _policy = policy == null ? BufferPool.DEFAULT_POLICY : ReplacementPolicy.Kind.getKind(policy);
+    	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES, _policy);
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -50,7 +55,14 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
-        _instance._bufferpool = new BufferPool(pages);
+        return resetBufferPool(pages, _instance._policy);
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the specified replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
         return _instance._bufferpool;
     }
 
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FreeSpaceMap records, for every page of a HeapFile, whether the page
+ * has room for another tuple (see {@link TuplePage#hasRoom}), so that inserts can go straight to a page with room
+ * instead of reading every page of the table.
+ * <p>
+ * The map is only a hint.  A page marked free is checked under its write
+ * lock before a tuple is added to it (and marked full if it turns out to
+ * be), and a page wrongly marked full (e.g. after an aborted insert)
+ * merely wastes its space until the map is rebuilt (see {@link #rebuild}).
+ * <p>
+ * It is stored next to the heap file, in a file with the suffix ".fsm",
+ * each time a transaction that inserted into the heap file or wrote its
+ * pages commits (see {@link HeapFile#saveFreeSpaceMap}), and when the heap
+ * file is closed.  The stored map records the length
+ * and modification time the heap file had when it was saved, then the
+ * number of pages it covers and one bit per page.  A map saved for another
+ * version of the heap file (e.g. one regenerated since) is not trusted:
+ * the map is rebuilt, reading every page once, directly from disk.  So
+ * are pages added to the heap file behind the map's back.
+ */
+public class FreeSpaceMap {
+    /** Suffix of the file a map is stored in, appended to the heap file's name. */
+    public static final String SUFFIX = ".fsm";
+    /** Identifies a stored map: "FSM2" in ASCII. */
+    static final int MAGIC = 0x46534d32;
+
+    private final File file;
+    private BitSet free;
+    private int numPages;
+    private boolean dirty;
+    /** The heap file's length and modification time when the map was loaded or last saved. */
+    private long savedLength, savedModified;
+
+    /**
+     * Loads the free-space map of the specified heap file, or starts an
+     * empty one if it has none, or if its map was saved for another
+     * version of the file.
+     *
+     * @param hf the heap file the map describes
+     */
+    public FreeSpaceMap(HeapFile hf) {
+        file = new File(hf.getFile().getPath() + SUFFIX);
+        free = new BitSet();
+        numPages = 0;
+        dirty = false;
+        savedLength = savedModified = -1;
+        if (file.exists()) {
+            try {
+                load(hf.getFile());
+            }
+            catch (IOException e) {
+                free.clear();
+                numPages = 0;
+            }
+        }
+    }
+
+    private void load(File heap) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (dis.readInt() != MAGIC)
+                return;
+            long length = dis.readLong();
+            long modified = dis.readLong();
+            if (length != heap.length() || modified != heap.lastModified())
+                return;
+            int n = dis.readInt();
+            byte[] bits = new byte[(n + 7) / 8];
+            dis.readFully(bits);
+            for (int i = 0;i < n;i++) {
+                if ((bits[i/8] & (1<<(i%8))) != 0)
+                    free.set(i);
+            }
+            numPages = n;
+            savedLength = length;
+            savedModified = modified;
+        }
+        finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Writes the map next to the heap file, if either changed since the
+     * map was loaded or last saved.
+     *
+     * @param hf the heap file the map describes
+     */
+    public synchronized void save(HeapFile hf) throws IOException {
+        long length = hf.getFile().length();
+        long modified = hf.getFile().lastModified();
+        if (!dirty && length == savedLength && modified == savedModified)
+            return;
+        byte[] bits = new byte[(numPages + 7) / 8];
+        for (int i = free.nextSetBit(0);i >= 0 && i < numPages;i = free.nextSetBit(i + 1))
+            bits[i/8] |= (1<<(i%8));
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeLong(length);
+            dos.writeLong(modified);
+            dos.writeInt(numPages);
+            dos.write(bits);
+        }
+        finally {
+            dos.close();
+        }
+        dirty = false;
+        savedLength = length;
+        savedModified = modified;
+    }
+
+    /**
+     * Forgets what the map recorded and reads every page of the heap file
+     * again, directly from disk, to find out which have room.
+     *
+     * @param hf the heap file the map describes
+     */
+    public synchronized void rebuild(HeapFile hf) {
+        free.clear();
+        numPages = 0;
+        dirty = true;
+        cover(hf);
+    }
+
+    /**
+     * Extends the map to every page of the heap file, reading pages it
+     * does not cover yet directly from disk.
+     */
+    synchronized void cover(HeapFile hf) {
+        int n = hf.numPages();
+        for (;numPages < n;numPages++) {
+            TuplePage pg = (TuplePage)hf.readPage(new HeapPageId(hf.getId(), numPages));
+            free.set(numPages, pg.hasRoom());
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return the first page at or after from that is marked as having
+     *   room, or -1 if there is none
+     */
+    public synchronized int nextFreePage(int from) {
+        int pgNo = free.nextSetBit(from);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Records whether the specified page has room for another tuple.  The page
+     * right after the last one covered extends the map; pages further out
+     * are left for {@link #cover} to read.
+     */
+    public synchronized void setFree(int pgNo, boolean hasRoom) {
+        if (pgNo > numPages)
+            return;
+        if (pgNo == numPages)
+            numPages++;
+        else if (free.get(pgNo) == hasRoom)
+            return;
+        free.set(pgNo, hasRoom);
+        dirty = true;
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * GroupTable holds the groups of a {@link MultiAggregate} and the running
+ * aggregates of each.  Groups are numbered in the order they are first
+ * seen; each has a count of tuples and, for every aggregate, a long
+ * holding its MIN, MAX or SUM (AVG keeps the sum and divides by the count
+ * at the end).  Looking up the group of a tuple reuses one probe key, so
+ * merging a tuple into an existing group allocates nothing.
+ * <p>
+ * A group is counted as {@link #groupBytes} bytes, to keep the table
+ * within a memory budget.
+ */
+class GroupTable {
+    private static final int INITIAL_GROUPS = 16;
+
+    /** A group's values of the group-by fields. */
+    static final class Key {
+        final Field[] fields;
+        int hash;
+
+        Key(Field[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).hash == hash && Arrays.equals(((Key)o).fields, fields);
+        }
+    }
+
+    private final int[] gfields, afields;
+    private final Aggregator.Op[] ops;
+    private final TupleDesc td;
+
+    private int ngroups;
+    private Key[] keys;
+    private long[] cnts;
+    /** The aggregates of group g are at g * ops.length onwards. */
+    private long[] vals;
+    private HashMap<Key, Integer> index;
+    private Key probe;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param gfields the child's fields to group by; none for one group
+     * @param afields the child's fields to aggregate
+     * @param ops the aggregate of each of afields; only COUNT for string fields
+     * @param td the TupleDesc of the results: the group-by fields, then the aggregates
+     */
+    GroupTable(int[] gfields, int[] afields, Aggregator.Op[] ops, TupleDesc td) {
+        this.gfields = gfields;
+        this.afields = afields;
+        this.ops = ops;
+        this.td = td;
+        this.keys = new Key[INITIAL_GROUPS];
+        this.cnts = new long[INITIAL_GROUPS];
+        this.vals = new long[INITIAL_GROUPS * ops.length];
+        this.index = new HashMap<Key, Integer>();
+        this.probe = new Key(new Field[gfields.length]);
+    }
+
+    /** @return the number of groups */
+    int numGroups() {
+        return ngroups;
+    }
+
+    /** Removes every group, keeping the arrays for the groups merged next. */
+    void clear() {
+        Arrays.fill(keys, 0, ngroups, null);
+        Arrays.fill(cnts, 0, ngroups, 0);
+        index.clear();
+        ngroups = 0;
+    }
+
+    /**
+     * @return the bytes a group counts for: its fields as on a page, and
+     *   its count and aggregates
+     */
+    long groupBytes() {
+        return td.getSize() + 8L * (ops.length + 1);
+    }
+
+    /** @return the hash of the specified tuple's group-by fields, as Arrays.hashCode of them */
+    static int hash(Tuple t, int[] gfields) {
+        int h = 1;
+        for (int i = 0;i < gfields.length;i++)
+            h = 31 * h + t.getField(gfields[i]).hashCode();
+        return h;
+    }
+
+    /** @return the number of the group of the specified tuple, or -1 if it has none yet */
+    private int find(Tuple t) {
+        if (gfields.length == 0)
+            return ngroups - 1;
+        for (int i = 0;i < gfields.length;i++)
+            probe.fields[i] = t.getField(gfields[i]);
+        probe.hash = Arrays.hashCode(probe.fields);
+        Integer g = index.get(probe);
+        return g == null ? -1 : g;
+    }
+
+    /** @return the number of the group of the specified tuple, adding it if it is new */
+    private int group(Tuple t) {
+        int g = find(t);
+        if (g >= 0)
+            return g;
+        if (ngroups == keys.length) {
+            int n = keys.length * 2;
+            keys = Arrays.copyOf(keys, n);
+            cnts = Arrays.copyOf(cnts, n);
+            vals = Arrays.copyOf(vals, n * ops.length);
+        }
+        Key k = new Key(probe.fields.clone());
+        keys[ngroups] = k;
+        index.put(k, ngroups);
+        return ngroups++;
+    }
+
+    /** Merges a tuple of the child into the aggregates of its group. */
+    void merge(Tuple t) {
+        accumulate(group(t), t);
+    }
+
+    /**
+     * Merges a tuple of the child into the aggregates of its group if the
+     * group is in the table.
+     *
+     * @return false if the tuple's group is not in the table
+     */
+    boolean mergeExisting(Tuple t) {
+        int g = find(t);
+        if (g < 0)
+            return false;
+        accumulate(g, t);
+        return true;
+    }
+
+    private void accumulate(int g, Tuple t) {
+        int base = g * ops.length;
+        boolean first = cnts[g] == 0;
+        for (int i = 0;i < ops.length;i++) {
+            if (ops[i] == Aggregator.Op.COUNT)
+                continue;
+            long v = ((IntField)t.getField(afields[i])).getValue();
+            if (first)
+                vals[base + i] = v;
+            else {
+                switch (ops[i]) {
+                    case MIN:
+                        if (v < vals[base + i])
+                            vals[base + i] = v;
+                        break;
+                    case MAX:
+                        if (v > vals[base + i])
+                            vals[base + i] = v;
+                        break;
+                    default:
+                        vals[base + i] += v;
+                        break;
+                }
+            }
+        }
+        cnts[g]++;
+    }
+
+    /** @return the result tuple of the specified group */
+    Tuple result(int g) {
+        Tuple t = new Tuple(td);
+        Field[] key = keys[g].fields;
+        for (int i = 0;i < key.length;i++)
+            t.setField(i, key[i]);
+        int base = g * ops.length;
+        for (int i = 0;i < ops.length;i++) {
+            long v;
+            switch (ops[i]) {
+                case COUNT:
+                    v = cnts[g];
+                    break;
+                case AVG:
+                    v = vals[base + i] / cnts[g];
+                    break;
+                default:
+                    v = vals[base + i];
+                    break;
+            }
+            t.setField(key.length + i, new IntField((int)v));
+        }
+        return t;
+    }
+}
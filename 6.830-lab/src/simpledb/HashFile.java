@@ -0,0 +1,504 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash index on one field of a table.  It maps
+ * each key to the RecordIds of the table's tuples with that key, and finds
+ * the tuples with one key by reading one bucket: {@link #iterator} reads
+ * the bucket and fetches each tuple from the table through the buffer pool.
+ * <p>
+ * Page 0 is a directory of 2^g bucket page numbers, indexed by the low g
+ * bits of the key's hash; a bucket of local depth d holds the keys whose
+ * hashes share its low d bits, and is pointed to by 2^(g-d) directory
+ * slots.  A full bucket is split in two on its next bit, doubling the
+ * directory if d is g; once the directory fills page 0 (or when every entry
+ * of the bucket has the same hash, as duplicates of one key do) a full
+ * bucket gets a chain of overflow pages instead.  Like {@link BTreeFile},
+ * the index is kept in sync with its table by the buffer pool, buckets
+ * emptied by deletes are not merged, its pages are the size of its
+ * table's, and a stamp tells whether it is current (see {@link #isCurrent}).
+ * <p>
+ * A transaction that changes the index read-locks the directory and
+ * write-locks the key's bucket; it write-locks the directory only to
+ * split a bucket, so transactions that change different buckets do not
+ * block each other.
+ *
+ * @see HashPage
+ */
+public class HashFile implements IndexFile {
+    private final File f;
+    private final int tableId;
+    private final TupleDesc td;
+    private final int keyField;
+    private final Type keyType;
+    private final int pageSize;
+    /** The channel pages are read and written through, kept open until {@link #close}. */
+    private final PageChannel io;
+    private final IndexStamp stamp;
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f the file that stores the index
+     * @param table the table the index is on
+     * @param keyField the index of the field in the table's tuples that is
+     *   the key of the index
+     */
+    public HashFile(File f, DbFile table, int keyField) {
+        this.f = f;
+        this.tableId = table.getId();
+        this.td = table.getTupleDesc();
+        this.keyField = keyField;
+        this.keyType = td.getType(keyField);
+        this.pageSize = table instanceof HeapFile ? ((HeapFile)table).getPageSize() : BufferPool.PAGE_SIZE;
+        this.io = new PageChannel(f);
+        this.stamp = new IndexStamp(f, table, pageSize);
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this index, the hash of the
+     *   absolute name of its file
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the key of this index */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the size in bytes of this index's pages */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the largest global depth of this index's directory */
+    public int maxDepth() {
+        return HashPage.maxDepth(pageSize);
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, since the tuples of an
+     * index are those of its table.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this index.  An empty file has one
+     * page: an empty directory.
+     */
+    public int numPages() {
+        return Math.max(1, (int)(f.length() / pageSize));
+    }
+
+    /**
+     * Returns the global depth of the directory, read from disk (so
+     * ignoring changes not yet committed).
+     */
+    public int depth() {
+        return ((HashPage)readPage(new HashPageId(getId(), 0))).depth;
+    }
+
+    /**
+     * Spreads the bits of a key's hashCode, so that the low bits that pick
+     * a bucket depend on all of them.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        if (getId() != pid.getTableId())
+            throw new IllegalArgumentException();
+        int pgNo = pid.pageno();
+        if (pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException();
+
+        try {
+            // the directory of an empty file reads as zeroes: it has no buckets
+            byte[] data = io.read((long)pgNo * pageSize, pageSize);
+            return new HashPage(new HashPageId(getId(), pgNo), data, keyType, pageSize);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.write((long)page.getId().pageno() * pageSize, page.getPageData());
+    }
+
+    /**
+     * Closes the index file.  It is reopened if the index is used again.
+     */
+    public void close() throws IOException {
+        io.close();
+    }
+
+    /**
+     * Returns true if the index was last written for its table file as it
+     * is now (see {@link IndexStamp}).
+     */
+    public boolean isCurrent() {
+        return stamp.isCurrent();
+    }
+
+    /**
+     * Records in the stamp that the index matches its table file as it is
+     * now.  Called once a transaction's pages of the index and its table
+     * have been written, and by build.
+     */
+    public void saveStamp() throws IOException {
+        stamp.save();
+    }
+
+    private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (HashPage)Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Adds a page at the end of the file and returns it, write-locked and
+     * empty, from the buffer pool.
+     */
+    private HashPage newPage(TransactionId tid, int depth)
+        throws DbException, IOException, TransactionAbortedException {
+        int pgNo;
+        synchronized (this) {
+            pgNo = numPages();
+            writePage(emptyPage(pgNo));
+        }
+        HashPage pg = getPage(tid, pgNo, Permissions.READ_WRITE);
+        pg.depth = depth;
+        return pg;
+    }
+
+    private void checkTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+    }
+
+    /**
+     * Adds the index entry of the specified tuple, which must already be
+     * stored in the indexed table.  The bucket is write-locked, and the
+     * directory only read-locked unless the bucket is split, like the path
+     * to a leaf in a BTreeFile.
+     *
+     * @return the pages that were modified
+     * @throws DbException if the tuple is not in the indexed table or
+     *   already has an entry
+     */
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        checkTuple(t);
+        Field key = t.getField(keyField);
+        int h = hash(key);
+        int pgNo = t.getRecordId().getPageId().pageno(), slot = t.getRecordId().tupleno();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+        if (dir.dir[0] == 0) {
+            dir = getPage(tid, 0, Permissions.READ_WRITE);
+            if (dir.dir[0] == 0) {
+                dir.dir[0] = newPage(tid, 0).getId().pageno();
+                dirtied.add(dir);
+            }
+        }
+
+        while (true) {
+            HashPage bucket = getPage(tid, dir.dir[h & ((1 << dir.depth) - 1)], Permissions.READ_WRITE);
+            HashPage free = null, last = bucket;
+            for (HashPage pg = bucket;pg != null;pg = pg.overflow == 0 ? null : getPage(tid, pg.overflow, Permissions.READ_WRITE)) {
+                if (pg.find(key, pgNo, slot) >= 0)
+                    throw new DbException("tuple is already in the index");
+                if (free == null && pg.hasRoom())
+                    free = pg;
+                last = pg;
+            }
+            if (free != null) {
+                free.addEntry(key, pgNo, slot);
+                dirtied.add(free);
+                return dirtied;
+            }
+            if (bucket.overflow != 0 || bucket.depth == maxDepth() || !splits(bucket, h)) {
+                HashPage pg = newPage(tid, bucket.depth);
+                pg.addEntry(key, pgNo, slot);
+                last.overflow = pg.getId().pageno();
+                dirtied.add(last);
+                dirtied.add(pg);
+                return dirtied;
+            }
+            // the split changes the directory, so its read lock is upgraded
+            dir = getPage(tid, 0, Permissions.READ_WRITE);
+            split(tid, dir, bucket, dirtied);
+        }
+    }
+
+    /**
+     * @return true if splitting the bucket would separate some of its
+     *   entries from each other or from a new entry with hash h
+     */
+    private static boolean splits(HashPage bucket, int h) {
+        for (int i = 0;i < bucket.n;i++)
+            if (hash(bucket.keys[i]) != h)
+                return true;
+        return false;
+    }
+
+    /**
+     * Splits a bucket on bit d, its local depth: the entries with the bit
+     * set move to a new bucket, and the directory slots with the bit set
+     * that pointed to the old bucket now point to the new one.
+     */
+    private void split(TransactionId tid, HashPage dir, HashPage bucket, List<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        int d = bucket.depth;
+        if (d == dir.depth) {
+            System.arraycopy(dir.dir, 0, dir.dir, 1 << d, 1 << d);
+            dir.depth++;
+        }
+        HashPage high = newPage(tid, d + 1);
+        bucket.depth = d + 1;
+        for (int i = bucket.n - 1;i >= 0;i--) {
+            if ((hash(bucket.keys[i]) >>> d & 1) != 0) {
+                high.addEntry(bucket.keys[i], bucket.pages[i], bucket.slots[i]);
+                bucket.removeEntry(i);
+            }
+        }
+        int old = bucket.getId().pageno();
+        for (int i = 0;i < (1 << dir.depth);i++)
+            if (dir.dir[i] == old && (i >>> d & 1) != 0)
+                dir.dir[i] = high.getId().pageno();
+        dirtied.add(dir);
+        dirtied.add(bucket);
+        dirtied.add(high);
+    }
+
+    /**
+     * Removes the index entry of the specified tuple, which must still be
+     * stored in the indexed table.
+     *
+     * @return the page the entry was removed from
+     * @throws DbException if the tuple has no entry in the index
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+        checkTuple(t);
+        Field key = t.getField(keyField);
+        int pgNo = t.getRecordId().getPageId().pageno(), slot = t.getRecordId().tupleno();
+        HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+        if (dir.dir[0] != 0) {
+            int next = dir.dir[hash(key) & ((1 << dir.depth) - 1)];
+            while (next != 0) {
+                HashPage pg = getPage(tid, next, Permissions.READ_WRITE);
+                int i = pg.find(key, pgNo, slot);
+                if (i >= 0) {
+                    pg.removeEntry(i);
+                    return pg;
+                }
+                next = pg.overflow;
+            }
+        }
+        throw new DbException("tuple is not in the index");
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table, in no
+     * particular order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * equals operand, in no particular order.  Only the key's bucket and
+     * its overflow pages are read.
+     *
+     * @param op EQUALS, or null for all tuples
+     * @throws IllegalArgumentException for the other operators
+     */
+    public DbFileIterator iterator(final TransactionId tid, final Predicate.Op op, final Field operand) {
+        if (!supports(op))
+            throw new IllegalArgumentException("a hash index cannot evaluate " + op);
+        return new AbstractDbFileIterator() {
+            private BufferPool bp = Database.getBufferPool();
+            // a copy of the current page's entries, so the transaction may
+            // delete the tuples it reads without moving the entries under us
+            private Field keys[];
+            private int pages[], slots[];
+            private int n, pos;
+            // the next page to read: the overflow page of a bucket, or, when
+            // reading all tuples, every page after the directory in turn
+            private int next, end;
+            private boolean open = false;
+
+            private void readPage(int pgNo) throws DbException, TransactionAbortedException {
+                HashPage pg = getPage(tid, pgNo, Permissions.READ_ONLY);
+                n = pg.getNumEntries();
+                keys = pg.keys.clone();
+                pages = pg.pages.clone();
+                slots = pg.slots.clone();
+                pos = 0;
+                next = op == null ? pgNo + 1 : pg.overflow;
+            }
+
+            public void open() throws DbException, TransactionAbortedException {
+                HashPage dir = getPage(tid, 0, Permissions.READ_ONLY);
+                n = 0;
+                pos = 0;
+                if (dir.dir[0] == 0)
+                    next = 0;
+                else if (op == null)
+                    next = 1;
+                else
+                    next = dir.dir[hash(operand) & ((1 << dir.depth) - 1)];
+                end = numPages();
+                open = true;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (open) {
+                    if (pos >= n) {
+                        if (next == 0 || next >= end)
+                            break;
+                        readPage(next);
+                        continue;
+                    }
+                    int i = pos++;
+                    if (op != null && !keys[i].equals(operand))
+                        continue;
+                    HeapPageId pid = new HeapPageId(tableId, pages[i]);
+                    Tuple t = ((TuplePage)bp.getPage(tid, pid, Permissions.READ_ONLY)).getTuple(slots[i]);
+                    if (t != null)
+                        return t;
+                }
+                open = false;
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                open = false;
+                keys = null;
+            }
+        };
+    }
+
+    /**
+     * Returns true for EQUALS only: a hash index cannot find a range.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op == null || op == Predicate.Op.EQUALS;
+    }
+
+    /** Returns 2: the directory and the key's bucket. */
+    public int probeCost() {
+        return 2;
+    }
+
+    /**
+     * Rebuilds the index from a scan of its table, replacing its contents.
+     * The directory gets enough buckets for each to be about three-quarters
+     * full, and entries that do not fit their bucket go to overflow pages,
+     * and the stamp is saved.  The index must be in the catalog, and no
+     * transaction may be using it.
+     */
+    public synchronized void build() throws DbException, TransactionAbortedException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0;i < numPages();i++)
+            bp.discardPage(new HashPageId(getId(), i));
+
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableId).iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                // only the key and the RecordId are kept
+                Tuple e = new Tuple(td);
+                e.setField(keyField, t.getField(keyField));
+                e.setRecordId(t.getRecordId());
+                entries.add(e);
+            }
+            it.close();
+        }
+        finally {
+            bp.transactionComplete(tid);
+        }
+
+        io.truncate(0);
+        writeBuckets(entries);
+        saveStamp();
+    }
+
+    /** Writes a directory and buckets of the specified entries to the empty file. */
+    private void writeBuckets(List<Tuple> entries) throws IOException {
+        int capacity = HashPage.capacity(keyType, pageSize);
+        int depth = 0;
+        while (depth < maxDepth() && (1 << depth) * capacity * 3 / 4 < entries.size())
+            depth++;
+        HashPage dir = emptyPage(0);
+        dir.depth = depth;
+        HashPage[] buckets = new HashPage[1 << depth];
+        for (int i = 0;i < buckets.length;i++) {
+            buckets[i] = emptyPage(i + 1);
+            buckets[i].depth = depth;
+            dir.dir[i] = i + 1;
+        }
+        int nextPgNo = buckets.length + 1;
+        for (Tuple e : entries) {
+            Field key = e.getField(keyField);
+            HashPage pg = buckets[hash(key) & ((1 << depth) - 1)];
+            if (!pg.hasRoom()) {
+                // the bucket's chain is written as it grows: only its last
+                // page is kept in memory
+                HashPage more = emptyPage(nextPgNo++);
+                more.depth = depth;
+                pg.overflow = more.getId().pageno();
+                writePage(pg);
+                buckets[hash(key) & ((1 << depth) - 1)] = pg = more;
+            }
+            pg.addEntry(key, e.getRecordId().getPageId().pageno(), e.getRecordId().tupleno());
+        }
+        for (HashPage pg : buckets)
+            writePage(pg);
+        writePage(dir);
+    }
+
+    private HashPage emptyPage(int pgNo) throws IOException {
+        return new HashPage(new HashPageId(getId(), pgNo), new byte[pageSize], keyType, pageSize);
+    }
+}
@@ -0,0 +1,364 @@
+package simpledb;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashJoin is a hybrid hash equi-join.  It loads one of its children into
+ * a hash table on the join field (the build side) and then reads the other
+ * one (the probe side) once, looking up each tuple's matches, so each child
+ * is read once instead of the inner child once per outer tuple as in
+ * {@link Join}.
+ * <p>
+ * The hash table lives in frames reserved from the buffer pool (see
+ * {@link BufferPool#reserveWorkPages}), and a tuple is counted as the bytes
+ * it takes on a page.  The children are first read in turn, one tuple at a
+ * time: if one of them runs out before the tuples read fill the budget, it
+ * is the smaller one and the build side, and the tuples read from the
+ * other one are probed first.  Otherwise child2 is the build side, and
+ * both children are split into partitions by the hash of the join field.
+ * Partitions stay in memory until the budget is full; then the largest one
+ * is written to a {@link SpillFile}, as are the probe tuples that fall in a
+ * spilled partition.  Once the probe side is read, each spilled pair of
+ * partitions is joined in turn by a HashJoin over the two files, which
+ * partitions again (with another hash) if they still do not fit.
+ * <p>
+ * The tuples returned are those of Join, always with the fields of child1
+ * first, but not in the same order.
+ */
+public class HashJoin extends AbstractDbIterator {
+    /** Most partitions the children are split into at once. */
+    static final int MAX_PARTITIONS = 64;
+    /** Levels of partitioning after which the build side is kept in memory whatever its size. */
+    static final int MAX_LEVEL = 4;
+
+    private JoinPredicate p;
+    private DbIterator child1, child2;
+    private TupleDesc td;
+    /** Pages of memory asked for, or -1 for a quarter of the buffer pool. */
+    private int requestedPages;
+    /** The frames reserved by open; only the join in the plan reserves any. */
+    private final WorkMemory work;
+    /** Partitioning level: 0 for the join in the plan, more for the joins of spilled partitions. */
+    private int level;
+    /** Budget and use of memory, in bytes. */
+    private long budget, used;
+
+    /** True if the build side is child1. */
+    private boolean buildLeft;
+    /** The build side's in-memory partitions, by join field; null for spilled ones. */
+    private ArrayList<HashMap<Field, ArrayList<Tuple>>> parts;
+    private long[] partBytes;
+    /** The spilled partitions of each side, or null if nothing was spilled. */
+    private SpillFile[] buildFiles, probeFiles;
+
+    private DbIterator probeChild;
+    /** Tuples read from the probe side while finding the build side. */
+    private ArrayList<Tuple> probeBuffer;
+    private int probePos;
+    private Tuple probe;
+    private ArrayList<Tuple> matches;
+    private int matchPos;
+    /** The join of the spilled partition being read, and the next partition. */
+    private HashJoin spilled;
+    private int nextSpilled;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate
+     * to join them on.  The join asks for a quarter of the buffer pool's
+     * pages as memory.
+     *
+     * @param p The predicate to use to join the children; must be EQUALS
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     * @throws IllegalArgumentException if the predicate is not EQUALS
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, -1, 0);
+    }
+
+    /**
+     * Constructor for a join that asks for the specified number of pages
+     * of memory.  open reserves as many of them as the buffer pool can
+     * spare, and the join works with those.
+     *
+     * @see #HashJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages) {
+        this(p, child1, child2, Math.max(BufferPool.MIN_WORK_PAGES, memoryPages), 0);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash join cannot evaluate " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.requestedPages = memoryPages;
+        this.work = new WorkMemory(memoryPages);
+        this.level = level;
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return true if the last open did not fit the build side in memory */
+    public boolean isSpilling() {
+        return buildFiles != null;
+    }
+
+    /** Spreads the bits of a join field's hash; each level uses different ones. */
+    private int partition(Field key) {
+        int h = key.hashCode() ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % parts.size();
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        int pages = requestedPages;
+        if (level == 0) {
+            // the joins of spilled partitions work in the frames of this one
+            work.reserve();
+            pages = work.pages();
+        }
+        boolean opened = false;
+        try {
+            budget = (long)pages * BufferPool.PAGE_SIZE;
+            child1.open();
+            child2.open();
+            int size1 = child1.getTupleDesc().getSize(), size2 = child2.getTupleDesc().getSize();
+            ArrayList<Tuple> left = new ArrayList<Tuple>(), right = new ArrayList<Tuple>();
+            boolean spill = false;
+            while (true) {
+                if (!child1.hasNext()) {
+                    buildLeft = true;
+                    break;
+                }
+                left.add(child1.next().materialize());
+                if (!child2.hasNext()) {
+                    buildLeft = false;
+                    break;
+                }
+                right.add(child2.next().materialize());
+                if ((long)left.size() * size1 + (long)right.size() * size2 > budget && level < MAX_LEVEL) {
+                    spill = true;
+                    buildLeft = false;
+                    break;
+                }
+            }
+
+            int numParts = spill ? Math.min(MAX_PARTITIONS, Math.max(2, pages / 2)) : 1;
+            parts = new ArrayList<HashMap<Field, ArrayList<Tuple>>>(numParts);
+            for (int i = 0;i < numParts;i++)
+                parts.add(new HashMap<Field, ArrayList<Tuple>>());
+            partBytes = new long[numParts];
+            buildFiles = spill ? new SpillFile[numParts] : null;
+            probeFiles = spill ? new SpillFile[numParts] : null;
+            probeBuffer = buildLeft ? right : left;
+            used = (long)probeBuffer.size() * (buildLeft ? size2 : size1);
+            try {
+                for (Tuple t : buildLeft ? left : right)
+                    addBuild(t);
+                if (spill) {
+                    right = null;
+                    while (child2.hasNext())
+                        addBuild(child2.next().materialize());
+                }
+            }
+            catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+            probeChild = buildLeft ? child2 : child1;
+            probePos = 0;
+            matches = null;
+            spilled = null;
+            nextSpilled = 0;
+            opened = true;
+        }
+        finally {
+            // close a failed open, deleting its spill files
+            if (!opened)
+                close();
+        }
+    }
+
+    /** Adds a tuple of the build side to its partition, spilling partitions while over budget. */
+    private void addBuild(Tuple t) throws DbException, IOException {
+        Field key = t.getField(buildLeft ? p.getField1() : p.getField2());
+        int i = partition(key);
+        if (buildFiles != null && buildFiles[i] != null) {
+            buildFiles[i].add(t);
+            return;
+        }
+        HashMap<Field, ArrayList<Tuple>> table = parts.get(i);
+        ArrayList<Tuple> l = table.get(key);
+        if (l == null) {
+            l = new ArrayList<Tuple>(1);
+            table.put(key, l);
+        }
+        l.add(t);
+        int size = t.getTupleDesc().getSize();
+        partBytes[i] += size;
+        used += size;
+        while (buildFiles != null && used > budget && spillLargest())
+            ;
+    }
+
+    /**
+     * Writes the largest partition still in memory to a spill file; from
+     * then on its build tuples go to the file, through one page of memory.
+     *
+     * @return false if every partition has already been spilled
+     */
+    private boolean spillLargest() throws DbException, IOException {
+        int largest = -1;
+        for (int i = 0;i < parts.size();i++)
+            if (parts.get(i) != null && (largest < 0 || partBytes[i] > partBytes[largest]))
+                largest = i;
+        if (largest < 0)
+            return false;
+        SpillFile f = new SpillFile(child2.getTupleDesc());
+        for (ArrayList<Tuple> l : parts.get(largest).values())
+            for (Tuple t : l)
+                f.add(t);
+        buildFiles[largest] = f;
+        parts.set(largest, null);
+        used += BufferPool.PAGE_SIZE - partBytes[largest];
+        partBytes[largest] = 0;
+        return true;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        if (spilled != null)
+            spilled.close();
+        spilled = null;
+        deleteFiles(buildFiles);
+        deleteFiles(probeFiles);
+        buildFiles = probeFiles = null;
+        parts = null;
+        probeBuffer = null;
+        matches = null;
+        work.release();
+    }
+
+    private static void deleteFiles(SpillFile[] files) {
+        if (files == null)
+            return;
+        for (SpillFile f : files)
+            if (f != null)
+                f.delete();
+    }
+
+    /**
+     * Starts the join over.  Unless partitions were spilled, the hash
+     * table is kept and only the probe side is read again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (isSpilling()) {
+            close();
+            open();
+            return;
+        }
+        super.close();
+        probeChild.rewind();
+        probeBuffer = null;
+        matches = null;
+    }
+
+    /**
+     * @return the next tuple of the probe side that falls in an in-memory
+     *   partition, or null if there are no more; the others are written to
+     *   the probe side's spill files
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        while (true) {
+            Tuple t;
+            if (probeBuffer != null && probePos < probeBuffer.size()) {
+                t = probeBuffer.get(probePos++);
+            }
+            else {
+                probeBuffer = null;
+                if (!probeChild.hasNext())
+                    return null;
+                t = probeChild.next();
+            }
+            if (!isSpilling())
+                return t;
+            int i = partition(t.getField(p.getField1()));
+            if (buildFiles[i] == null)
+                return t;
+            try {
+                if (probeFiles[i] == null)
+                    probeFiles[i] = new SpillFile(child1.getTupleDesc());
+                probeFiles[i].add(t);
+            }
+            catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the next pair of matching tuples, as the concatenation of the
+     * tuple of child1 and the tuple of child2, like {@link Join#readNext}.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (parts != null) {
+            if (matches != null && matchPos < matches.size()) {
+                Tuple b = matches.get(matchPos++);
+                return buildLeft ? Join.merge(td, b, probe) : Join.merge(td, probe, b);
+            }
+            probe = nextProbe();
+            if (probe == null) {
+                matches = null;
+                if (!isSpilling())
+                    return null;
+                // the in-memory partitions are done: free them for the
+                // joins of the spilled ones
+                parts = null;
+                break;
+            }
+            Field key = probe.getField(buildLeft ? p.getField2() : p.getField1());
+            matches = parts.get(partition(key)).get(key);
+            matchPos = 0;
+        }
+        return isSpilling() ? readSpilled() : null;
+    }
+
+    /** @return the next tuple of the joins of the spilled partitions, or null */
+    private Tuple readSpilled() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (spilled != null) {
+                if (spilled.hasNext())
+                    return spilled.next();
+                spilled.close();
+                spilled = null;
+            }
+            while (nextSpilled < buildFiles.length && (buildFiles[nextSpilled] == null || probeFiles[nextSpilled] == null))
+                nextSpilled++;
+            if (nextSpilled >= buildFiles.length)
+                return null;
+            int i = nextSpilled++;
+            try {
+                spilled = new HashJoin(p, probeFiles[i].iterator(), buildFiles[i].iterator(),
+                    (int)(budget / BufferPool.PAGE_SIZE), level + 1);
+            }
+            catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+            spilled.open();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashPage is a page of a {@link HashFile}: page 0 is the directory, every
+ * other page a bucket or an overflow page of a bucket.
+ * <p>
+ * Both start with three ints.  On the directory they are the global depth
+ * g, then two unused words, followed by the 2^g bucket page numbers (0 for
+ * none: the directory of an empty index).  On a bucket they are its local
+ * depth, its number of entries n and the page number of its overflow page
+ * (0 for none), followed by the n entries, each a key of the index's key
+ * type and the page number and slot of its tuple, in no particular order.
+ * An all-zero page is an empty directory or an empty bucket.
+ */
+public class HashPage implements Page {
+    static final int HEADER_SIZE = 12;
+
+    final HashPageId pid;
+    final Type keyType;
+    final int pageSize;
+    /** Global depth on the directory, local depth on a bucket. */
+    int depth;
+    int n;
+    int overflow;
+    Field keys[];
+    int pages[];
+    int slots[];
+    /** Bucket page numbers, on the directory only; room for maxDepth. */
+    int dir[];
+
+    byte[] oldData;
+    TransactionId tid;
+
+    /**
+     * Create a HashPage from a page of data read from disk.  The key type
+     * and page size are those of the HashFile the page belongs to, found
+     * in the catalog.
+     *
+     * @param id the id of this page
+     * @param data the page's bytes
+     */
+    public HashPage(HashPageId id, byte[] data) throws IOException {
+        this(id, data, ((HashFile)Database.getCatalog().getDbFile(id.getTableId())).getKeyType(),
+            ((HashFile)Database.getCatalog().getDbFile(id.getTableId())).getPageSize());
+    }
+
+    /**
+     * Create a HashPage of an index with the specified key type and page
+     * size.
+     *
+     * @see #HashPage(HashPageId, byte[])
+     */
+    HashPage(HashPageId id, byte[] data, Type keyType, int pageSize) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.pageSize = pageSize;
+        if (data.length < pageSize)
+            throw new IOException("page data too short: " + data.length + " bytes");
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        depth = buf.getInt(0);
+        n = buf.getInt(4);
+        overflow = buf.getInt(8);
+        if (depth < 0 || depth > maxDepth(pageSize) || n < 0 || n > capacity(keyType, pageSize))
+            throw new IOException("corrupt hash index page " + id.pageno());
+        if (isDirectory()) {
+            dir = new int[1 << maxDepth(pageSize)];
+            for (int i = 0;i < (1 << depth);i++)
+                dir[i] = buf.getInt(HEADER_SIZE + 4 * i);
+        }
+        else {
+            keys = new Field[capacity(keyType, pageSize)];
+            pages = new int[keys.length];
+            slots = new int[keys.length];
+            int off = HEADER_SIZE;
+            for (int i = 0;i < n;i++) {
+                keys[i] = keyType.parse(buf, off);
+                off += keyType.getLen();
+                pages[i] = buf.getInt(off);
+                slots[i] = buf.getInt(off + 4);
+                off += 8;
+            }
+        }
+        oldData = data.clone();
+    }
+
+    /** @return the number of entries that fit on a bucket page of the specified size */
+    static int capacity(Type keyType, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the largest global depth of a directory on a page of the
+     *   specified size, as the directory has to fit on page 0
+     */
+    static int maxDepth(int pageSize) {
+        return 31 - Integer.numberOfLeadingZeros((pageSize - HEADER_SIZE) / 4);
+    }
+
+    /** @return true if this is the directory page */
+    public boolean isDirectory() {
+        return pid.pageno() == 0;
+    }
+
+    /** @return true if another entry fits on this bucket page */
+    boolean hasRoom() {
+        return n < keys.length;
+    }
+
+    /** Adds an entry to this bucket page, which must have room. */
+    void addEntry(Field key, int pgNo, int slot) {
+        keys[n] = key;
+        pages[n] = pgNo;
+        slots[n] = slot;
+        n++;
+    }
+
+    /** Removes the specified entry, moving the last entry into its place. */
+    void removeEntry(int i) {
+        n--;
+        keys[i] = keys[n];
+        pages[i] = pages[n];
+        slots[i] = slots[n];
+        keys[n] = null;
+    }
+
+    /** @return the position of the specified entry, or -1 if it is not on this page */
+    int find(Field key, int pgNo, int slot) {
+        for (int i = 0;i < n;i++)
+            if (pages[i] == pgNo && slots[i] == slot && keys[i].equals(key))
+                return i;
+        return -1;
+    }
+
+    /** @return the number of entries on this bucket page */
+    public int getNumEntries() {
+        return n;
+    }
+
+    /** @return the key of the specified entry */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(depth);
+            dos.writeInt(n);
+            dos.writeInt(overflow);
+            if (isDirectory()) {
+                for (int i = 0;i < (1 << depth);i++)
+                    dos.writeInt(dir[i]);
+            }
+            else {
+                for (int i = 0;i < n;i++) {
+                    keys[i].serialize(dos);
+                    dos.writeInt(pages[i]);
+                    dos.writeInt(slots[i]);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        byte[] data = new byte[pageSize];
+        byte[] used = baos.toByteArray();
+        System.arraycopy(used, 0, data, 0, used.length);
+        return data;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashPage getBeforeImage() {
+        try {
+            return new HashPage(pid, oldData, keyType, pageSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return tid;
+    }
+}
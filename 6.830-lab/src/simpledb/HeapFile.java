@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -8,7 +11,15 @@ import java.util.*;
  * of tuples in no particular order.  Tuples are stored on pages, each of
  * which is a fixed size, and the file is simply a collection of those
  * pages. HeapFile works closely with HeapPage.  The format of HeapPages
- * is described in the HeapPage constructor.
+ * is described in the HeapPage constructor.  Subclasses may store their
+ * tuples in other page layouts by overriding {@link #createPage}.
+ * <p>
+ * Each file has its own page size.  Files with the default page size
+ * and layout ({@link BufferPool#PAGE_SIZE} and HeapPages) are just their
+ * pages; any other size or layout is recorded in a header of
+ * FILE_HEADER_SIZE bytes in front of the first page (see
+ * {@link #writeFileHeader}), so it is found again when the file is
+ * reopened, and a file is never read with the wrong layout.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -16,8 +27,30 @@ import java.util.*;
 public class HeapFile implements DbFile {
     private File f;
     private TupleDesc td;
+    private final int pageSize;
+    /** Offset of the first page: the length of the file header, if any. */
+    private final int dataOffset;
+    /** The channel pages are read and written through, kept open until {@link #close}. */
+    private final PageChannel io;
+    private volatile boolean memoryMapped;
+    /** Read-only mappings of consecutive MAP_CHUNK regions of the file, or null if not mapped. */
+    private volatile MappedByteBuffer[] maps;
+    private FreeSpaceMap fsm;
+
+    /** Largest region of a file that is mapped at once. */
+    static final long MAP_CHUNK = 1L << 30;
+
+    /** Identifies a file header: "SimpleDB" in ASCII. */
+    static final long FILE_MAGIC = 0x53696d706c654442L;
+    /** Page layouts named by a file header: {@link HeapPage}s and {@link SlottedPage}s. */
+    public static final int LAYOUT_HEAP = 1, LAYOUT_SLOTTED = 2;
+    /** Length of the header of files whose page size is not the default. */
+    public static final int FILE_HEADER_SIZE = 16;
+
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file.  Its page size
+     * is read from the file's header, or is the default page size if the
+     * file has none.
      *
      * @param f the file that stores the on-disk backing store for this heap file.
      */
@@ -25,6 +58,133 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.io = new PageChannel(f);
+        checkLayout(f);
+        int size = readFileHeader(f);
+        this.pageSize = size > 0 ? size : BufferPool.PAGE_SIZE;
+        this.dataOffset = size > 0 || layout() != LAYOUT_HEAP ? FILE_HEADER_SIZE : 0;
+    }
+
+    /**
+     * Constructs a heap file with the specified page size.  An empty (or
+     * missing) file gets a header recording the size when its first page
+     * is written, unless the size is the default.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param pageSize the size of the file's pages in bytes
+     * @throws IllegalArgumentException if pageSize is not a valid page size
+     *   (see {@link BufferPool#checkPageSize}), or the file already exists
+     *   with another page size or layout
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        BufferPool.checkPageSize(pageSize);
+        this.f = f;
+        this.td = td;
+        this.io = new PageChannel(f);
+        checkLayout(f);
+        int size = readFileHeader(f);
+        if (size == 0 && f.length() > 0)
+            size = BufferPool.PAGE_SIZE;
+        if (size > 0 && size != pageSize)
+            throw new IllegalArgumentException(f + " has " + size + "-byte pages, not " + pageSize);
+        this.pageSize = pageSize;
+        this.dataOffset = pageSize != BufferPool.PAGE_SIZE || layout() != LAYOUT_HEAP ? FILE_HEADER_SIZE : 0;
+    }
+
+    /**
+     * @return the layout of this file's pages, LAYOUT_HEAP; subclasses that
+     *   override {@link #createPage} return theirs
+     */
+    protected int layout() {
+        return LAYOUT_HEAP;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the specified file holds pages of
+     *   another layout than this file's
+     */
+    private void checkLayout(File f) {
+        int layout = f.length() > 0 ? readFileLayout(f) : layout();
+        if (layout != layout())
+            throw new IllegalArgumentException(f + " has pages of layout " + layout + ", not " + layout());
+    }
+
+    /**
+     * Writes the header that records a page size other than the default
+     * at the start of a heap file of HeapPages.
+     *
+     * @see #writeFileHeader(DataOutput, int, int)
+     */
+    public static void writeFileHeader(DataOutput out, int pageSize) throws IOException {
+        writeFileHeader(out, pageSize, LAYOUT_HEAP);
+    }
+
+    /**
+     * Writes the header that records a page size or layout other than the
+     * default at the start of a heap file: the magic number FILE_MAGIC,
+     * the layout (LAYOUT_HEAP or LAYOUT_SLOTTED) and the page size, padded
+     * to FILE_HEADER_SIZE bytes.
+     */
+    public static void writeFileHeader(DataOutput out, int pageSize, int layout) throws IOException {
+        out.writeLong(FILE_MAGIC);
+        out.writeInt(layout);
+        out.writeInt(pageSize);
+    }
+
+    /**
+     * @return the layout and page size recorded in the header of the
+     *   specified file, or null if it has no header (or does not exist)
+     */
+    private static int[] readHeader(File f) {
+        if (f.length() < FILE_HEADER_SIZE)
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                if (in.readLong() != FILE_MAGIC)
+                    return null;
+                int layout = in.readInt();
+                int size = in.readInt();
+                if (layout != LAYOUT_HEAP && layout != LAYOUT_SLOTTED)
+                    throw new IllegalArgumentException(f + ": unknown page layout " + layout);
+                BufferPool.checkPageSize(size);
+                return new int[] { layout, size };
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the page size recorded in the header of the specified file,
+     *   or 0 if it has no header (or does not exist)
+     */
+    static int readFileHeader(File f) {
+        int[] header = readHeader(f);
+        return header == null ? 0 : header[1];
+    }
+
+    /**
+     * @return the page layout recorded in the header of the specified
+     *   file, or LAYOUT_HEAP if it has none
+     */
+    public static int readFileLayout(File f) {
+        int[] header = readHeader(f);
+        return header == null ? LAYOUT_HEAP : header[0];
+    }
+
+    /** @return the size in bytes of this file's pages */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the offset of the specified page in the file */
+    private long pageOffset(int pgNo) {
+        return dataOffset + (long)pgNo * pageSize;
     }
 
     /**
@@ -72,23 +232,25 @@ public class HeapFile implements DbFile {
         if (pgNo < 0 || pgNo >= numPages()) 
             throw new IllegalArgumentException();
 
-        byte[] data = HeapPage.createEmptyPageData();
-        try {
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
-            try {
-                raf.seek((long)pgNo * BufferPool.PAGE_SIZE);
-                raf.read(data);
-                return new HeapPage((HeapPageId)pid, data);
-            }
-            finally {
-                raf.close();
+        if (memoryMapped) {
+            ByteBuffer mapped = mappedPage(pgNo);
+            if (mapped != null) {
+                try {
+                    return createPage((HeapPageId)pid, mapped);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
         }
+        try {
+            // a short read leaves the rest of the page zeroed
+            byte[] data = io.read(pageOffset(pgNo), pageSize);
+            return createPage((HeapPageId)pid, ByteBuffer.wrap(data));
+        }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
-            
-            
     }
 
     // see DbFile.java for javadocs
@@ -97,27 +259,152 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         int pgNo = page.getId().pageno();
         byte[] data = page.getPageData();
+        // the file is no longer read-only: go back to plain reads
+        if (memoryMapped)
+            setMemoryMapped(false);
         try {
-            RandomAccessFile raf = new RandomAccessFile(f, "rw");
-            try {
-                raf.seek((long)pgNo * BufferPool.PAGE_SIZE);
-                raf.write(data);
-            }
-            finally {
-                raf.close();
-            }
+            if (data.length != pageSize)
+                throw new IOException("page of " + data.length + " bytes written to a file of " + pageSize + "-byte pages");
+            if (dataOffset > 0 && f.length() < dataOffset)
+                writeHeader();
+            io.write(pageOffset(pgNo), data);
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Creates the in-memory page for data read from (or about to be
+     * written to) the file.  An all-zero buffer must make an empty page.
+     *
+     * @param pid the id of the page
+     * @param data the page's bytes; must not be modified by the page
+     */
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Turns the memory-mapped read path on or off.  When on, pages are
+     * read straight out of a read-only mapping of the file, so the OS page
+     * cache serves reads without a system call per page, and HeapPages
+     * decode their tuples from the mapping without copying it.  Meant for
+     * read-mostly tables: writing a page turns it off again.
+     */
+    public synchronized void setMemoryMapped(boolean on) {
+        memoryMapped = on;
+        if (!on)
+            maps = null;
+    }
+
+    /** @return true if pages are read through a memory mapping of the file */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns a buffer positioned at the start of the specified page in
+     * the mapping of the file, mapping the file first if necessary; or
+     * null if the page lies beyond the mapped part of the file or the file
+     * cannot be mapped.
+     */
+    private ByteBuffer mappedPage(int pgNo) {
+        MappedByteBuffer[] m = maps;
+        if (m == null) {
+            synchronized (this) {
+                if (!memoryMapped)
+                    return null;
+                m = maps;
+                if (m == null) {
+                    try {
+                        m = map();
+                    }
+                    catch (IOException e) {
+                        return null;
+                    }
+                    maps = m;
+                }
+            }
+        }
+        long pagesPerChunk = MAP_CHUNK / pageSize;
+        int chunk = (int)(pgNo / pagesPerChunk);
+        int offset = (int)(pgNo % pagesPerChunk) * pageSize;
+        if (chunk >= m.length || offset + pageSize > m[chunk].capacity())
+            return null;
+        ByteBuffer buf = m[chunk].duplicate();
+        buf.position(offset);
+        buf.limit(offset + pageSize);
+        return buf;
+    }
+
+    /** Maps the whole pages of the file in chunks of at most MAP_CHUNK bytes. */
+    private MappedByteBuffer[] map() throws IOException {
+        FileChannel ch = io.channel();
+        long pagesPerChunk = MAP_CHUNK / pageSize;
+        long chunkSize = pagesPerChunk * pageSize;
+        long length = Math.max(0, ch.size() - dataOffset) / pageSize * pageSize;
+        MappedByteBuffer[] m = new MappedByteBuffer[(int)((length + chunkSize - 1) / chunkSize)];
+        for (int i = 0;i < m.length;i++) {
+            long start = i * chunkSize;
+            m[i] = ch.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, Math.min(chunkSize, length - start));
+        }
+        return m;
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it on first use.
+     * It is saved by {@link #saveFreeSpaceMap} and {@link #close}.
+     */
+    public synchronized FreeSpaceMap freeSpaceMap() {
+        if (fsm == null)
+            fsm = new FreeSpaceMap(this);
+        return fsm;
+    }
+
+    /**
+     * Saves the free-space map of this file, if it has been loaded, so it
+     * records the file as it is now.  Called when a transaction that
+     * inserted into the file or wrote its pages commits.
+     */
+    public void saveFreeSpaceMap() throws IOException {
+        FreeSpaceMap m;
+        synchronized (this) {
+            m = fsm;
+        }
+        if (m != null)
+            m.save(this);
+    }
+
+    /** Writes the file header in front of the first page of an empty file. */
+    private synchronized void writeHeader() throws IOException {
+        if (f.length() >= dataOffset)
+            return;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(FILE_HEADER_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeFileHeader(dos, pageSize, layout());
+        dos.flush();
+        io.write(0, baos.toByteArray());
+    }
+
+    /**
+     * Closes the file.  It is reopened if the HeapFile is used again.
+     */
+    public synchronized void close() throws IOException {
+        maps = null;
+        if (fsm != null) {
+            fsm.save(this);
+            fsm = null;
+        }
+        io.close();
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here
-        return (int)(f.length() / BufferPool.PAGE_SIZE);
+        return (int)(Math.max(0, f.length() - dataOffset) / pageSize);
     }
 
     // see DbFile.java for javadocs
@@ -129,25 +416,29 @@ public class HeapFile implements DbFile {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> pgAr = new ArrayList<Page>();
-        int tableid = getId(), pgno = 0;
-        for (;pgno < numPages();pgno++) {
+        int tableid = getId(), pgno;
+        // only pages the free-space map says have room are visited
+        FreeSpaceMap fsm = freeSpaceMap();
+        fsm.cover(this);
+        for (pgno = fsm.nextFreePage(0);pgno >= 0;pgno = fsm.nextFreePage(pgno + 1)) {
             PageId pid = new HeapPageId(tableid, pgno);
-            HeapPage pg = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            if (pg.getNumEmptySlots() > 0) {
-                HeapPage wpg = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            TuplePage wpg = (TuplePage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (wpg.hasRoomFor(t)) {
                 wpg.addTuple(t);
+                fsm.setFree(pgno, wpg.hasRoom());
                 pgAr.add(wpg);
                 return pgAr;
             }
-            /*else {
-                Database.getBufferPool().releasePage(tid, pg.getId());
-            }*/
+            if (!wpg.hasRoom())
+                fsm.setFree(pgno, false);
         }
-        byte[] data = HeapPage.createEmptyPageData();
-        HeapPage pg = new HeapPage(new HeapPageId(tableid, pgno), data);
+        pgno = numPages();
+        byte[] data = HeapPage.createEmptyPageData(pageSize);
+        TuplePage pg = createPage(new HeapPageId(tableid, pgno), ByteBuffer.wrap(data));
         pg.addTuple(t);
         pgAr.add(pg);
         writePage(pg);
+        fsm.setFree(pgno, pg.hasRoom());
         return pgAr;
         // not necessary for lab1
     }
@@ -157,14 +448,47 @@ public class HeapFile implements DbFile {
         throws DbException, TransactionAbortedException {
         // some code goes here
         PageId pid = t.getRecordId().getPageId();
-        HeapPage pg = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        TuplePage pg = (TuplePage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         pg.deleteTuple(t);
+        freeSpaceMap().setFree(pid.pageno(), true);
         return pg;
         // not necessary for lab1
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(final TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile that
+     * reads its pages through the specified access strategy.  Pages ahead
+     * of the iterator are read in the background (see {@link Prefetcher}).
+     *
+     * @param tid the transaction the pages are read on behalf of
+     * @param strategy the ring to read pages into, or null to use the
+     *   whole buffer pool
+     * @see BufferPool#scanStrategy
+     */
+    public DbFileIterator iterator(final TransactionId tid, final BufferAccessStrategy strategy) {
+        return iterator(tid, strategy, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in a range of this
+     * HeapFile's pages, reading them through the specified access
+     * strategy.  Iterators over disjoint ranges can be read by different
+     * threads at once.
+     *
+     * @param tid the transaction the pages are read on behalf of
+     * @param strategy the ring to read pages into, or null to use the
+     *   whole buffer pool
+     * @param firstPage the first page to read
+     * @param endPage the page after the last one to read, or -1 to read
+     *   to the end of the file, including pages added while reading
+     */
+    public DbFileIterator iterator(final TransactionId tid, final BufferAccessStrategy strategy,
+            final int firstPage, final int endPage) {
         // some code goes here
         return new DbFileIterator() {
             private BufferPool bp = Database.getBufferPool();
@@ -172,33 +496,47 @@ public class HeapFile implements DbFile {
             private int pgNo = -1;
             private TransactionId _tid = tid;
             private Iterator<Tuple> ti = null;
+            private Prefetcher prefetcher = null;
+
+            private int end() {
+                return endPage < 0 ? numPages() : endPage;
+            }
+
+            private Iterator<Tuple> readPage(int pgNo) throws TransactionAbortedException, DbException {
+                if (prefetcher == null)
+                    prefetcher = new Prefetcher(bp, tableId, end(), strategy);
+                prefetcher.pageRequested(pgNo);
+                return ((TuplePage)bp.getPage(_tid, new HeapPageId(tableId, pgNo), Permissions.READ_ONLY, strategy)).iterator();
+            }
 
             @Override
             public void open() {
-                pgNo = 0;
+                pgNo = firstPage;
                 ti = null;
+                prefetcher = null;
             }
 
             @Override
             public void close() {
                 pgNo = -1;
                 ti = null;
+                prefetcher = null;
             }
 
             @Override
             public boolean hasNext() throws TransactionAbortedException, DbException{
-                if (pgNo < 0)
+                if (pgNo < 0 || (endPage >= 0 && pgNo >= endPage))
                     return false;
                 if (ti == null) {
-                    ti = ((HeapPage)bp.getPage(_tid, new HeapPageId(tableId, pgNo), Permissions.READ_ONLY)).iterator();
+                    ti = readPage(pgNo);
                     return hasNext();
                 }
                 if (ti.hasNext())
                     return true;
-                else if (pgNo >= numPages()-1)
+                else if (pgNo >= end()-1)
                     return false;
                 else {
-                    ti = ((HeapPage)bp.getPage(_tid, new HeapPageId(tableId, ++pgNo), Permissions.READ_ONLY)).iterator();
+                    ti = readPage(++pgNo);
                     return hasNext();
                 }
             }
@@ -212,7 +550,7 @@ public class HeapFile implements DbFile {
 
             @Override
             public void rewind() {
-                pgNo = 0;
+                pgNo = firstPage;
                 ti = null;
             }
         };
@@ -70,7 +70,8 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile; a page size other than the default is recorded in the
+    * file header.
     *
     * @see HeapPage
     * @see HeapFile
@@ -100,6 +101,12 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    if (npagebytes != BufferPool.PAGE_SIZE) {
+        BufferPool.checkPageSize(npagebytes);
+        DataOutputStream fileHeader = new DataOutputStream(os);
+        HeapFile.writeFileHeader(fileHeader, npagebytes);
+        fileHeader.flush();
+    }
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -217,4 +224,67 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file, in the format read by
+   * {@link #convert(File, File, int, int, Type[])}, into a file of
+   * {@link SlottedPage}s, which a {@link SlottedFile} reads.  Each page
+   * holds as many tuples as fit; the file header records the layout and
+   * page size.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the type of each field of an input line/output tuple
+   * @throws IOException if the input/output file can't be opened, or a
+   *   tuple does not fit on a page
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes, Type[] typeAr)
+      throws IOException {
+    BufferPool.checkPageSize(npagebytes);
+    TupleDesc td = new TupleDesc(typeAr);
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+    try {
+      HeapFile.writeFileHeader(os, npagebytes, HeapFile.LAYOUT_SLOTTED);
+      int npages = 0;
+      SlottedPage page = new SlottedPage(new HeapPageId(0, npages), td, npagebytes);
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0)
+          continue;
+        String[] fields = line.split(",");
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < typeAr.length; i++) {
+          String f = i < fields.length ? fields[i].trim() : "";
+          if (typeAr[i] == Type.INT_TYPE) {
+            try {
+              t.setField(i, new IntField(Integer.parseInt(f)));
+            } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              t.setField(i, new IntField(0));
+            }
+          }
+          else
+            t.setField(i, new StringField(f, Type.STRING_LEN));
+        }
+        if (!page.hasRoomFor(t)) {
+          if (page.getNumTuples() == 0)
+            throw new IOException("tuple does not fit on a page: " + line);
+          os.write(page.getPageData());
+          page = new SlottedPage(new HeapPageId(0, ++npages), td, npagebytes);
+        }
+        try {
+          page.addTuple(t);
+        } catch (DbException e) {
+          throw new IOException(e.getMessage());
+        }
+      }
+      // like convert, an empty input makes one empty page
+      if (page.getNumTuples() > 0 || npages == 0)
+        os.write(page.getPageData());
+    } finally {
+      br.close();
+      os.close();
+    }
+  }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
@@ -10,15 +11,31 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    /**
+     * The page as it is stored on disk; the only copy of the header and
+     * of every tuple.  Until the page is first modified this is the
+     * buffer it was created from, which is never written to.
+     */
+    volatile ByteBuffer data;
+    /**
+     * true once data is a private copy that may be modified in place;
+     * false while data may be shared with the buffer the page was created
+     * from or with the before image.
+     */
+    boolean owned;
+    /** Tuples handed out so far, by slot; fields are decoded on demand. */
     Tuple tuples[];
     int numSlots;
+    int headerSize;
+    /** Size of the page in bytes, as set for its table in the catalog. */
+    int pageSize;
 
-    byte[] oldData;
+    /** The page before it was modified, or null if it has not been since the last setBeforeImage. */
+    ByteBuffer beforeImage;
 
     TransactionId tid;
 
@@ -27,37 +44,53 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's page size ({@link Catalog#getPageSize}).
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a page-sized buffer, such as a region of a
+     * memory-mapped file, without copying or decoding it.  Tuples are
+     * decoded from the buffer as they are read; the buffer itself is never
+     * modified; it is copied the first time the page is.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+            Database.getCatalog().getPageSize(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a file that is not in the catalog, such as a
+     * {@link SpillFile}, whose tuples and page size are the specified ones.
+     *
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td, int pageSize) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.pageSize = pageSize;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < pageSize)
+            throw new IOException("page data too short: " + data.remaining() + " bytes");
+        ByteBuffer page = data.slice();
+        page.limit(pageSize);
+        this.data = page;
+        this.tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
@@ -67,7 +100,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int)Math.floor((BufferPool.PAGE_SIZE * 8.0) / (td.getSize() * 8 + 1));
+        return (int)Math.floor((pageSize * 8.0) / (td.getSize() * 8 + 1));
 
     }
 
@@ -85,7 +118,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, beforeImage != null ? beforeImage : data);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -94,8 +127,14 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Takes the current contents as the before image.  Nothing is copied:
+     * the current data simply stops being modified in place, and the next
+     * modification copies it (see {@link #makeWritable}).
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        beforeImage = null;
+        owned = false;
     }
 
     /**
@@ -107,38 +146,46 @@ public class HeapPage implements Page {
         //throw new UnsupportedOperationException("implement this");
     }
 
+    /** @return the offset of the specified slot's tuple within the page */
+    private int tupleOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, creating it the first time
+     * it is asked for, or null if the slot is empty.  Its fields are
+     * decoded from the page data only when they are read.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!getSlot(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !getSlot(slotId))
             return null;
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, tupleOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Prepares the page data for modification.  The first modification
+     * since the page was created or since setBeforeImage copies the data;
+     * the unmodified buffer becomes the before image.  Tuples handed out
+     * so far are decoded first, so they keep their values whatever
+     * happens to that buffer (a file mapping changes when the file is
+     * written).
+     */
+    private void makeWritable() {
+        if (owned)
+            return;
+        for (int i = 0;i < numSlots;i++) {
+            if (tuples[i] != null)
+                tuples[i].materialize();
         }
-
-        return t;
+        beforeImage = data;
+        data = ByteBuffer.wrap(getPageData());
+        owned = true;
     }
 
     /**
@@ -153,64 +200,11 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!getSlot(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] bytes = new byte[pageSize];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(bytes);
+        return bytes;
     }
 
     /**
@@ -224,8 +218,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return an empty page of the specified size
+     * @see #createEmptyPageData()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -245,8 +246,15 @@ public class HeapPage implements Page {
             throw new DbException("Tuple deleted number is out of bound.");
         if (!getSlot(tn))
             throw new DbException("Delete an empty slot.");
+        makeWritable();
+        if (tuples[tn] != null)
+            tuples[tn].materialize();
         tuples[tn] = null;
         setSlot(tn, false);
+        // empty slots are stored as zeroes
+        int off = tupleOffset(tn);
+        for (int i = 0;i < td.getSize();i++)
+            data.put(off + i, (byte)0);
     }
 
     /**
@@ -263,6 +271,8 @@ public class HeapPage implements Page {
             throw new DbException("Tuple inserted mismatch the description.");
         for (int i = 0;i < numSlots;i++) {
             if (!getSlot(i)) {
+                makeWritable();
+                writeTuple(i, t);
                 tuples[i] = t;
                 setSlot(i, true);
                 t.setRecordId(new RecordId(pid, i));
@@ -272,6 +282,23 @@ public class HeapPage implements Page {
         throw new DbException("Tuple inserted on a full page.");
     }
 
+    /** Serializes t into the specified slot of the page data. */
+    private void writeTuple(int slotId, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0;j < td.numFields();j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        ByteBuffer dst = data.duplicate();
+        dst.position(tupleOffset(slotId));
+        dst.put(baos.toByteArray());
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -303,12 +330,23 @@ public class HeapPage implements Page {
         return num;
     }
 
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoom();
+    }
+
+    public boolean hasRoom() {
+        for (int i = 0;i < numSlots;i++)
+            if (!getSlot(i))
+                return true;
+        return false;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean getSlot(int i) {
         // some code goes here
-        return 0 != (header[i/8] & (1<<(i%8)));
+        return 0 != (data.get(i/8) & (1<<(i%8)));
     }
 
     /**
@@ -317,10 +355,12 @@ public class HeapPage implements Page {
     private void setSlot(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        byte b = data.get(i/8);
         if (value)
-            header[i/8] |= (1<<(i%8));
+            b |= (1<<(i%8));
         else 
-            header[i/8] &= (~(1<<(i%8)));
+            b &= (~(1<<(i%8)));
+        data.put(i/8, b);
     }
 
     /**
@@ -342,7 +382,7 @@ public class HeapPage implements Page {
             @Override
             public Tuple next() {
                 if (hasNext())
-                    return tuples[++idx];
+                    return getTuple(++idx);
                 else
                     throw new NoSuchElementException();
             }
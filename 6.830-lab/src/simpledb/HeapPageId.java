@@ -4,6 +4,7 @@ package simpledb;
 public class HeapPageId implements PageId {
     private int tableId;
     private int pgNo;
+    private int hash;
 
     /**
      * Constructor. Create a page id structure for a specific page of a
@@ -16,6 +17,8 @@ public class HeapPageId implements PageId {
         // some code goes here
         this.tableId = tableId;
         this.pgNo = pgNo;
+        // computed once: page ids are probed on every BufferPool lookup
+        this.hash = ("" + tableId + "#" + pgNo).hashCode();
     }
 
     /** @return the table associated with this PageId */
@@ -41,8 +44,7 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        String hash = "" + tableId + "#" + pgNo;
-        return hash.hashCode();
+        return hash;
         //throw new UnsupportedOperationException("implement this");
     }
 
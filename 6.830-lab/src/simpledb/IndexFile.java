@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * IndexFile is the interface of indexes on one field of a table.  The
+ * tuples of an index are those of its table; an index finds the ones whose
+ * key satisfies a predicate without reading the rest of the table.
+ * Indexes registered with {@link Catalog#addIndex} are kept in sync with
+ * their table by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple}, which call {@link #addTuple} and
+ * {@link #deleteTuple} with tuples already stored in the table.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the table this index is on */
+    public int getTableId();
+
+    /** @return the field of the table that is the key of this index */
+    public int getKeyField();
+
+    /**
+     * @return true if the index can find the tuples whose key satisfies a
+     *   predicate with the specified operator (null for all tuples)
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * satisfies <tt>key op operand</tt>.
+     *
+     * @param op an operator the index supports, or null for all tuples
+     * @throws IllegalArgumentException if the index does not support op
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand);
+
+    /**
+     * @return the estimated number of index pages read to find the
+     *   entries of one key
+     */
+    public int probeCost();
+
+    /** @return the size in bytes of the index's pages */
+    public int getPageSize();
+
+    /**
+     * Rebuilds the index from a scan of its table, replacing its contents.
+     * The index must be in the catalog, and no transaction may be using it.
+     */
+    public void build() throws DbException, TransactionAbortedException, IOException;
+
+    /**
+     * @return true if the index was last written for its table as it is
+     *   now, so it need not be rebuilt (see {@link IndexStamp})
+     */
+    public boolean isCurrent();
+
+    /**
+     * Records that the index matches its table as it is now.  Called by
+     * {@link BufferPool#flushPages} once a transaction's pages are written.
+     */
+    public void saveStamp() throws IOException;
+
+    /** Closes the index's file.  It is reopened if the index is used again. */
+    public void close() throws IOException;
+}
@@ -0,0 +1,92 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * IndexJoin is an index nested-loops equi-join: for each tuple of the outer
+ * child it finds the matching tuples of the inner table through an index
+ * on the inner join field, rather than rescanning the inner table.  Its
+ * tuples are those {@link Join} would return for the same outer child and a
+ * SeqScan of the inner table, in the same order of outer tuples.
+ */
+public class IndexJoin extends AbstractDbIterator {
+    private JoinPredicate p;
+    private DbIterator child1;
+    private TransactionId tid;
+    private IndexFile index;
+    private Tuple t1;
+    private DbFileIterator matches;
+    private TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param p the predicate to join on; an EQUALS predicate whose second
+     *   field is the key of the index
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param tid the transaction the probes of the index run as a part of
+     * @param index an index on the right(inner) relation that supports EQUALS
+     * @throws IllegalArgumentException if the predicate is not an EQUALS
+     *   predicate on the index's key
+     */
+    public IndexJoin(JoinPredicate p, DbIterator child1, TransactionId tid, IndexFile index) {
+        if (p.getOperator() != Predicate.Op.EQUALS || p.getField2() != index.getKeyField()
+                || !index.supports(Predicate.Op.EQUALS))
+            throw new IllegalArgumentException("index cannot evaluate the join predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.tid = tid;
+        this.index = index;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), index.getTupleDesc());
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        t1 = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        if (matches != null)
+            matches.close();
+        t1 = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (matches != null)
+            matches.close();
+        t1 = null;
+        matches = null;
+    }
+
+    /**
+     * Returns the next outer tuple joined with a matching inner tuple, as
+     * the concatenation of the two, like {@link Join#readNext}.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext())
+                return Join.merge(td, t1, matches.next());
+            if (matches != null)
+                matches.close();
+            if (!child1.hasNext()) {
+                matches = null;
+                return null;
+            }
+            t1 = child1.next();
+            matches = index.iterator(tid, Predicate.Op.EQUALS, t1.getField(p.getField1()));
+            matches.open();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table that
+ * satisfy a predicate on an indexed field through the field's
+ * {@link IndexFile}, without reading the rest of the table.  Through a
+ * BTreeFile, the tuples come in the order of the field.
+ */
+public class IndexScan implements DbIterator {
+    private int tableid;
+    private String tableAlias;
+    private Predicate p;
+    private IndexFile index;
+    private DbFileIterator di;
+
+    /**
+     * Creates a scan of the tuples of the specified table that satisfy a
+     * predicate, as a part of the specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param p an EQUALS or range predicate on a field of the table that
+     *   has an index
+     * @throws IllegalArgumentException if the field has no index, or the
+     *   index cannot evaluate the predicate
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate p) {
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.p = p;
+        this.index = Database.getCatalog().getIndex(tableid, p.getField());
+        if (index == null)
+            throw new IllegalArgumentException("no index on field " + p.getField() + " of table " + tableid);
+        this.di = index.iterator(tid, p.getOp(), p.getOperand());
+    }
+
+    /** @return the predicate the index evaluates */
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    /**
+     * @return true if the tuples come in ascending order of the specified
+     *   field: the indexed field, through a BTreeFile
+     */
+    public boolean isOrderedOn(int field) {
+        return index instanceof BTreeFile && field == p.getField();
+    }
+
+    public void open()
+        throws DbException, TransactionAbortedException {
+        di.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the table, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableid);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return di.hasNext();
+    }
+
+    public Tuple next()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        return di.next();
+    }
+
+    public void close() {
+        di.close();
+    }
+
+    public void rewind()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        di.rewind();
+    }
+}
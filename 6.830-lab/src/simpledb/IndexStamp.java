@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * IndexStamp records, next to an index file, the length and modification
+ * time of the index's table file when the index was last written, and
+ * the index's page size.  An index whose stamp does not match its table
+ * file (e.g. one regenerated since) is not trusted, and is rebuilt.
+ * <p>
+ * It is stored in a file with the suffix ".stamp", written when the index
+ * is built and each time a transaction's pages of the index are flushed
+ * (see {@link BufferPool#flushPages}).
+ */
+class IndexStamp {
+    /** Suffix of the file a stamp is stored in, appended to the index file's name. */
+    static final String SUFFIX = ".stamp";
+    /** Identifies a stamp: "IDX1" in ASCII. */
+    static final int MAGIC = 0x49445831;
+
+    private final File index;
+    private final File file;
+    /** The file of the indexed table, or null if it is not a HeapFile. */
+    private final File table;
+    private final int pageSize;
+
+    /**
+     * @param index the index file
+     * @param table the table the index is on
+     * @param pageSize the size of the index's pages
+     */
+    IndexStamp(File index, DbFile table, int pageSize) {
+        this.index = index;
+        this.file = new File(index.getPath() + SUFFIX);
+        this.table = table instanceof HeapFile ? ((HeapFile)table).getFile() : null;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return true if the stamp records the table file as it is now, and
+     *   the index's page size
+     */
+    boolean isCurrent() {
+        if (table == null || !file.exists() || index.length() == 0)
+            return false;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return dis.readInt() == MAGIC && dis.readInt() == pageSize
+                    && dis.readLong() == table.length() && dis.readLong() == table.lastModified();
+            }
+            finally {
+                dis.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Records the table file as it is now. */
+    void save() throws IOException {
+        if (table == null)
+            return;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(pageSize);
+            dos.writeLong(table.length());
+            dos.writeLong(table.lastModified());
+        }
+        finally {
+            dos.close();
+        }
+    }
+}
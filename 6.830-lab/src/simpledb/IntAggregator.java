@@ -2,14 +2,32 @@ package simpledb;
 import java.util.*;
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * The groups' aggregates are kept in arrays of longs, one slot per group in
+ * the order the groups were first seen, so a merge into an existing group
+ * allocates nothing and sums do not overflow.  Integer group values are
+ * found through an open-addressing hash table of ints; string ones through
+ * a HashMap.  Without grouping there is a single aggregate and no lookup.
  */
 public class IntAggregator implements Aggregator {
+    private static final int INITIAL_GROUPS = 16;
+
     private int gbfield, afield;
     private Type gbfieldtype;
     private Op what;
     private TupleDesc td;
-    private HashMap<Field, Integer> vals;
-    private HashMap<Field, Integer> cnts;
+
+    /** The number of groups, and each group's value, count and MIN, MAX or SUM. */
+    private int ngroups;
+    private Field[] groups;
+    private long[] cnts;
+    private long[] vals;
+    /** For integer group values: each group's value, and the hash table of group numbers + 1 (0 if empty). */
+    private int[] intGroups;
+    private int[] table;
+    /** For string group values: the group number of each. */
+    private HashMap<Field, Integer> stringGroups;
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -24,8 +42,16 @@ public class IntAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.vals = new HashMap<Field, Integer>();
-        this.cnts = new HashMap<Field, Integer>();
+        int n = gbfield == NO_GROUPING ? 1 : INITIAL_GROUPS;
+        this.groups = new Field[n];
+        this.cnts = new long[n];
+        this.vals = new long[n];
+        if (gbfield != NO_GROUPING && gbfieldtype == Type.INT_TYPE) {
+            intGroups = new int[n];
+            table = new int[n * 2];
+        }
+        else if (gbfield != NO_GROUPING)
+            stringGroups = new HashMap<Field, Integer>();
         td = (gbfield == NO_GROUPING) ? new TupleDesc(new Type[]{Type.INT_TYPE}) :
             new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
     }
@@ -36,61 +62,137 @@ public class IntAggregator implements Aggregator {
      */
     public void merge(Tuple tup) {
         // some code goes here
-        Field key = (gbfield == NO_GROUPING) ? DUMMY_FIELD : tup.getField(gbfield);
-        if (cnts.containsKey(key)) 
-            cnts.put(key, cnts.get(key)+1);
-        else
-            cnts.put(key, 1);
-        if (vals.containsKey(key)) {
-            switch (what) {
-                case MIN:
-                    vals.put(key, Math.min(vals.get(key), tup.getField(afield).hashCode()));
-                    break;
-                case MAX:
-                    vals.put(key, Math.max(vals.get(key), tup.getField(afield).hashCode()));
-                    break;
-                case SUM:
-                    vals.put(key, vals.get(key) + tup.getField(afield).hashCode());
-                    break;
-                case AVG:
-                    vals.put(key, vals.get(key) + tup.getField(afield).hashCode());
-                    break;
-                case COUNT:
-                    vals.put(key, cnts.get(key));
-                    break;
-                default:
-                    vals.put(key, vals.get(key) + tup.getField(afield).hashCode());
+        int g = group(gbfield == NO_GROUPING ? null : tup.getField(gbfield));
+        add(g, ((IntField)tup.getField(afield)).getValue(), 1);
+    }
+
+    /**
+     * Merges the aggregates of another IntAggregator, of the same fields
+     * and operator, into those of this one: counts, sums and the sums of
+     * averages add up, and minimums and maximums are compared.
+     *
+     * @param other a partial aggregate of other tuples
+     */
+    void combine(IntAggregator other) {
+        for (int g = 0;g < other.ngroups;g++)
+            add(group(other.groups[g]), other.vals[g], other.cnts[g]);
+    }
+
+    /** @return the number of the group of the specified value, adding it if it is new */
+    private int group(Field f) {
+        if (gbfield == NO_GROUPING) {
+            if (ngroups == 0) {
+                groups[0] = DUMMY_FIELD;
+                ngroups = 1;
             }
+            return 0;
         }
+        return table != null ? intGroup(f) : stringGroup(f);
+    }
+
+    /**
+     * Adds a value to a group's aggregate: a tuple's (n = 1), or the MIN,
+     * MAX or SUM of n tuples.
+     */
+    private void add(int g, long v, long n) {
+        if (cnts[g] == 0)
+            vals[g] = v;
         else {
             switch (what) {
                 case MIN:
-                    vals.put(key, tup.getField(afield).hashCode());
+                    if (v < vals[g])
+                        vals[g] = v;
                     break;
                 case MAX:
-                    vals.put(key, tup.getField(afield).hashCode());
-                    break;
-                case SUM:
-                    vals.put(key, tup.getField(afield).hashCode());
-                    break;
-                case AVG:
-                    vals.put(key, tup.getField(afield).hashCode());
+                    if (v > vals[g])
+                        vals[g] = v;
                     break;
-                case COUNT:
-                    vals.put(key, cnts.get(key));
+                case SUM: case AVG:
+                    vals[g] += v;
                     break;
                 default:
-                    vals.put(key, tup.getField(afield).hashCode());
+                    break;
             }
         }
+        cnts[g] += n;
     }
 
-    public void printContent() {
-        Iterator<Field> it = vals.keySet().iterator();
-        while (it.hasNext()) {
-            Field key = it.next();
-            System.out.println(key.toString() + ": " + cnts.get(key));
+    /** Spreads the bits of an integer group value over the table. */
+    private static int hash(int v) {
+        int h = v * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the number of the group of the specified integer value, adding it if it is new */
+    private int intGroup(Field f) {
+        int v = ((IntField)f).getValue();
+        int mask = table.length - 1;
+        int i = hash(v) & mask;
+        while (table[i] != 0) {
+            int g = table[i] - 1;
+            if (intGroups[g] == v)
+                return g;
+            i = (i + 1) & mask;
+        }
+        int g = addGroup(f);
+        intGroups[g] = v;
+        table[i] = g + 1;
+        if (ngroups * 4 > table.length * 3)
+            rehash();
+        return g;
+    }
+
+    /** @return the number of the group of the specified string value, adding it if it is new */
+    private int stringGroup(Field f) {
+        Integer g = stringGroups.get(f);
+        if (g != null)
+            return g;
+        int n = addGroup(f);
+        stringGroups.put(f, n);
+        return n;
+    }
+
+    /** @return the number of a new group with the specified value */
+    private int addGroup(Field f) {
+        if (ngroups == groups.length) {
+            int n = groups.length * 2;
+            groups = Arrays.copyOf(groups, n);
+            cnts = Arrays.copyOf(cnts, n);
+            vals = Arrays.copyOf(vals, n);
+            if (intGroups != null)
+                intGroups = Arrays.copyOf(intGroups, n);
         }
+        groups[ngroups] = f;
+        return ngroups++;
+    }
+
+    /** Doubles the hash table of integer group values. */
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int g = 0;g < ngroups;g++) {
+            int i = hash(intGroups[g]) & mask;
+            while (table[i] != 0)
+                i = (i + 1) & mask;
+            table[i] = g + 1;
+        }
+    }
+
+    /** @return the aggregate of the specified group */
+    private int value(int g) {
+        switch (what) {
+            case AVG:
+                return (int)(vals[g] / cnts[g]);
+            case COUNT:
+                return (int)cnts[g];
+            default:
+                return (int)vals[g];
+        }
+    }
+
+    public void printContent() {
+        for (int g = 0;g < ngroups;g++)
+            System.out.println(groups[g].toString() + ": " + cnts[g]);
     }
 
     /**
@@ -103,51 +205,38 @@ public class IntAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        //throw new UnsupportedOperationException("implement me");
         return new DbIterator() {
-            private Iterator<Field> child;
+            /** The next group, or -1 if not open. */
+            private int g = -1;
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                child = vals.keySet().iterator();
+                g = 0;
             }
 
             @Override
             public boolean hasNext() throws DbException, TransactionAbortedException {
-                return child != null && child.hasNext();
+                return g >= 0 && g < ngroups;
             }
 
             @Override
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
                 Tuple t = new Tuple(td);
-                Field key = child.next();
-                Integer val = 0;
-                switch (what) {
-                    case MIN: case MAX: case SUM:
-                        val = vals.get(key);
-                        break;
-                    case AVG:
-                        val = vals.get(key) / cnts.get(key);
-                        break;
-                    case COUNT:
-                        val = cnts.get(key);
-                        break;
-                    default:
-                        val = vals.get(key);   
-                }
-
                 if (gbfield == NO_GROUPING)
-                    t.setField(0, new IntField(val));
+                    t.setField(0, new IntField(value(g)));
                 else {
-                    t.setField(0, key);
-                    t.setField(1, new IntField(val));
+                    t.setField(0, groups[g]);
+                    t.setField(1, new IntField(value(g)));
                 }
+                g++;
                 return t;
             }
 
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
-                child = vals.keySet().iterator();
+                g = 0;
             }
 
             @Override
@@ -157,7 +246,7 @@ public class IntAggregator implements Aggregator {
 
             @Override
             public void close() {
-                child = null;
+                g = -1;
             }
         };
     }
@@ -93,18 +93,25 @@ public class Join extends AbstractDbIterator {
                 }
             }
             t2 = child2.next();
-            if (p.filter(t1, t2)) {
-                TupleDesc td = getTupleDesc();
-                Tuple t = new Tuple(td);
-                for (int i = 0;i < t1.getTupleDesc().numFields();i++)
-                    t.setField(i, t1.getField(i));
-                for (int i = 0;i < t2.getTupleDesc().numFields();i++)
-                    t.setField(t1.getTupleDesc().numFields() + i, t2.getField(i));
-                return t;
-            }
+            if (p.filter(t1, t2))
+                return merge(getTupleDesc(), t1, t2);
         }
     }
 
+    /**
+     * @return a tuple with the specified TupleDesc holding the fields of t1
+     *   followed by those of t2, the output tuple of a join
+     */
+    static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0;i < n1;i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0;i < t2.getTupleDesc().numFields();i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
     public void printRes() throws DbException, TransactionAbortedException {
         rewind();
         Tuple t = readNext();
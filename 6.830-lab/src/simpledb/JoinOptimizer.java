@@ -54,13 +54,147 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
-       
-        j = new Join(p,plan1,plan2);
+
+        // an equi-join with an indexed table probes the index for each
+        // outer tuple instead of reading the table; the inner side must
+        // be the bare table, as a filter on it would be skipped
+        IndexFile index = null;
+        if (plan2 instanceof SeqScan)
+            index = probeIndex(lj, ((SeqScan)plan2).getTableId(), t2id);
+        // without statistics on both tables, probing is assumed cheaper
+        boolean cheaper = true;
+        TableStats s1 = stats.get(lj.t1), s2 = stats.get(lj.t2);
+        if (index != null && s1 != null && s2 != null) {
+            // the outer side of an earlier join has no estimated
+            // cardinality here, so it is assumed too large for probes
+            cheaper = (plan1 instanceof SeqScan || plan1 instanceof Filter || plan1 instanceof IndexScan)
+                && probesCheaper(index, s1.estimateTableCardinality(1.0), s2.estimateTableCardinality(1.0),
+                                 s1.estimateScanCost(), s2.estimateScanCost());
+        }
+        boolean merge = SortMergeJoin.isSortedOn(plan1, t1id) && SortMergeJoin.isSortedOn(plan2, t2id);
+        if (!merge && s1 != null && s2 != null && plan1 instanceof SeqScan && plan2 instanceof SeqScan)
+            merge = mergeCheaper(s1.estimateTableCardinality(1.0), s2.estimateTableCardinality(1.0),
+                                 s1.estimateScanCost(), s2.estimateScanCost());
+        switch (chooseJoin(lj, index, cheaper, merge)) {
+        case INDEX:
+            j = new IndexJoin(p, plan1, ((SeqScan)plan2).getTransactionId(), index);
+            break;
+        case HASH:
+            j = new HashJoin(p,plan1,plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p,plan1,plan2);
+            break;
+        default:
+            j = new BlockNestedLoopJoin(p,plan1,plan2);
+        }
         
         return j;
 
     }
-    
+
+    /** The operators a join can be instantiated as. */
+    enum JoinMethod { INDEX, HASH, SORT_MERGE, BLOCK_NESTED_LOOP }
+
+    /**
+     * Picks the operator for a join.  instantiateJoin builds the operator
+     * picked here and estimateJoinCost prices it, so that joins are
+     * ordered by the cost of the operators that will run them.
+     *
+     * @param index the index that can be probed for the inner side's join
+     *   field (see {@link #probeIndex}), or null
+     * @param probesCheaper true if probing the index is cheaper than a
+     *   HashJoin (see {@link #probesCheaper})
+     * @param merge true if both inputs are already sorted on their join
+     *   fields, or a SortMergeJoin is cheaper than a HashJoin (see
+     *   {@link #mergeCheaper})
+     */
+    static JoinMethod chooseJoin(LogicalJoinNode lj, IndexFile index, boolean probesCheaper, boolean merge) {
+        if (index != null && probesCheaper)
+            return JoinMethod.INDEX;
+        if (lj.p == Predicate.Op.EQUALS && !merge)
+            return JoinMethod.HASH;
+        // range joins, and equi-joins of inputs already sorted on their
+        // join fields or too large to hash cheaply, merge sorted inputs
+        if (SortMergeJoin.supports(lj.p) && !(lj instanceof LogicalSubplanJoinNode))
+            return JoinMethod.SORT_MERGE;
+        // anything else reads the inner side once per block of outer
+        // tuples
+        return JoinMethod.BLOCK_NESTED_LOOP;
+    }
+
+    /**
+     * @return the index on the specified field of the specified table that
+     *   an IndexJoin can probe for the specified join, or null if there is
+     *   none or the join is not an equi-join of tables
+     */
+    static IndexFile probeIndex(LogicalJoinNode lj, int tableid, int field) {
+        if (lj.p != Predicate.Op.EQUALS || lj instanceof LogicalSubplanJoinNode)
+            return null;
+        IndexFile index = Database.getCatalog().getIndex(tableid, field);
+        if (index == null || !index.supports(Predicate.Op.EQUALS))
+            return null;
+        return index;
+    }
+
+    /**
+     * Returns true if probing the index on the inner table once per outer
+     * tuple is cheaper than reading the inner table once for a HashJoin.
+     */
+    static boolean probesCheaper(IndexFile index, int card1, int card2, double cost1, double cost2) {
+        return indexJoinCost(index, card1, card2, cost1, cost2) < hashJoinCost(card1, card2, cost1, cost2);
+    }
+
+    /**
+     * Returns true if a SortMergeJoin of unsorted inputs is cheaper than a
+     * HashJoin, as it may be once the HashJoin spills.
+     */
+    static boolean mergeCheaper(int card1, int card2, double cost1, double cost2) {
+        return sortMergeCost(card1, card2, cost1, cost2) < hashJoinCost(card1, card2, cost1, cost2);
+    }
+
+    /** @return the estimated cost of a HashJoin, in the units of estimateJoinCost */
+    static double hashJoinCost(int card1, int card2, double cost1, double cost2) {
+        // one pass over each side, hashing every tuple once, whichever
+        // side it builds on
+        double cost = cost1 + cost2 + card1 + card2;
+        // the smaller side is the build side; once it outgrows the join's
+        // memory, the share of each side that falls in the spilled
+        // partitions is written out and read back once more
+        double pages = Math.min(cost1, cost2) / TableStats.IOCOSTPERPAGE;
+        int budget = Database.getBufferPool().defaultWorkPages();
+        if (pages > budget)
+            cost += 2 * (cost1 + cost2) * (1 - budget / pages);
+        return cost;
+    }
+
+    /** @return the estimated cost of a SortMergeJoin, in the units of estimateJoinCost */
+    static double sortMergeCost(int card1, int card2, double cost1, double cost2) {
+        // one pass over each side, a sort of each, and one step per tuple
+        // returned
+        return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1*(double)card2*3/10;
+    }
+
+    /**
+     * @return the estimated cost of an IndexJoin, in the units of
+     *   estimateJoinCost: one pass over the outer side, and for each outer
+     *   tuple the index pages read to find its key plus one page per
+     *   matching inner tuple, each priced as a page of the inner table's
+     *   scan
+     */
+    static double indexJoinCost(IndexFile index, int card1, int card2, double cost1, double cost2) {
+        DbFile inner = Database.getCatalog().getDbFile(index.getTableId());
+        int pages = inner instanceof HeapFile ? ((HeapFile)inner).numPages() : 0;
+        if (pages == 0 || card1 == 0)
+            return cost1;
+        // a primary key matches once; otherwise the join's cardinality
+        // (see estimateJoinCardinality) is spread over the outer tuples
+        String key = inner.getTupleDesc().getFieldName(index.getKeyField());
+        double matches = key.equals(Database.getCatalog().getPrimaryKey(index.getTableId()))
+            ? 1 : Math.max(card1, card2) / (double)card1;
+        return cost1 + card1 * (index.probeCost() + matches) * (cost2 / pages) + card1;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -80,6 +214,19 @@ public class JoinOptimizer {
      * @return An estimate of the cost of this query, in terms of cost1 and cost2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join with the operator instantiateJoin would
+     * pick for it (see {@link #chooseJoin}).  The inputs are taken to be
+     * unsorted, as the plans of the join's children are not known yet.
+     *
+     * @param innerIsTable true if the right-hand side of the query is the
+     *   table named by j.t2, rather than the result of earlier joins
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
         	// A LogicalSubplanJoinNode represents a subquery.
         	// You do not need to implement proper support for these
@@ -88,10 +235,64 @@ public class JoinOptimizer {
             // Insert your code here.
             // HINT:  You may need to use the variable "j" if you implemented a join
             //        algorithm that's more complicated than a basic nested-loops join.
-            return cost1 + card1*cost2 + card1*card2;
+            IndexFile index = innerIsTable ? innerIndex(j) : null;
+            boolean cheaper = index != null && probesCheaper(index, card1, card2, cost1, cost2);
+            switch (chooseJoin(j, index, cheaper, mergeCheaper(card1, card2, cost1, cost2))) {
+            case INDEX:
+                return indexJoinCost(index, card1, card2, cost1, cost2);
+            case HASH:
+                return hashJoinCost(card1, card2, cost1, cost2);
+            case SORT_MERGE:
+                return sortMergeCost(card1, card2, cost1, cost2);
+            default:
+                // one pass over the inner side per block of outer tuples,
+                // and a comparison per pair
+                double blocks = Math.ceil(card1 / (double)blockTuples(j));
+                return cost1 + blocks*cost2 + card1*(double)card2;
+            }
         }
     }
 
+    /**
+     * @return the index instantiateJoin would probe for the inner side of
+     *   the specified join, if that side is its bare table, or null
+     */
+    private IndexFile innerIndex(LogicalJoinNode j) {
+        Integer tableid = p.getTableId(j.t2);
+        if (tableid == null || p.isFiltered(j.t2))
+            return null;
+        // the field is looked up as instantiateJoin looks it up in a
+        // SeqScan of the table
+        try {
+            return probeIndex(j, tableid, Database.getCatalog().getTupleDesc(tableid).nameToId(j.f2));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the estimated number of outer tuples of the specified join
+     *   in a block of a BlockNestedLoopJoin, taking them to be as wide as
+     *   the outer table's tuples
+     */
+    private int blockTuples(LogicalJoinNode j) {
+        int size = Type.INT_TYPE.getLen();
+        Integer tableid = p.getTableId(j.t1);
+        if (tableid != null) {
+            try {
+                size = Database.getCatalog().getTupleDesc(tableid).getSize();
+            } catch (NoSuchElementException e) {
+                // the table has left the catalog
+            }
+        }
+        return BlockNestedLoopJoin.blockTuples(size, Database.getBufferPool().defaultWorkPages());
+    }
+
+    /** @return the estimated number of comparisons to sort card tuples */
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cardinality of a join.  The cardinality of a join
      * is the number of tuples produced by the join.
@@ -188,6 +389,10 @@ public class JoinOptimizer {
                 throw new ParsingException("Missing table in order join.");
         }
 
+        // a single-table query: the plan cache has no order for the empty set
+        if (joins.isEmpty())
+            return joins;
+
         PlanCache pc = new PlanCache();
         for (int i = 1;i <= joins.size();i++) {
             Set<Set<LogicalJoinNode>> subsets = enumerateSubsets(joins, i);
@@ -304,10 +509,10 @@ public class JoinOptimizer {
         }
                     
         //case where prevbest is left
-        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost);
+        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost, !doesJoin(prevBest, j.t2));
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost);
+        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost, !doesJoin(prevBest, j.t1));
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -33,4 +33,19 @@ public class JoinPredicate {
         // some code goes here
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
+
+    /** @return the field of the first tuple */
+    public int getField1() {
+        return field1;
+    }
+
+    /** @return the field of the second tuple */
+    public int getField2() {
+        return field2;
+    }
+
+    /** @return the operator of the predicate */
+    public Predicate.Op getOperator() {
+        return op;
+    }
 }
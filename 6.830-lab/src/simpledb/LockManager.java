@@ -2,23 +2,26 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LockManager {
-	private final Map<Integer, Object> mutexes;
-	private final Map<Integer, HashSet<TransactionId>> readLockHolders; 
-	private final Map<Integer, TransactionId> writeLockHolders;
-	private final Map<Integer, Integer> writers;
+	// Concurrent maps, so that different pages never contend; the entries
+	// for one page are guarded by that page's mutex.  A page with no
+	// write lock holder has no entry in writeLockHolders.
+	private final ConcurrentHashMap<Integer, Object> mutexes;
+	private final ConcurrentHashMap<Integer, HashSet<TransactionId>> readLockHolders; 
+	private final ConcurrentHashMap<Integer, TransactionId> writeLockHolders;
+	private final ConcurrentHashMap<Integer, Integer> writers;
 	private final Random rand;
 	private final int WAIT_TIME = 100, TIME_RANGE = 1000;
 
 	//private evicted
 
 	public LockManager() {
-		mutexes = new HashMap<Integer, Object>();
-		readLockHolders = new HashMap<Integer, HashSet<TransactionId>>();
-		writeLockHolders = new HashMap<Integer, TransactionId>();
-		writers = new HashMap<Integer, Integer>();
+		mutexes = new ConcurrentHashMap<Integer, Object>();
+		readLockHolders = new ConcurrentHashMap<Integer, HashSet<TransactionId>>();
+		writeLockHolders = new ConcurrentHashMap<Integer, TransactionId>();
+		writers = new ConcurrentHashMap<Integer, Integer>();
 		rand = new Random();
 	}
 
@@ -59,17 +62,21 @@ public class LockManager {
 		}
 	}
 
-	public synchronized void addLock(int pghc) {
-		if (!mutexes.containsKey(pghc)) {
-			mutexes.put(pghc, new Object());
-			readLockHolders.put(pghc, new HashSet<TransactionId>());
-			writeLockHolders.put(pghc, null);
-			writers.put(pghc, 0);
-		}
+	public void addLock(int pghc) {
+		if (mutexes.containsKey(pghc))
+			return;
+		// the mutex is published last, so whoever sees it sees the rest
+		readLockHolders.putIfAbsent(pghc, new HashSet<TransactionId>());
+		writers.putIfAbsent(pghc, 0);
+		mutexes.putIfAbsent(pghc, new Object());
 	}
 
 	public boolean writeLockHeld(int pghc) {
-		synchronized(mutexes.get(pghc)) {
+		// pages read ahead may never have been locked at all
+		Object mutex = mutexes.get(pghc);
+		if (mutex == null)
+			return false;
+		synchronized(mutex) {
 			return writeLockHolders.get(pghc) != null;
 		}
 	}
@@ -96,26 +103,36 @@ public class LockManager {
 		}
 	}
 
+	// The (randomized) time after which a transaction still waiting for a
+	// lock is taken to be deadlocked.
+	private long deadline() {
+		return System.currentTimeMillis() + WAIT_TIME + rand.nextInt(TIME_RANGE);
+	}
+
+	// Waits on the page's mutex until notified or the deadline passes; a
+	// passed deadline is reported like an interrupt.  Waiting threads are
+	// never interrupted, since an interrupt during channel I/O would close
+	// the file for every thread.
+	private void await(int pghc, long deadline) throws InterruptedException {
+		long left = deadline - System.currentTimeMillis();
+		if (left <= 0)
+			throw new InterruptedException("Lock wait timed out.");
+		mutexes.get(pghc).wait(left);
+	}
+
 	private boolean acquireReadLock(TransactionId tid, int pghc) throws InterruptedException {
 		// Transaction already holds the read/write lock on this page.
 		if (holdsReadLock(tid, pghc))
 			return false;
 		synchronized(mutexes.get(pghc)) {
-			final Thread thread = Thread.currentThread();
-			Timer timer = new Timer();
-			timer.schedule(new TimerTask() {
-				@Override
-				public void run() {
-					thread.interrupt();
-				}
-			}, WAIT_TIME + rand.nextInt(TIME_RANGE));
-
+			long deadline = 0;
 			// If some other transaction holds the write lock on this page, this transaction will be blocked.
 			while (hasOtherWriters(tid, pghc)) {
-				mutexes.get(pghc).wait();
+				if (deadline == 0)
+					deadline = deadline();
+				await(pghc, deadline);
 			}
 			readLockHolders.get(pghc).add(tid);
-			timer.cancel();
 			return true;
 		}
 	}
@@ -145,23 +162,16 @@ public class LockManager {
 			return false;
 		}
 		synchronized(mutexes.get(pghc)) {
-			final Thread thread = Thread.currentThread();
-			Timer timer = new Timer();
-			timer.schedule(new TimerTask() {
-				@Override
-				public void run() {
-					thread.interrupt();
-				}
-			}, WAIT_TIME + rand.nextInt(TIME_RANGE));
-
+			long deadline = 0;
 			writers.put(pghc, writers.get(pghc)+1);
 			while (hasOtherReaders(tid, pghc) || writeLockHolders.get(pghc) != null) {
-				mutexes.get(pghc).wait();
+				if (deadline == 0)
+					deadline = deadline();
+				await(pghc, deadline);
 			}
 			// Upgrade the read lock to the write lock
 			readLockHolders.get(pghc).remove(tid);
 			writeLockHolders.put(pghc, tid);
-			timer.cancel();
 			return true;
 		}
 	}
@@ -172,7 +182,7 @@ public class LockManager {
 			return false;
 		synchronized(mutexes.get(pghc)) {
 			writers.put(pghc, writers.get(pghc)-1);
-			writeLockHolders.put(pghc, null);
+			writeLockHolders.remove(pghc);
 			mutexes.get(pghc).notifyAll();
 			return true;
 		}
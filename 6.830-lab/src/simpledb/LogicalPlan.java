@@ -34,12 +34,11 @@ public  class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> groupByFields = new Vector<String>();
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
+    private Vector<String> oByFields = new Vector<String>();
     private String query;
 
     /** Constructor -- generate an empty logical plan */
@@ -76,10 +75,19 @@ public  class LogicalPlan {
         @param alias the table alias to return a table id for
         @return the id of the table corresponding to alias, or null if the alias is unknown
      */
-    public int getTableId(String alias) {
+    public Integer getTableId(String alias) {
         return tableMap.get(alias);
     }
 
+    /** @return true if a filter of this plan applies to the table with the specified alias */
+    boolean isFiltered(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.t.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -178,28 +186,35 @@ public  class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All the aggregates of a query are computed in one
+        pass, grouped by every GROUP BY field added.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
     */
     public void addAggregate(String op, String afield, String gfield) {
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
+        if (gfield != null)
+            addGroupBy(gfield);
+    }
+
+    /** Add a GROUP BY field to the query, after those already added.
+        @param field the field to group by
+    */
+    public void addGroupBy(String field) {
+        if (!groupByFields.contains(field))
+            groupByFields.addElement(field);
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds
+        a field after those already added, which orders tuples equal on the earlier ones.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
     */
     public void addOrderBy(String field, boolean asc) {
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAsc.addElement(asc);
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -291,6 +306,9 @@ public  class LogicalPlan {
 
         }
 
+        HashMap<String,Vector<Predicate>> tablePredicates = new HashMap<String,Vector<Predicate>>();
+        HashMap<String,Predicate> indexPredicates = new HashMap<String,Predicate>();
+        HashMap<String,Double> indexCosts = new HashMap<String,Double>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -319,15 +337,43 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.f);
             }
-            subplanMap.put(lf.t, new Filter(p, subplan));
 
             TableStats s = statsMap.get(lf.t);
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().nameToId(disambiguateName(lf.f)), lf.p, f);
             filterSelectivities.put(lf.t, filterSelectivities.get(lf.t) * sel);
 
+            // the cheapest predicate on an indexed field, if reading its
+            // tuples through the index beats scanning the table, replaces
+            // the table's SeqScan; the others become Filters above it
+            IndexFile index = Database.getCatalog().getIndex(getTableId(lf.t), p.getField());
+            if (index != null && index.supports(p.getOp())) {
+                double cost = s.estimateIndexScanCost(sel, index.probeCost());
+                Double best = indexCosts.get(lf.t);
+                if (cost < s.estimateScanCost() && (best == null || cost < best)) {
+                    indexCosts.put(lf.t, cost);
+                    indexPredicates.put(lf.t, p);
+                }
+            }
+            if (!tablePredicates.containsKey(lf.t))
+                tablePredicates.put(lf.t, new Vector<Predicate>());
+            tablePredicates.get(lf.t).add(p);
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        for (java.util.Map.Entry<String, Vector<Predicate>> e : tablePredicates.entrySet()) {
+            String alias = e.getKey();
+            Predicate indexed = indexPredicates.get(alias);
+            DbIterator subplan = subplanMap.get(alias);
+            if (indexed != null)
+                subplan = new IndexScan(t, getTableId(alias), alias, indexed);
+            for (Predicate p : e.getValue()) {
+                if (p != indexed)
+                    subplan = new Filter(p, subplan);
+            }
+            subplanMap.put(alias, subplan);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -391,6 +437,7 @@ public  class LogicalPlan {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
         
+        String nodeAlias = subplanMap.keySet().iterator().next();
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
 
         //walk the select list, to determine order in which to project output fields
@@ -399,7 +446,13 @@ public  class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = 0;
+                while (agg < aggOps.size() && !(aggOps.elementAt(agg).equals(si.aggOp) && aggFields.elementAt(agg).equals(si.fname)))
+                    agg++;
+                if (agg == aggOps.size()) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed");
+                }
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
                 int  id;
                 try {
@@ -409,17 +462,21 @@ public  class LogicalPlan {
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
-            } else if (hasAgg) {
-                    if (groupByField == null) {
+            } else if (aggOps.size() > 0) {
+                    String fname = disambiguateName(si.fname);
+                    int group = 0;
+                    while (group < groupByFields.size() && !disambiguateName(groupByFields.elementAt(group)).equals(fname))
+                        group++;
+                    if (group == groupByFields.size()) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(group);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.nameToId(disambiguateName(groupByField));
+                        id = td.nameToId(fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getType(id));
             } else if (si.fname.equals("null.*")) {
@@ -442,14 +499,28 @@ public  class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
+        if (aggOps.size() > 0) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.nameToId(disambiguateName(aggField)),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.nameToId(disambiguateName(groupByField)),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0;i < gfields.length;i++)
+                    gfields[i] = td.nameToId(disambiguateName(groupByFields.elementAt(i)));
+                int[] afields = new int[aggOps.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0;i < afields.length;i++) {
+                    afields[i] = td.nameToId(disambiguateName(aggFields.elementAt(i)));
+                    ops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                // one ungrouped aggregate of a whole large table is read with
+                // several threads; groups are left to MultiAggregate, whose
+                // table spills when they outgrow its work pages
+                TableStats stats = statsMap.get(nodeAlias);
+                int threads = stats == null ? 1 : Aggregate.parallelism(stats.numPages());
+                if (afields.length == 1 && gfields.length == 0 && node instanceof SeqScan && threads > 1)
+                    aggNode = new Aggregate(node, afields[0], Aggregator.NO_GROUPING, ops[0], threads);
+                else
+                    aggNode = new MultiAggregate(node, gfields, afields, ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -458,8 +529,14 @@ public  class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().nameToId(disambiguateName(oByField)), oByAsc, node);
+        if (oByFields.size() > 0) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0;i < fields.length;i++) {
+                fields[i] = node.getTupleDesc().nameToId(disambiguateName(oByFields.elementAt(i)));
+                asc[i] = oByAsc.elementAt(i);
+            }
+            node = new OrderBy(fields, asc, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  The victim is the page
+ * whose K-th most recent reference lies furthest in the past; pages that
+ * have been referenced fewer than K times are evicted first, oldest last
+ * reference first.  A single sequential scan therefore cannot push out
+ * pages that are referenced repeatedly.
+ * <p>
+ * The reference history of evicted pages is retained (for up to as many
+ * pages as there are frames) so that a page which is re-read soon after
+ * eviction keeps its history.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    /** K used by {@link ReplacementPolicy.Kind#LRU_K}. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock;
+    private PageId[] pids;
+    /** Per-frame reference times, most recent first; 0 means no reference. */
+    private long[][] history;
+    /** Occupied frames, next victim first. */
+    private TreeSet<Integer> order;
+    private Map<PageId, long[]> retained;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     * @param k the number of references to remember for each page
+     */
+    public LruKPolicy(final int numFrames, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        clock = 0;
+        pids = new PageId[numFrames];
+        history = new long[numFrames][];
+        order = new TreeSet<Integer>(new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long[] ha = history[a], hb = history[b];
+                if (ha[ha.length-1] != hb[hb.length-1])
+                    return ha[ha.length-1] < hb[hb.length-1] ? -1 : 1;
+                if (ha[0] != hb[0])
+                    return ha[0] < hb[0] ? -1 : 1;
+                return a.compareTo(b);
+            }
+        });
+        retained = new LinkedHashMap<PageId, long[]>() {
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > numFrames;
+            }
+        };
+    }
+
+    /** Shift a new reference into the front of h. */
+    private void reference(long[] h) {
+        System.arraycopy(h, 0, h, 1, h.length-1);
+        h[0] = ++clock;
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        if (history[frame] != null)
+            pageRemoved(frame);
+        long[] h = retained.remove(pid);
+        if (h == null)
+            h = new long[k];
+        reference(h);
+        pids[frame] = pid;
+        history[frame] = h;
+        order.add(frame);
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        if (history[frame] == null)
+            return;
+        order.remove(frame);
+        reference(history[frame]);
+        order.add(frame);
+    }
+
+    public synchronized void pageRemoved(int frame) {
+        if (history[frame] == null)
+            return;
+        order.remove(frame);
+        retained.put(pids[frame], history[frame]);
+        pids[frame] = null;
+        history[frame] = null;
+    }
+
+    public synchronized int chooseVictim(EvictionFilter filter) {
+        for (Integer frame: order) {
+            if (filter.canEvict(frame))
+                return frame;
+        }
+        return -1;
+    }
+}
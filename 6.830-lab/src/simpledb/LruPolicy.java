@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least-recently-used replacement: evicts the evictable frame whose page
+ * was used longest ago.
+ */
+public class LruPolicy implements ReplacementPolicy {
+    /** Occupied frames, least recently used first. */
+    private LinkedHashSet<Integer> order;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public LruPolicy(int numFrames) {
+        order = new LinkedHashSet<Integer>(numFrames * 4 / 3 + 1);
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        order.remove(frame);
+        order.add(frame);
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        if (order.remove(frame))
+            order.add(frame);
+    }
+
+    public synchronized void pageRemoved(int frame) {
+        order.remove(frame);
+    }
+
+    public synchronized int chooseVictim(EvictionFilter filter) {
+        for (Integer frame: order) {
+            if (filter.canEvict(frame))
+                return frame;
+        }
+        return -1;
+    }
+}
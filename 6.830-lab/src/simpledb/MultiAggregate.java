@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * MultiAggregate computes any number of aggregates of its child's tuples,
+ * grouped by any number of fields, in one pass over the child: for
+ * example COUNT, SUM and AVG grouped by (region, day).  With no group-by
+ * fields there is one group, and one result tuple if the child has any
+ * tuples.
+ * <p>
+ * The child is read by open.  The groups are kept in frames reserved from
+ * the buffer pool (see {@link BufferPool#reserveWorkPages}), each counted
+ * as {@link GroupTable#groupBytes} bytes.  Once they fill the budget, the
+ * table is frozen: the tuples of groups already in it are still merged
+ * into it, but those of any other group are written to a
+ * {@link SpillFile}, one of several partitions by the hash of the group.
+ * Each group is then wholly in memory or wholly in one partition, so the
+ * groups in memory are returned first, in the order they were first seen,
+ * and then those of each partition, aggregated in turn by a MultiAggregate
+ * over the file, which partitions again (with another hash) if needed.
+ * <p>
+ * If the child's tuples come with those of each group together (see
+ * {@link Aggregate#isGroupedOn}), the aggregate instead streams: open reads
+ * nothing and reserves no frames, and each group is returned as soon as a
+ * tuple of the next one is read.
+ */
+public class MultiAggregate extends AbstractDbIterator {
+    /** Most partitions the groups that do not fit are split into. */
+    static final int MAX_PARTITIONS = 64;
+    /** Levels of partitioning after which the groups are kept in memory whatever their number. */
+    static final int MAX_LEVEL = 4;
+
+    private DbIterator child;
+    private int[] gfields, afields;
+    private Aggregator.Op[] aops;
+    private TupleDesc td;
+    /** Pages of memory asked for, or -1 for a quarter of the buffer pool. */
+    private int requestedPages;
+    /** Partitioning level: 0 for the aggregate in the plan, more for those of partitions. */
+    private int level;
+    /** The frames reserved by open; only the aggregate in the plan reserves any. */
+    private final WorkMemory work;
+    /** The pages worked with. */
+    private int pages;
+    private GroupTable table;
+    /** The next group to return. */
+    private int next;
+    /** The partitions of the groups that did not fit, or null if all of them did. */
+    private SpillFile[] files;
+    /** The aggregate of the partition being read, and the next partition. */
+    private MultiAggregate spilled;
+    private int nextFile;
+    /** True if the child's groups come one after another, so they are aggregated a group at a time. */
+    private boolean streaming;
+    /** When streaming, the first tuple of the next group, if it has been read. */
+    private Tuple pending;
+
+    /**
+     * Constructor.  The aggregate asks for a quarter of the buffer pool's
+     * pages as memory.
+     *
+     * @param child The DbIterator that is feeding us tuples.
+     * @param gfields The columns over which we are grouping the result; empty for no grouping
+     * @param afields The columns over which we are computing aggregates
+     * @param aops The aggregation operator of each of afields
+     * @throws IllegalArgumentException if afields and aops differ in length,
+     *   or an operator other than COUNT is applied to a string column
+     */
+    public MultiAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, -1, 0);
+    }
+
+    /**
+     * Constructor for an aggregate that asks for the specified number of
+     * pages of memory.  open reserves as many of them as the buffer pool
+     * can spare, and the aggregate works with those.
+     *
+     * @see #MultiAggregate(DbIterator, int[], int[], Aggregator.Op[])
+     */
+    public MultiAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops, int memoryPages) {
+        this(child, gfields, afields, aops, Math.max(BufferPool.MIN_WORK_PAGES, memoryPages), 0);
+    }
+
+    private MultiAggregate(DbIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops,
+            int memoryPages, int level) {
+        if (afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator for each aggregate field");
+        TupleDesc ctd = child.getTupleDesc();
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0;i < gfields.length;i++) {
+            types[i] = ctd.getType(gfields[i]);
+            names[i] = ctd.getFieldName(gfields[i]);
+        }
+        for (int i = 0;i < afields.length;i++) {
+            if (ctd.getType(afields[i]) != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException(aops[i] + " of a string field");
+            types[gfields.length + i] = Type.INT_TYPE;
+            String name = ctd.getFieldName(afields[i]);
+            names[gfields.length + i] = name == null ? null : Aggregate.aggName(aops[i]) + "(" + name + ")";
+        }
+        this.child = child;
+        this.gfields = gfields;
+        this.afields = afields;
+        this.aops = aops;
+        this.td = new TupleDesc(types, names);
+        this.requestedPages = memoryPages;
+        this.work = new WorkMemory(memoryPages);
+        this.level = level;
+        this.streaming = Aggregate.isGroupedOn(child, gfields);
+    }
+
+    /** @return true if this aggregate streams a group at a time */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Returns the TupleDesc of the result tuples: the group-by fields,
+     * named as in the child, then the aggregates, named like those of
+     * {@link Aggregate}, and all integers.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return true if the last open did not fit every group in memory */
+    public boolean isSpilling() {
+        return files != null;
+    }
+
+    /** Spreads the bits of a group's hash; each level uses different ones. */
+    private int partition(int hash) {
+        int h = hash ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % files.length;
+    }
+
+    public void open()
+        throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (streaming) {
+            child.open();
+            table = new GroupTable(gfields, afields, aops, td);
+            pending = null;
+            return;
+        }
+        pages = requestedPages;
+        if (level == 0) {
+            // the aggregates of partitions work in the frames of this one
+            work.reserve();
+            pages = work.pages();
+        }
+        boolean opened = false;
+        try {
+            // once spilling, a page is being filled for each partition
+            int partitions = Math.max(2, Math.min(MAX_PARTITIONS, pages / 2));
+            long budget = (long)(pages - partitions) * BufferPool.PAGE_SIZE;
+
+            child.open();
+            table = new GroupTable(gfields, afields, aops, td);
+            files = null;
+            try {
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    if (files == null) {
+                        table.merge(t);
+                        if (table.numGroups() * table.groupBytes() > budget && level < MAX_LEVEL)
+                            files = new SpillFile[partitions];
+                    }
+                    else if (!table.mergeExisting(t)) {
+                        int i = partition(GroupTable.hash(t, gfields));
+                        if (files[i] == null)
+                            files[i] = new SpillFile(child.getTupleDesc());
+                        files[i].add(t);
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+            next = 0;
+            nextFile = 0;
+            opened = true;
+        }
+        finally {
+            // close a failed open, deleting its spill files
+            if (!opened)
+                close();
+        }
+    }
+
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (table == null)
+            return null;
+        if (streaming)
+            return readGroup();
+        if (next < table.numGroups())
+            return table.result(next++);
+        while (files != null) {
+            if (spilled != null) {
+                if (spilled.hasNext())
+                    return spilled.next();
+                spilled.close();
+                spilled = null;
+            }
+            while (nextFile < files.length && files[nextFile] == null)
+                nextFile++;
+            if (nextFile == files.length)
+                return null;
+            try {
+                spilled = new MultiAggregate(files[nextFile++].iterator(), gfields, afields, aops, pages, level + 1);
+            }
+            catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+            spilled.open();
+        }
+        return null;
+    }
+
+    /** @return the result of the next group of a grouped child, or null if there are no more */
+    private Tuple readGroup() throws TransactionAbortedException, DbException {
+        if (pending == null) {
+            if (!child.hasNext())
+                return null;
+            pending = child.next();
+        }
+        table.clear();
+        table.merge(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!table.mergeExisting(t)) {
+                pending = t;
+                break;
+            }
+        }
+        return table.result(0);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        if (streaming) {
+            child.rewind();
+            pending = null;
+            return;
+        }
+        if (spilled != null)
+            spilled.close();
+        spilled = null;
+        next = 0;
+        nextFile = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        if (spilled != null)
+            spilled.close();
+        spilled = null;
+        if (files != null)
+            for (SpillFile f : files)
+                if (f != null)
+                    f.delete();
+        files = null;
+        table = null;
+        pending = null;
+        work.release();
+    }
+}
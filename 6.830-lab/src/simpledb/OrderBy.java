@@ -1,16 +1,54 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields, each ascending or descending.
+ * <p>
+ * Tuples sorted in memory whose first sort field is an integer are sorted
+ * by a key made once per tuple, which packs that field's value, its bits
+ * flipped for a descending sort, above the tuple's position: a sort of
+ * primitive longs orders them, and only runs of tuples that tie on the
+ * first field are compared on the other fields.
+ * <p>
+ * The sort works in frames reserved from the buffer pool (see
+ * {@link BufferPool#reserveWorkPages}), a tuple being counted as the bytes
+ * it takes on a page.  If the child's tuples fit, they are sorted in
+ * memory.  Otherwise each budget's worth is sorted and written to a
+ * {@link SpillFile} as a run, and the runs are merged a page of each at a
+ * time: in passes, while there are more runs than pages, and then lazily
+ * as the tuples are read.
+ * <p>
+ * With a limit, only the first tuples of the order are returned; if that
+ * many tuples fit in memory, a heap keeps the best ones as the child is
+ * read, and nothing is spilled.
  */
 public class OrderBy extends AbstractDbIterator {
     DbIterator child;
     TupleDesc td;
     ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    int orderByField;
+    int[] orderByFields;
     Iterator<Tuple> it;
-    boolean asc;
+    boolean[] asc;
+    /** Most tuples to return, or -1 for all of them. */
+    private int limit;
+    /** The frames reserved by open. */
+    private final WorkMemory work;
+    private Comparator<Tuple> cmp;
+    /** The sorted runs, or null if the tuples were sorted in memory. */
+    private ArrayList<SpillFile> runs;
+    /** The runs being merged, by their next tuple. */
+    private PriorityQueue<Run> merge;
+    private int returned;
+
+    /** A sorted run being read, and its next tuple. */
+    private static class Run {
+        DbIterator it;
+        Tuple head;
+        /** The run's position, which breaks ties so the sort is stable. */
+        int index;
+    }
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -20,32 +58,323 @@ public class OrderBy extends AbstractDbIterator {
      * @param child the tuples to sort.
      */
     public OrderBy(int orderbyField,  boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first tuples of the
+     * order, as for a LIMIT.
+     *
+     * @param limit the most tuples to return, or -1 for all of them.
+     * @see #OrderBy(int, boolean, DbIterator)
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that asks for the specified number of
+     * pages of memory.  open reserves as many of them as the buffer pool
+     * can spare, and the sort works with those.
+     *
+     * @see #OrderBy(int, boolean, DbIterator, int)
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit, int memoryPages) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit, memoryPages);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: on the
+     * first one, then on the second among tuples equal on the first, and
+     * so on.
+     *
+     * @param orderbyFields the fields to which the sort is applied.
+     * @param asc for each field, true if its order is ascending.
+     * @param child the tuples to sort.
+     * @throws IllegalArgumentException if there are no fields, or not one
+     *   order for each
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        this(orderbyFields, asc, child, -1, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields, returns at
+     * most limit tuples (all of them if it is -1) and asks for the
+     * specified number of pages of memory (a quarter of the buffer pool
+     * if it is -1).
+     *
+     * @see #OrderBy(int[], boolean[], DbIterator)
+     * @see #OrderBy(int, boolean, DbIterator, int, int)
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child, int limit, int memoryPages) {
+        this.cmp = new TupleComparator(orderbyFields, asc);
         this.child = child;
         td= child.getTupleDesc();
-        this.orderByField = orderbyField;
+        this.orderByFields = orderbyFields;
         this.asc = asc;
+        this.limit = limit;
+        this.work = new WorkMemory(memoryPages);
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the field the tuples are sorted on first */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    /** @return true if the sort order of the first field is ascending */
+    public boolean isAscending() {
+        return asc[0];
+    }
+
+    /** @return the fields the tuples are sorted on, first one first */
+    public int[] getOrderByFields() {
+        return orderByFields;
+    }
+
+    /** @return the number of fields the tuples are sorted on */
+    public int numOrderByFields() {
+        return orderByFields.length;
+    }
+
+    /** @return the number of sorted runs the last open wrote to disk, 0 if it sorted in memory */
+    public int numRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
-        child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        work.reserve();
+        int pages = work.pages();
+        boolean opened = false;
+        try {
+            long budget = work.bytes();
+            int tupleSize = td.getSize();
+            child.open();
+            childTups.clear();
+            runs = null;
+            try {
+                if (limit >= 0 && (long)limit * tupleSize <= budget) {
+                    topN();
+                }
+                else {
+                    //load the tuples in a collection a budget at a time, and sort it
+                    while (child.hasNext()) {
+                        childTups.add(child.next().materialize());
+                        if ((long)childTups.size() * tupleSize >= budget)
+                            writeRun();
+                    }
+                    if (runs != null && !childTups.isEmpty())
+                        writeRun();
+                    else
+                        sort(childTups);
+                    // one page of each run being merged, and one for the output
+                    while (runs != null && runs.size() > pages - 1)
+                        mergePass(pages - 1);
+                }
+            }
+            catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+            start();
+            opened = true;
+        }
+        finally {
+            // close a failed open, deleting its runs
+            if (!opened)
+                close();
+        }
+    }
+
+    /** A tuple kept by topN, and its position in the child's output. */
+    private static class Ranked {
+        Tuple t;
+        int seq;
+
+        Ranked(Tuple t, int seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /** Keeps the first limit tuples of the child in order in childTups. */
+    private void topN() throws DbException, TransactionAbortedException {
+        // of tuples that tie, the one that came first comes first, so the
+        // kept tuples are those a stable sort would return first
+        Comparator<Ranked> order = new Comparator<Ranked>() {
+            public int compare(Ranked r1, Ranked r2) {
+                int c = cmp.compare(r1.t, r2.t);
+                if (c != 0)
+                    return c;
+                return r1.seq < r2.seq ? -1 : (r1.seq == r2.seq ? 0 : 1);
+            }
+        };
+        // the worst of the tuples kept is at the head
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.max(1, limit), Collections.reverseOrder(order));
+        for (int seq = 0;child.hasNext();seq++) {
+            Tuple t = child.next();
+            if (heap.size() < limit)
+                heap.add(new Ranked(t.materialize(), seq));
+            else if (limit > 0 && cmp.compare(t, heap.peek().t) < 0) {
+                heap.poll();
+                heap.add(new Ranked(t.materialize(), seq));
+            }
+        }
+        Ranked[] kept = heap.toArray(new Ranked[heap.size()]);
+        Arrays.sort(kept, order);
+        for (Ranked r : kept)
+            childTups.add(r.t);
+    }
+
+    /** Sorts childTups and writes them out as a new run. */
+    private void writeRun() throws DbException, IOException {
+        sort(childTups);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        childTups.clear();
+        if (runs == null)
+            runs = new ArrayList<SpillFile>();
+        runs.add(run);
+    }
+
+    /** Sorts the tuples stably, by packed keys if the first sort field is an integer. */
+    void sort(ArrayList<Tuple> tups) {
+        int n = tups.size();
+        if (n < 2 || td.getType(orderByFields[0]) != Type.INT_TYPE) {
+            Collections.sort(tups, cmp);
+            return;
+        }
+        // the value, with its bits flipped for a descending order, in the
+        // high 32 bits and the position in the low ones
+        long[] keys = new long[n];
+        for (int i = 0;i < n;i++) {
+            int v = ((IntField)tups.get(i).getField(orderByFields[0])).getValue();
+            keys[i] = (long)(asc[0] ? v : ~v) << 32 | i;
+        }
+        Arrays.sort(keys);
+        Tuple[] sorted = new Tuple[n];
+        for (int i = 0;i < n;i++)
+            sorted[i] = tups.get((int)keys[i]);
+        tups.clear();
+        tups.addAll(Arrays.asList(sorted));
+        if (orderByFields.length == 1)
+            return;
+        for (int i = 0;i < n;) {
+            int j = i + 1;
+            while (j < n && keys[j] >>> 32 == keys[i] >>> 32)
+                j++;
+            if (j - i > 1)
+                Collections.sort(tups.subList(i, j), cmp);
+            i = j;
+        }
+    }
+
+    /** Merges each group of fanIn runs into one. */
+    private void mergePass(int fanIn)
+        throws DbException, TransactionAbortedException, IOException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0;i < runs.size();i += fanIn) {
+            List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            SpillFile run = new SpillFile(td);
+            PriorityQueue<Run> q = openRuns(group);
+            Tuple t;
+            while ((t = nextMerged(q)) != null)
+                run.add(t);
+            for (SpillFile f : group)
+                f.delete();
+            merged.add(run);
+        }
+        runs = merged;
+    }
+
+    /** @return the specified runs, open, by their first tuple */
+    private PriorityQueue<Run> openRuns(List<SpillFile> files)
+        throws DbException, TransactionAbortedException, IOException {
+        PriorityQueue<Run> q = new PriorityQueue<Run>(Math.max(1, files.size()), new Comparator<Run>() {
+            public int compare(Run r1, Run r2) {
+                int c = cmp.compare(r1.head, r2.head);
+                return c != 0 ? c : r1.index - r2.index;
+            }
+        });
+        for (int i = 0;i < files.size();i++) {
+            Run r = new Run();
+            r.it = files.get(i).iterator();
+            r.index = i;
+            r.it.open();
+            if (r.it.hasNext()) {
+                r.head = r.it.next();
+                q.add(r);
+            }
+            else
+                r.it.close();
+        }
+        return q;
+    }
+
+    /** @return the next tuple of the merge, or null once every run is read */
+    private static Tuple nextMerged(PriorityQueue<Run> q)
+        throws DbException, TransactionAbortedException {
+        Run r = q.poll();
+        if (r == null)
+            return null;
+        Tuple t = r.head;
+        if (r.it.hasNext()) {
+            r.head = r.it.next();
+            q.add(r);
+        }
+        else
+            r.it.close();
+        return t;
+    }
+
+    private void closeMerge() {
+        if (merge != null)
+            for (Run r : merge)
+                r.it.close();
+        merge = null;
+    }
+
+    /** Starts returning the sorted tuples from the first. */
+    private void start() throws DbException, TransactionAbortedException {
+        returned = 0;
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        try {
+            merge = openRuns(runs);
+        }
+        catch (IOException e) {
+            throw new DbException(e.getMessage());
+        }
     }
 
     public void close() {
+        super.close();
+        child.close();
         it = null;
+        closeMerge();
+        childTups.clear();
+        if (runs != null)
+            for (SpillFile f : runs)
+                f.delete();
+        runs = null;
+        work.release();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        super.close();
+        closeMerge();
+        start();
     }
 
     /**
@@ -56,31 +385,15 @@ public class OrderBy extends AbstractDbIterator {
      */
     protected Tuple readNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (limit >= 0 && returned >= limit)
             return null;
+        Tuple t = null;
+        if (merge != null)
+            t = nextMerged(merge);
+        else if (it != null && it.hasNext())
+            t = it.next();
+        if (t != null)
+            returned++;
+        return t;
     }
 }
-
- class TupleComparator implements Comparator<Tuple> {
-     int field;
-     boolean asc;
-
-     public TupleComparator(int field, boolean asc) {
-         this.field = field;
-     this.asc = asc;
-     }
-
-     public int compare(Tuple o1, Tuple o2) {
-         Field t1 = (o1).getField(field);
-         Field t2 = (o2).getField(field);
-         if (t1.compare(Predicate.Op.EQUALS, t2))
-             return 0;
-         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-             return asc?1:-1;
-         else
-             return asc?-1:1;
-     }
-
-}
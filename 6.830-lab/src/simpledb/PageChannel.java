@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageChannel is the channel the pages of a file are read and written
+ * through.  It is opened on first use and kept open until {@link #close},
+ * and does positional I/O, so concurrent readers never share a file
+ * pointer.  Pages go through a direct buffer per thread (see
+ * {@link #buffer}).
+ */
+class PageChannel {
+    /**
+     * Direct buffers, one per thread, reused for all page I/O; grown when
+     * a file with larger pages is read.
+     */
+    private static final ThreadLocal<ByteBuffer> pageBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        }
+    };
+
+    private final File f;
+    private volatile FileChannel channel;
+
+    /** @param f the file to read and write */
+    PageChannel(File f) {
+        this.f = f;
+    }
+
+    /** @return this thread's I/O buffer, cleared, with a limit of the specified size */
+    static ByteBuffer buffer(int size) {
+        ByteBuffer buf = pageBuffer.get();
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(size);
+            pageBuffer.set(buf);
+        }
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * Returns the open channel on the file, opening it if necessary.  A
+     * channel closed by an interrupted reader is reopened.
+     */
+    FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = new RandomAccessFile(f, "rw").getChannel();
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Reads the specified number of bytes at the specified offset.  A read
+     * past the end of the file leaves the rest of the bytes zeroed.
+     */
+    byte[] read(long pos, int size) throws IOException {
+        byte[] data = new byte[size];
+        ByteBuffer buf = buffer(size);
+        transfer(buf, pos, false);
+        buf.flip();
+        buf.get(data, 0, buf.remaining());
+        return data;
+    }
+
+    /** Writes the specified bytes at the specified offset. */
+    void write(long pos, byte[] data) throws IOException {
+        ByteBuffer buf = buffer(data.length);
+        buf.put(data);
+        buf.flip();
+        transfer(buf, pos, true);
+    }
+
+    /**
+     * Reads a page into buf, or writes the page held in buf, at the
+     * specified offset.  For a write, buf holds the bytes to write up to
+     * its limit; a read fills buf up to its limit, and afterwards buf's
+     * position is the number of bytes read.
+     */
+    void transfer(ByteBuffer buf, long pos, boolean write) throws IOException {
+        FileChannel ch = channel();
+        if (write) {
+            buf.rewind();
+            while (buf.hasRemaining())
+                ch.write(buf, pos + buf.position());
+        }
+        else {
+            buf.position(0);
+            while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0)
+                ;
+        }
+    }
+
+    /** Truncates the file to the specified length. */
+    void truncate(long length) throws IOException {
+        channel().truncate(length);
+    }
+
+    /**
+     * Closes the file.  It is reopened if the channel is used again.
+     */
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Computes an aggregate of a HeapFile with several threads.  The file's
+ * pages are split into as many contiguous ranges as there are threads,
+ * and each thread reads one range into its own partial
+ * {@link IntAggregator} or {@link StringAggregator}, so the threads share
+ * nothing but the buffer pool.  The partials are then combined into the
+ * aggregate: counts, sums, minimums and maximums directly, and averages
+ * from their sums and counts, which the partials keep apart.
+ * <p>
+ * Tuples can also be merged one at a time, as with any Aggregator.
+ */
+public class ParallelAggregator implements Aggregator {
+    /** The worker threads, shared by every aggregate and kept while idle. */
+    private static final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Aggregate worker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private int gbfield, afield;
+    private Type gbfieldtype, afieldtype;
+    private Op what;
+    private int threads;
+    /** The aggregate the partials of the threads are combined into. */
+    private Aggregator agg;
+
+    /**
+     * Aggregate constructor
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param afieldtype the type of the aggregate field
+     * @param what the aggregation operator; only COUNT of string fields
+     * @param threads the number of threads to scan a file with
+     * @throws IllegalArgumentException if what is not COUNT and the field is a string
+     */
+    public ParallelAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what, int threads) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+        this.threads = Math.max(1, threads);
+        this.agg = newPartial();
+    }
+
+    /** @return an empty aggregate of this one's fields and operator */
+    private Aggregator newPartial() {
+        return afieldtype == Type.INT_TYPE ?
+            new IntAggregator(gbfield, gbfieldtype, afield, what) :
+            new StringAggregator(gbfield, gbfieldtype, afield, what);
+    }
+
+    /** @return the number of threads a file is scanned with */
+    public int numThreads() {
+        return threads;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void merge(Tuple tup) {
+        agg.merge(tup);
+    }
+
+    /**
+     * Merges every tuple of the specified file into the aggregate, each
+     * thread reading a range of its pages (through a ring of its own if the
+     * file is too large for the pool; see {@link BufferPool#scanStrategy}).
+     * Returns when every thread is done.
+     *
+     * @param tid the transaction the pages are read on behalf of
+     * @param f the file to aggregate
+     * @throws DbException if a thread failed reading its range
+     * @throws TransactionAbortedException if a thread's transaction was aborted
+     */
+    public void scan(final TransactionId tid, final HeapFile f)
+        throws DbException, TransactionAbortedException {
+        final BufferPool bp = Database.getBufferPool();
+        final int pages = f.numPages();
+        int n = Math.max(1, Math.min(threads, pages));
+        Aggregator[] partials = new Aggregator[n];
+        List<Future<Void>> done = new ArrayList<Future<Void>>();
+        // set when the scan is interrupted; the threads then stop reading
+        // (interrupting them would close the file's channel under a read)
+        final AtomicBoolean stopped = new AtomicBoolean();
+        for (int i = 0;i < n;i++) {
+            final Aggregator partial = partials[i] = newPartial();
+            final int first = (int)((long)pages * i / n);
+            final int end = (int)((long)pages * (i + 1) / n);
+            done.add(workers.submit(new Callable<Void>() {
+                public Void call() throws DbException, TransactionAbortedException {
+                    if (stopped.get())
+                        return null;
+                    DbFileIterator it = f.iterator(tid, bp.scanStrategy(pages), first, end);
+                    it.open();
+                    while (!stopped.get() && it.hasNext())
+                        partial.merge(it.next());
+                    it.close();
+                    return null;
+                }
+            }));
+        }
+        Throwable failure = null;
+        for (Future<Void> d : done) {
+            try {
+                d.get();
+            }
+            catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+            catch (InterruptedException e) {
+                // the threads still read pages for tid, so they are stopped
+                // before the transaction can give its locks back
+                stopped.set(true);
+                awaitAll(done);
+                throw new TransactionAbortedException();
+            }
+        }
+        if (failure instanceof DbException)
+            throw (DbException)failure;
+        if (failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException)failure;
+        if (failure != null)
+            throw new RuntimeException(failure);
+        for (Aggregator partial : partials) {
+            if (partial instanceof IntAggregator)
+                ((IntAggregator)agg).combine((IntAggregator)partial);
+            else
+                ((StringAggregator)agg).combine((StringAggregator)partial);
+        }
+    }
+
+    /** Waits for every one of the specified tasks to return, whatever interrupts this thread. */
+    private static void awaitAll(List<Future<Void>> tasks) {
+        for (Future<Void> t : tasks) {
+            while (true) {
+                try {
+                    t.get();
+                    break;
+                }
+                catch (ExecutionException e) {
+                    break;
+                }
+                catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal,
+     *   aggregateVal) if using group, or a single (aggregateVal) if no
+     *   grouping.
+     */
+    public DbIterator iterator() {
+        return agg.iterator();
+    }
+}
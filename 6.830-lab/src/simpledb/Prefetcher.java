@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.concurrent.*;
+
+/**
+ * Prefetcher implements read-ahead for a single sequential reader of a
+ * HeapFile.  The reader reports every page it requests; once it has
+ * requested SEQUENTIAL_THRESHOLD consecutive pages, the pages following
+ * it (up to the BufferPool's prefetch window) are read into the pool on a
+ * background I/O thread, so they are usually resident by the time the
+ * reader gets to them.  Any jump restarts the detection.
+ * <p>
+ * Pages are read ahead without taking locks; the reader still acquires
+ * its lock on each page through {@link BufferPool#getPage}.
+ *
+ * @see BufferPool#setPrefetchWindow
+ */
+public class Prefetcher {
+    /** Number of consecutive pages that make an access pattern sequential. */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /** The I/O thread, shared by every reader. */
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BufferPool prefetcher");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final BufferPool bp;
+    private final int tableId;
+    private final int numPages;
+    private final BufferAccessStrategy strategy;
+    private int lastPage;
+    private int runLength;
+    /** The highest page that has been requested or read ahead. */
+    private int readUpTo;
+
+    /**
+     * @param bp the buffer pool to read pages into
+     * @param tableId the table being read
+     * @param numPages the number of pages in the table
+     * @param strategy the reader's ring, or null if it reads through the
+     *   whole pool
+     */
+    public Prefetcher(BufferPool bp, int tableId, int numPages, BufferAccessStrategy strategy) {
+        this.bp = bp;
+        this.tableId = tableId;
+        this.numPages = numPages;
+        this.strategy = strategy;
+        lastPage = -1;
+        runLength = 0;
+        readUpTo = -1;
+    }
+
+    /**
+     * Reports that the reader requested the specified page, and reads the
+     * following pages ahead if the access is sequential.
+     */
+    public void pageRequested(int pgNo) {
+        if (pgNo == lastPage + 1 && runLength > 0)
+            runLength++;
+        else
+            runLength = 1;
+        lastPage = pgNo;
+        if (runLength == 1 || readUpTo < pgNo)
+            readUpTo = pgNo;
+
+        int window = bp.prefetchWindow(strategy);
+        if (runLength < SEQUENTIAL_THRESHOLD || window <= 0)
+            return;
+        // top the window up once half of it has been consumed, so the
+        // I/O thread gets batches rather than single pages
+        int end = Math.min(numPages - 1, pgNo + window);
+        if (readUpTo - pgNo > window / 2 || readUpTo >= end)
+            return;
+        final int from = readUpTo + 1, to = end;
+        readUpTo = end;
+        io.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = from;i <= to;i++)
+                        bp.prefetchPage(new HeapPageId(tableId, i), strategy);
+                }
+                catch (RuntimeException e) {
+                    // the table may have been dropped since; the reader
+                    // will report any real error when it reads the page
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until every read-ahead requested so far has completed.  Used
+     * by tests.
+     */
+    static void awaitIdle() throws InterruptedException {
+        try {
+            io.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which BufferPool frame is given up when a new
+ * page has to be read and the pool is full.  The BufferPool reports every
+ * load, hit and removal of a page, and asks the policy for a victim in
+ * {@link #chooseVictim}; frames the BufferPool is not allowed to evict
+ * (dirty or write-locked pages, for NO STEAL) are filtered out through the
+ * supplied {@link EvictionFilter}.
+ * <p>
+ * Implementations must be thread safe: {@link #pageAccessed} is called
+ * concurrently from every reader that hits in the pool, while the other
+ * methods are called with the BufferPool locked.
+ */
+public interface ReplacementPolicy {
+
+    /** Which frames may be chosen as victims. */
+    public interface EvictionFilter {
+        /** @return true if the page in this frame may be evicted now */
+        public boolean canEvict(int frame);
+    }
+
+    /** The available policies, selectable when the BufferPool is created. */
+    public enum Kind {
+        CLOCK, LRU, LRU_K, TWO_Q;
+
+        /**
+         * Create a policy of this kind for a pool of the given size.
+         *
+         * @param numFrames the number of frames in the buffer pool
+         */
+        public ReplacementPolicy create(int numFrames) {
+            switch (this) {
+            case LRU:
+                return new LruPolicy(numFrames);
+            case LRU_K:
+                return new LruKPolicy(numFrames, LruKPolicy.DEFAULT_K);
+            case TWO_Q:
+                return new TwoQPolicy(numFrames);
+            default:
+                return new ClockPolicy(numFrames);
+            }
+        }
+
+        /**
+         * Interface to access policies by name for command-line convenience.
+         *
+         * @param s a policy name, e.g. "clock" or "lru_k"
+         */
+        public static Kind getKind(String s) {
+            return valueOf(s.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * A page was read from disk into the specified frame.
+     *
+     * @param frame the frame the page now occupies
+     * @param pid the id of the page that was loaded
+     */
+    public void pageLoaded(int frame, PageId pid);
+
+    /**
+     * The page in the specified frame was requested and found in the pool.
+     */
+    public void pageAccessed(int frame);
+
+    /**
+     * The page in the specified frame was evicted or discarded; the frame
+     * is free until the next call to {@link #pageLoaded}.
+     */
+    public void pageRemoved(int frame);
+
+    /**
+     * Pick the frame whose page should be evicted next.  Does not remove
+     * the page; the BufferPool calls {@link #pageRemoved} once it has.
+     *
+     * @param filter tells which occupied frames may be evicted
+     * @return the victim frame, or -1 if no frame can be evicted
+     */
+    public int chooseVictim(EvictionFilter filter);
+}
@@ -30,7 +30,25 @@ public class SeqScan implements DbIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias; 
         this.df = Database.getCatalog().getDbFile(tableid);
-        this.di = this.df.iterator(tid);
+        if (df instanceof HeapFile) {
+            // large tables are read through a private ring of frames so
+            // the scan does not flush the rest of the buffer pool
+            HeapFile hf = (HeapFile)df;
+            this.di = hf.iterator(tid, Database.getBufferPool().scanStrategy(hf.numPages()));
+        }
+        else {
+            this.di = this.df.iterator(tid);
+        }
+    }
+
+    /** @return the table this scan reads */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
     }
 
     public void open()
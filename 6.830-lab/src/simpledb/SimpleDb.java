@@ -11,9 +11,18 @@ public class SimpleDb {
         if (args.length == 3) {
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
+                        BufferPool.databasePageSize(),
                         Integer.parseInt(args[2]));
         }
+        else if (args.length == 5 && args[4].equals("slotted")) {
+            String[] typeStringAr = args[3].split(",");
+            Type[] ts = new Type[typeStringAr.length];
+            for (int i = 0;i < ts.length;i++)
+                ts[i] = typeStringAr[i].toLowerCase().equals("string") ? Type.STRING_TYPE : Type.INT_TYPE;
+            HeapFileEncoder.convertSlotted(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        BufferPool.databasePageSize(), ts);
+        }
         else if (args.length == 4) {
             ArrayList<Type> ts = new ArrayList<Type>();
             String[] typeStringAr = args[3].split(",");
@@ -29,7 +38,7 @@ public class SimpleDb {
             }
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
+                        BufferPool.databasePageSize(),
                         Integer.parseInt(args[2]), ts.toArray(new Type[0]));
 
         } else {
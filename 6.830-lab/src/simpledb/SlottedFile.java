@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store variable-length tuples.  Tables with many short strings take a
+ * fraction of the pages they would as a plain HeapFile, and scans read
+ * that many fewer pages.  Files are filled through
+ * {@link BufferPool#insertTuple} (or {@link #addTuple}), or written by
+ * {@link HeapFileEncoder#convertSlotted}; a catalog entry declares a table
+ * slotted with the option "slotted".
+ * <p>
+ * A slotted file always has a file header recording its layout (see
+ * {@link HeapFile#writeFileHeader}), so it is never read as a HeapFile of
+ * HeapPages, nor a HeapPage file as a SlottedFile.
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted file with the specified page size.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public SlottedFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    protected int layout() {
+        return LAYOUT_SLOTTED;
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+}
@@ -0,0 +1,391 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * SlottedPage stores variable-length tuples, so short strings take only
+ * as many bytes as they have instead of Type.STRING_LEN.
+ * <p>
+ * The page starts with a header of two unsigned 16-bit words: the number
+ * of slots in the slot directory, and the offset at which the tuple data
+ * begins (0 for the end of the page, i.e. no data).  The slot directory
+ * follows, one entry of two unsigned 16-bit words (offset and length of
+ * the tuple) per slot; an offset of 0 marks an empty slot.  Tuples are
+ * packed from the end of the page towards the directory.  In a tuple, an
+ * int field takes 4 bytes and a string field a 16-bit length followed by
+ * its first Type.STRING_LEN characters in UTF-8.
+ * <p>
+ * A tuple's slot number is its RecordId, so deleting a tuple leaves a hole
+ * that is only reclaimed, by compacting the page, when an insert needs
+ * the space.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements TuplePage {
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    HeapPageId pid;
+    TupleDesc td;
+    byte[] data;
+    /** Size of the page in bytes, as set for its table in the catalog. */
+    int pageSize;
+    /** The page before it was modified, or null if it has not been since the last setBeforeImage. */
+    byte[] oldData;
+
+    TransactionId tid;
+
+    /**
+     * Create a SlottedPage from a page of data read from disk.  An all-zero
+     * page is an empty page.
+     *
+     * @param id the id of this page
+     * @param data the page; it is copied
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create an empty SlottedPage of a table that need not be in the
+     * catalog, e.g. for a file being written by HeapFileEncoder.
+     *
+     * @param id the id of this page
+     * @param td the schema of the page's tuples
+     * @param pageSize the size of the page in bytes
+     */
+    SlottedPage(HeapPageId id, TupleDesc td, int pageSize) {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.data = new byte[pageSize];
+    }
+
+    /**
+     * Create a SlottedPage from a page-sized buffer.
+     *
+     * @see #SlottedPage(HeapPageId, byte[])
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.remaining() < pageSize)
+            throw new IOException("page data too short: " + data.remaining() + " bytes");
+        this.data = new byte[pageSize];
+        data.duplicate().get(this.data);
+        if (HEADER_SIZE + getNumSlots() * SLOT_SIZE > dataStart())
+            throw new IOException("corrupt slotted page " + id.pageno());
+        setBeforeImage();
+    }
+
+    private int getShort(int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    private void putShort(int off, int v) {
+        data[off] = (byte)(v >>> 8);
+        data[off + 1] = (byte)v;
+    }
+
+    /** @return the number of entries in the slot directory, used or not */
+    public int getNumSlots() {
+        return getShort(0);
+    }
+
+    /** @return the offset of the first byte of tuple data */
+    private int dataStart() {
+        int start = getShort(2);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int slotOffset(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean getSlot(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0;i < getNumSlots();i++)
+            if (slotOffset(i) != 0)
+                n++;
+        return n;
+    }
+
+    /** @return the number of bytes not taken by the header, the directory or tuples */
+    private int freeBytes() {
+        int used = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        for (int i = 0;i < getNumSlots();i++)
+            used += slotLength(i);
+        return pageSize - used;
+    }
+
+    /** @return the first empty slot, or -1 if every slot is used */
+    private int emptySlot() {
+        for (int i = 0;i < getNumSlots();i++)
+            if (slotOffset(i) == 0)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return the bytes a string is stored as: its first Type.STRING_LEN
+     *   characters (never half of a surrogate pair) in UTF-8
+     */
+    static byte[] encode(String s) {
+        if (s.length() > Type.STRING_LEN) {
+            int end = Type.STRING_LEN;
+            if (Character.isHighSurrogate(s.charAt(end - 1)))
+                end--;
+            s = s.substring(0, end);
+        }
+        return s.getBytes(CHARSET);
+    }
+
+    /** @return the number of bytes the specified tuple takes on a page */
+    static int recordLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int i = 0;i < td.numFields();i++) {
+            if (td.getType(i) == Type.STRING_TYPE)
+                len += 2 + encode(((StringField)t.getField(i)).getValue()).length;
+            else
+                len += td.getType(i).getLen();
+        }
+        return len;
+    }
+
+    /** @return the number of bytes the smallest tuple of the schema takes */
+    private int minRecordLength() {
+        int len = 0;
+        for (int i = 0;i < td.numFields();i++)
+            len += td.getType(i) == Type.STRING_TYPE ? 2 : td.getType(i).getLen();
+        return len;
+    }
+
+    private boolean hasRoomFor(int length) {
+        int need = length + (emptySlot() < 0 ? SLOT_SIZE : 0);
+        // a tuple of length 0 could not be told apart from an empty slot
+        return length > 0 && freeBytes() >= need;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoomFor(recordLength(t));
+    }
+
+    public boolean hasRoom() {
+        return hasRoomFor(Math.max(1, minRecordLength()));
+    }
+
+    /** Copies the page aside as its before image, if that has not been done since setBeforeImage. */
+    private void beforeModify() {
+        if (oldData == null)
+            oldData = data.clone();
+    }
+
+    /** Moves every tuple to the end of the page, so the free space is contiguous. */
+    private void compact() {
+        byte[] old = data.clone();
+        int end = pageSize;
+        for (int i = 0;i < getNumSlots();i++) {
+            int off = slotOffset(i);
+            if (off == 0)
+                continue;
+            int len = slotLength(i);
+            end -= len;
+            System.arraycopy(old, off, data, end, len);
+            setSlot(i, end, len);
+        }
+        putShort(2, end == pageSize ? 0 : end);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the tuple does not fit or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void addTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Tuple inserted mismatch the description.");
+        byte[] rec = serialize(t);
+        if (!hasRoomFor(rec.length))
+            throw new DbException("Tuple inserted on a full page.");
+        beforeModify();
+        int slot = emptySlot();
+        int directoryEnd = HEADER_SIZE + (getNumSlots() + (slot < 0 ? 1 : 0)) * SLOT_SIZE;
+        if (dataStart() - rec.length < directoryEnd)
+            compact();
+        if (slot < 0) {
+            slot = getNumSlots();
+            putShort(0, slot + 1);
+        }
+        int off = dataStart() - rec.length;
+        System.arraycopy(rec, 0, data, off, rec.length);
+        putShort(2, off);
+        setSlot(slot, off, rec.length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (!pid.equals(t.getRecordId().getPageId()))
+            throw new DbException("Tuple deleted is not on the page.");
+        int slot = t.getRecordId().tupleno();
+        if (!getSlot(slot))
+            throw new DbException("Delete an empty slot.");
+        beforeModify();
+        setSlot(slot, 0, 0);
+        // drop empty slots at the end of the directory
+        int n = getNumSlots();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        putShort(0, n);
+        if (n == 0)
+            putShort(2, 0);
+    }
+
+    private byte[] serialize(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordLength(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0;i < td.numFields();i++) {
+                if (td.getType(i) == Type.STRING_TYPE) {
+                    byte[] s = encode(((StringField)t.getField(i)).getValue());
+                    dos.writeShort(s.length);
+                    dos.write(s);
+                }
+                else {
+                    t.getField(i).serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public Tuple getTuple(int slot) {
+        return getSlot(slot) ? readTuple(slot) : null;
+    }
+
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int off = slotOffset(slot);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int i = 0;i < td.numFields();i++) {
+            if (td.getType(i) == Type.STRING_TYPE) {
+                int len = getShort(off);
+                t.setField(i, new StringField(new String(data, off + 2, len, CHARSET), Type.STRING_LEN));
+                off += 2 + len;
+            }
+            else {
+                t.setField(i, td.getType(i).parse(buf, off));
+                off += td.getType(i).getLen();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, oldData != null ? oldData : data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /** Takes the current contents as the before image; they are copied on the next modification. */
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int idx=-1;
+
+            @Override
+            public boolean hasNext() {
+                while (idx+1 < getNumSlots() && slotOffset(idx+1) == 0)
+                    idx++;
+                return idx+1 < getNumSlots();
+            }
+
+            @Override
+            public Tuple next() {
+                if (hasNext())
+                    return readTuple(++idx);
+                else
+                    throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
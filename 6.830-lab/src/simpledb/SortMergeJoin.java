@@ -0,0 +1,393 @@
+package simpledb;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children sorted in ascending order of their join
+ * fields, for EQUALS and for the range comparisons (LESS_THAN,
+ * LESS_THAN_OR_EQ, GREATER_THAN and GREATER_THAN_OR_EQ).  A child that is
+ * not already sorted on its join field (see {@link #isSortedOn}) is sorted
+ * by an {@link OrderBy}.
+ * <p>
+ * The outer child is read once.  As the outer keys only grow, the inner
+ * tuples that match each outer tuple are a range of the inner ones whose
+ * ends only move forward: the run of equal keys for EQUALS, everything
+ * after (or from) it for LESS_THAN (or LESS_THAN_OR_EQ), and everything
+ * before (or up to) it for GREATER_THAN (or GREATER_THAN_OR_EQ).  So each
+ * outer tuple costs no comparisons beyond moving the ends, and the join's
+ * tuples come in ascending order of the outer join field.
+ * <p>
+ * An equi-join reads the inner child along with the outer one, and keeps
+ * only the current run of equal inner keys.  A range join keeps all the
+ * inner tuples.  Either keeps them in frames reserved from the buffer pool
+ * (see {@link WorkMemory}); if they do not fit, they are written to a
+ * {@link SpillFile} and read back for each outer tuple that matches them.
+ */
+public class SortMergeJoin extends AbstractDbIterator {
+    private JoinPredicate p;
+    private DbIterator child1, child2;
+    /** The children, or OrderBys over them where they are not already sorted. */
+    private DbIterator outer, inner;
+    private TupleDesc td;
+    /** The frames reserved for the inner tuples held in memory. */
+    private final WorkMemory work;
+
+    /** For EQUALS, the inner tuples with the smallest key at least the last outer key, and that key. */
+    private ArrayList<Tuple> run;
+    private Field runKey;
+    /** For EQUALS, the inner tuple after the run, or null at the end of the inner child. */
+    private Tuple nextInner;
+    /** For EQUALS, the run if it did not fit in memory, and a scan of it, or null. */
+    private SpillFile runFile;
+    private DbIterator runScan;
+    /** True while t1 is joined with the tuples of runScan. */
+    private boolean scanRun;
+
+    /** For range joins, the inner tuples, or null if they were spilled. */
+    private ArrayList<Tuple> innerTups;
+    /** The first inner tuple whose key is at least / more than the current outer key. */
+    private int ge, gt;
+    /** For range joins, the inner tuples that did not fit in memory, and a scan of them. */
+    private SpillFile innerFile;
+    private DbIterator innerScan;
+
+    private Tuple t1;
+    /** The inner tuples that match t1 still to be returned: matches[pos..end). */
+    private ArrayList<Tuple> matches;
+    private int pos, end;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate
+     * to join them on.  A range join asks for a quarter of the buffer
+     * pool's pages as memory.
+     *
+     * @param p The predicate to use to join the children; EQUALS or a
+     *   range comparison
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException for NOT_EQUALS and LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, -1);
+    }
+
+    /**
+     * Constructor for a join that asks for the specified number of pages
+     * of memory for the inner tuples of a range join.  open reserves as
+     * many of them as the buffer pool can spare, and the join works with
+     * those.  -1 asks for a quarter of the buffer pool's pages.
+     *
+     * @see #SortMergeJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("a sort-merge join cannot evaluate " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.outer = isSortedOn(child1, p.getField1()) ? child1 : new OrderBy(p.getField1(), true, child1);
+        this.inner = isSortedOn(child2, p.getField2()) ? child2 : new OrderBy(p.getField2(), true, child2);
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.work = new WorkMemory(memoryPages);
+    }
+
+    /** @return true for the operators a SortMergeJoin evaluates */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Returns true if the tuples of the specified iterator come in
+     * ascending order of the specified field: the tuples of an ascending
+     * OrderBy on the field, of an IndexScan through a B+ tree on it, or of
+     * a SortMergeJoin on it as the outer join field.
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy)
+            return ((OrderBy)it).getOrderByField() == field && ((OrderBy)it).isAscending();
+        if (it instanceof IndexScan)
+            return ((IndexScan)it).isOrderedOn(field);
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin)it).p.getField1() == field;
+        return false;
+    }
+
+    /** @return true if the specified child was used as it is, without sorting it */
+    boolean skipsSort(DbIterator child) {
+        return child == child1 ? outer == child1 : inner == child2;
+    }
+
+    /**
+     * @return true if the last open wrote the inner tuples of a range join
+     *   to disk, or the current run of an equi-join was
+     */
+    public boolean isSpilling() {
+        return innerFile != null || runFile != null;
+    }
+
+    /** @return the number of inner tuples held in memory */
+    int numBuffered() {
+        if (run != null)
+            return run.size() + (nextInner == null ? 0 : 1);
+        return innerTups == null ? 0 : innerTups.size();
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        boolean opened = false;
+        try {
+            outer.open();
+            inner.open();
+            work.reserve();
+            if (p.getOperator() == Predicate.Op.EQUALS) {
+                run = new ArrayList<Tuple>();
+                runKey = null;
+                nextInner = inner.hasNext() ? inner.next() : null;
+            }
+            else
+                loadInner();
+            t1 = null;
+            pos = end = 0;
+            opened = true;
+        }
+        finally {
+            // close a failed open, deleting its spill file
+            if (!opened)
+                close();
+        }
+    }
+
+    /**
+     * Reads the inner tuples of a range join into memory, or to a spill
+     * file once they outgrow the reserved frames.
+     */
+    private void loadInner() throws DbException, TransactionAbortedException {
+        long budget = work.bytes();
+        int size = inner.getTupleDesc().getSize();
+        innerTups = new ArrayList<Tuple>();
+        try {
+            while (inner.hasNext()) {
+                Tuple t = inner.next();
+                if (innerFile != null) {
+                    innerFile.add(t);
+                    continue;
+                }
+                innerTups.add(t.materialize());
+                if ((long)innerTups.size() * size > budget) {
+                    innerFile = new SpillFile(inner.getTupleDesc());
+                    for (Tuple u : innerTups)
+                        innerFile.add(u);
+                    innerTups = null;
+                }
+            }
+            if (innerFile != null) {
+                innerScan = innerFile.iterator();
+                innerScan.open();
+            }
+        }
+        catch (IOException e) {
+            throw new DbException(e.getMessage());
+        }
+        ge = gt = 0;
+    }
+
+    public void close() {
+        super.close();
+        outer.close();
+        inner.close();
+        run = null;
+        runKey = null;
+        nextInner = null;
+        clearRun();
+        innerTups = null;
+        matches = null;
+        if (innerScan != null)
+            innerScan.close();
+        innerScan = null;
+        if (innerFile != null)
+            innerFile.delete();
+        innerFile = null;
+        t1 = null;
+        work.release();
+    }
+
+    /**
+     * Starts the join over.  An equi-join reads its inner child again; a
+     * range join keeps its inner tuples, so it does not.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        outer.rewind();
+        if (run != null) {
+            inner.rewind();
+            run.clear();
+            clearRun();
+            runKey = null;
+            nextInner = inner.hasNext() ? inner.next() : null;
+        }
+        ge = gt = 0;
+        t1 = null;
+        pos = end = 0;
+    }
+
+    private Field innerKey(Tuple t) {
+        return t.getField(p.getField2());
+    }
+
+    /**
+     * Returns the next outer tuple joined with a matching inner tuple, as
+     * the concatenation of the two, like {@link Join#readNext}.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (innerScan != null)
+            return readSpilled();
+        while (true) {
+            if (t1 != null && pos < end)
+                return Join.merge(td, t1, matches.get(pos++));
+            if (t1 != null && scanRun && runScan.hasNext())
+                return Join.merge(td, t1, runScan.next());
+            if (!outer.hasNext()) {
+                t1 = null;
+                return null;
+            }
+            t1 = outer.next();
+            Field key = t1.getField(p.getField1());
+            if (run != null)
+                seekRun(key);
+            else
+                seekRange(key);
+        }
+    }
+
+    /**
+     * Moves the run of equal inner keys to the smallest key at least the
+     * specified outer key, and points pos and end (or runScan, if the run
+     * was spilled) at it if the keys are equal.
+     */
+    private void seekRun(Field key) throws TransactionAbortedException, DbException {
+        if (runKey == null || runKey.compare(Predicate.Op.LESS_THAN, key)) {
+            run.clear();
+            clearRun();
+            runKey = null;
+            while (nextInner != null && innerKey(nextInner).compare(Predicate.Op.LESS_THAN, key))
+                nextInner = inner.hasNext() ? inner.next() : null;
+            if (nextInner != null) {
+                runKey = innerKey(nextInner);
+                try {
+                    while (nextInner != null && innerKey(nextInner).compare(Predicate.Op.EQUALS, runKey)) {
+                        addToRun(nextInner);
+                        nextInner = inner.hasNext() ? inner.next() : null;
+                    }
+                    if (runFile != null) {
+                        runScan = runFile.iterator();
+                        runScan.open();
+                    }
+                }
+                catch (IOException e) {
+                    throw new DbException(e.getMessage());
+                }
+            }
+        }
+        boolean equal = runKey != null && runKey.compare(Predicate.Op.EQUALS, key);
+        matches = run;
+        pos = 0;
+        end = equal ? run.size() : 0;
+        scanRun = equal && runScan != null;
+        if (scanRun)
+            runScan.rewind();
+    }
+
+    /**
+     * Adds an inner tuple to the run, writing the run to a spill file once
+     * it outgrows the reserved frames.
+     */
+    private void addToRun(Tuple t) throws DbException, IOException {
+        if (runFile != null) {
+            runFile.add(t);
+            return;
+        }
+        run.add(t.materialize());
+        if ((long)run.size() * inner.getTupleDesc().getSize() > work.bytes()) {
+            runFile = new SpillFile(inner.getTupleDesc());
+            for (Tuple u : run)
+                runFile.add(u);
+            run.clear();
+        }
+    }
+
+    /** Closes and deletes the spilled run, if any. */
+    private void clearRun() {
+        if (runScan != null)
+            runScan.close();
+        runScan = null;
+        if (runFile != null)
+            runFile.delete();
+        runFile = null;
+        scanRun = false;
+    }
+
+    /** Points pos and end at the inner tuples that match the specified outer key. */
+    private void seekRange(Field key) {
+        int n = innerTups.size();
+        while (ge < n && innerKey(innerTups.get(ge)).compare(Predicate.Op.LESS_THAN, key))
+            ge++;
+        if (gt < ge)
+            gt = ge;
+        while (gt < n && !innerKey(innerTups.get(gt)).compare(Predicate.Op.GREATER_THAN, key))
+            gt++;
+        matches = innerTups;
+        switch (p.getOperator()) {
+        case LESS_THAN:
+            pos = gt;
+            end = n;
+            break;
+        case LESS_THAN_OR_EQ:
+            pos = ge;
+            end = n;
+            break;
+        case GREATER_THAN:
+            pos = 0;
+            end = ge;
+            break;
+        default:
+            pos = 0;
+            end = gt;
+            break;
+        }
+    }
+
+    /**
+     * readNext for a range join whose inner tuples were spilled: each
+     * outer tuple reads them back in order.  For GREATER_THAN (or
+     * GREATER_THAN_OR_EQ) the matches come first, so the read stops at the
+     * first inner tuple that does not match; for LESS_THAN (or
+     * LESS_THAN_OR_EQ) they come last, after the ones that do not.
+     */
+    private Tuple readSpilled() throws TransactionAbortedException, DbException {
+        boolean matchesFirst = p.getOperator() == Predicate.Op.GREATER_THAN
+            || p.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+        while (true) {
+            if (t1 != null && innerScan.hasNext()) {
+                Tuple t2 = innerScan.next();
+                if (p.filter(t1, t2))
+                    return Join.merge(td, t1, t2);
+                if (matchesFirst)
+                    t1 = null;
+                continue;
+            }
+            if (!outer.hasNext()) {
+                t1 = null;
+                return null;
+            }
+            t1 = outer.next();
+            innerScan.rewind();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes once and
+ * then reads back, such as a partition of a {@link HashJoin} that does not
+ * fit in its memory budget.  Its pages are HeapPages, laid out as in a
+ * HeapFile, but they are written and read directly rather than through
+ * the buffer pool: the file belongs to one operator, which needs no locks
+ * on it and counts the page being filled against its own budget.
+ * <p>
+ * The operator deletes the file when it is closed, or when its open fails.
+ */
+public class SpillFile {
+    private final File f;
+    private final TupleDesc td;
+    private final int id;
+    /** The page being filled, or null before the first tuple. */
+    private HeapPage page;
+    /** null once the file has been read. */
+    private OutputStream out;
+    private int numPages;
+    private int numTuples;
+
+    /**
+     * Creates an empty spill file for tuples with the specified TupleDesc.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.f = File.createTempFile("spill", ".dat");
+        this.id = f.getAbsoluteFile().hashCode();
+        try {
+            this.out = new FileOutputStream(f);
+        }
+        catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+    }
+
+    /** @return the TupleDesc of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added to this file */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of pages of this file, including the one being filled */
+    public int numPages() {
+        return page == null ? numPages : numPages + 1;
+    }
+
+    /**
+     * Adds a copy of the specified tuple to the end of the file; the tuple
+     * itself is left as it is.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws DbException, IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file has already been read");
+        if (page != null && !page.hasRoom()) {
+            out.write(page.getPageData());
+            numPages++;
+            page = null;
+        }
+        if (page == null)
+            page = new HeapPage(new HeapPageId(id, numPages), ByteBuffer.wrap(HeapPage.createEmptyPageData()), td, BufferPool.PAGE_SIZE);
+        Tuple copy = new Tuple(td);
+        for (int i = 0;i < td.numFields();i++)
+            copy.setField(i, t.getField(i));
+        page.addTuple(copy);
+        numTuples++;
+    }
+
+    /**
+     * Writes out the last page and returns an iterator over the tuples of
+     * the file, in the order they were added.  No more tuples may be added.
+     */
+    public DbIterator iterator() throws IOException {
+        if (out != null) {
+            if (page != null) {
+                out.write(page.getPageData());
+                numPages++;
+                page = null;
+            }
+            out.close();
+            out = null;
+        }
+        return new AbstractDbIterator() {
+            private RandomAccessFile raf;
+            private Iterator<Tuple> it;
+            private int pgNo;
+
+            public void open() throws DbException {
+                try {
+                    raf = new RandomAccessFile(f, "r");
+                }
+                catch (IOException e) {
+                    throw new DbException(e.getMessage());
+                }
+                it = null;
+                pgNo = 0;
+            }
+
+            protected Tuple readNext() throws DbException {
+                while (it == null || !it.hasNext()) {
+                    if (raf == null || pgNo >= numPages)
+                        return null;
+                    byte[] data = HeapPage.createEmptyPageData();
+                    try {
+                        raf.readFully(data);
+                        it = new HeapPage(new HeapPageId(id, pgNo++), ByteBuffer.wrap(data), td, BufferPool.PAGE_SIZE).iterator();
+                    }
+                    catch (IOException e) {
+                        throw new DbException(e.getMessage());
+                    }
+                }
+                return it.next();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void rewind() throws DbException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                it = null;
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    }
+                    catch (IOException e) {
+                        // nothing more will be read from it anyway
+                    }
+                    raf = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Deletes the file.  Iterators over it must be closed first.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                // the file is being deleted anyway
+            }
+            out = null;
+        }
+        page = null;
+        f.delete();
+    }
+}
@@ -46,6 +46,19 @@ public class StringAggregator implements Aggregator {
             cnts.put(key, 1);
     }
 
+    /**
+     * Adds the counts of another StringAggregator, of the same fields, to
+     * those of this one.
+     *
+     * @param other a partial aggregate of other tuples
+     */
+    void combine(StringAggregator other) {
+        for (Map.Entry<Field, Integer> e : other.cnts.entrySet()) {
+            Integer n = cnts.get(e.getKey());
+            cnts.put(e.getKey(), n == null ? e.getValue() : n + e.getValue());
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -14,6 +14,11 @@ public class TableStats {
      * though our tests assume that you have at least 100 bins in your histograms.
      */
     static final int NUM_HIST_BINS = 100;
+    /**
+     * The cost per page of IO the parser computes statistics with, by which
+     * the optimizer turns scan costs back into pages.
+     */
+    public static final int IOCOSTPERPAGE = 1000;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each column of a table
@@ -45,7 +50,8 @@ public class TableStats {
         }
 
         ntups = 0;
-        DbFileIterator dfi = hf.iterator(new TransactionId());
+        DbFileIterator dfi = hf.iterator(new TransactionId(),
+            Database.getBufferPool().scanStrategy(numPages));
 
         try {
             dfi.open();
@@ -97,6 +103,11 @@ public class TableStats {
         }
     }
 
+    /** @return the number of pages of the table */
+    public int numPages() {
+        return numPages;
+    }
+
     /** 
      * Estimates the
      * cost of sequentially scanning the file, given that the cost to read
@@ -115,6 +126,19 @@ public class TableStats {
         return numPages * ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates of
+     * the specified selectivity through an index.  The index is not
+     * clustered, so every matching tuple may be on a different page: the
+     * index pages read to find the key, plus one page per tuple.
+     *
+     * @param probePages the index pages read per key (see {@link IndexFile#probeCost})
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivityFactor, int probePages) {
+        return (probePages + ntups * selectivityFactor) * ioCostPerPage;
+    }
+
     /** 
      * This method returns the number of tuples in the relation,
      * given that a predicate with selectivity selectivityFactor is
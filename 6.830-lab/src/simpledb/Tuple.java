@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Tuple maintains information about the contents of a tuple.
  * Tuples have a specified schema specified by a TupleDesc object and contain
@@ -9,6 +11,14 @@ public class Tuple {
     private TupleDesc td;
     private RecordId rid;
     private Field[] flds;
+    /**
+     * Where fields not yet decoded are read from, or null once every field
+     * has been decoded.
+     */
+    private ByteBuffer src;
+    private int offset;
+    /** The number of fields decoded from src. */
+    private int decoded;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -21,6 +31,39 @@ public class Tuple {
         flds = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded on first access from the
+     * serialized tuple at the specified offset of src.  src must not be
+     * modified while the tuple may still read from it; see
+     * {@link #materialize}.
+     *
+     * @param td the schema of this tuple.
+     * @param src the buffer holding the serialized tuple.
+     * @param offset the offset of the tuple in src.
+     */
+    Tuple(TupleDesc td, ByteBuffer src, int offset) {
+        this(td);
+        this.src = src;
+        this.offset = offset;
+    }
+
+    /**
+     * Decodes every field that has not been read yet, so that this tuple
+     * no longer depends on the buffer it was created from.  Operators that
+     * keep tuples call it, so that a kept tuple does not keep the whole
+     * page (or file mapping) it was read from.
+     *
+     * @return this tuple
+     */
+    Tuple materialize() {
+        if (src == null)
+            return this;
+        for (int i = 0;i < flds.length;i++)
+            getField(i);
+        src = null;
+        return this;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -65,7 +108,18 @@ public class Tuple {
      */
     public Field getField(int i) {
         // some code goes here
-        return flds[i];
+        Field f = flds[i];
+        ByteBuffer b = src;
+        if (f == null && b != null) {
+            int off = offset;
+            for (int j = 0;j < i;j++)
+                off += td.getType(j).getLen();
+            f = td.getType(i).parse(b, off);
+            flds[i] = f;
+            if (++decoded == flds.length)
+                src = null;
+        }
+        return f;
     }
 
     /**
@@ -81,7 +135,7 @@ public class Tuple {
         // some code goes here
         StringBuffer sb = new StringBuffer("");
         for (int i = 0;i < td.numFields();i++) {
-            sb.append(flds[i].toString());
+            sb.append(getField(i).toString());
             if (i < td.numFields()-1)
                 sb.append("\t");
         }
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * TupleComparator orders tuples on one or more fields, each ascending or
+ * descending.  Each field is compared once, by value, rather than through
+ * Field.compare for equality and then for order.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+    int[] fields;
+    boolean[] asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need one order for each of at least one field");
+        this.fields = fields;
+        this.asc = asc;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0;i < fields.length;i++) {
+            int c = compare(o1.getField(fields[i]), o2.getField(fields[i]));
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    /** @return the order of two fields of the same type */
+    static int compare(Field f1, Field f2) {
+        if (f1 instanceof IntField) {
+            int v1 = ((IntField)f1).getValue(), v2 = ((IntField)f2).getValue();
+            return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        }
+        return ((StringField)f1).getValue().compareTo(((StringField)f2).getValue());
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface HeapFile uses to scan and update its pages,
+ * so that one file implementation can store tuples in different page
+ * layouts.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * @return the tuple in the specified slot, or null if the slot is
+     *   empty or does not exist
+     */
+    public Tuple getTuple(int slot);
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the tuple does not fit or its TupleDesc does
+     *   not match the page's
+     */
+    public void addTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /** @return true if the specified tuple would fit on this page */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if the smallest tuple of the page's schema would fit on
+     *   this page
+     */
+    public boolean hasRoom();
+}
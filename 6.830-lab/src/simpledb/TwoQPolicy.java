@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha).  Pages read for the first time go
+ * to a FIFO queue, A1in.  Pages evicted from A1in are remembered by id in
+ * a ghost queue, A1out; a page that is read again while it is in A1out
+ * has proven it is hot and goes to the main LRU queue, Am.  A scan only
+ * ever cycles through A1in, so it cannot flush the pages in Am.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+    /** Fraction of the frames that A1in may hold before it must shrink. */
+    static final double IN_FRACTION = 0.25;
+    /** Number of ghost entries kept in A1out, as a fraction of the frames. */
+    static final double OUT_FRACTION = 0.5;
+
+    private final int kin, kout;
+    private PageId[] pids;
+    private LinkedHashSet<Integer> a1in;
+    private LinkedHashSet<Integer> am;
+    private LinkedHashSet<PageId> a1out;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public TwoQPolicy(int numFrames) {
+        kin = Math.max(1, (int)(numFrames * IN_FRACTION));
+        kout = Math.max(1, (int)(numFrames * OUT_FRACTION));
+        pids = new PageId[numFrames];
+        a1in = new LinkedHashSet<Integer>();
+        am = new LinkedHashSet<Integer>();
+        a1out = new LinkedHashSet<PageId>();
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        if (pids[frame] != null)
+            pageRemoved(frame);
+        pids[frame] = pid;
+        if (a1out.remove(pid))
+            am.add(frame);
+        else
+            a1in.add(frame);
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        // hits in A1in are deliberately ignored: they are usually
+        // correlated references from the same scan
+        if (am.remove(frame))
+            am.add(frame);
+    }
+
+    public synchronized void pageRemoved(int frame) {
+        if (pids[frame] == null)
+            return;
+        if (a1in.remove(frame)) {
+            a1out.add(pids[frame]);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        else {
+            am.remove(frame);
+        }
+        pids[frame] = null;
+    }
+
+    public synchronized int chooseVictim(EvictionFilter filter) {
+        int victim;
+        if (a1in.size() > kin) {
+            victim = firstEvictable(a1in, filter);
+            if (victim < 0)
+                victim = firstEvictable(am, filter);
+        }
+        else {
+            victim = firstEvictable(am, filter);
+            if (victim < 0)
+                victim = firstEvictable(a1in, filter);
+        }
+        return victim;
+    }
+
+    private int firstEvictable(LinkedHashSet<Integer> queue, EvictionFilter filter) {
+        for (Integer frame: queue) {
+            if (filter.canEvict(frame))
+                return frame;
+        }
+        return -1;
+    }
+}
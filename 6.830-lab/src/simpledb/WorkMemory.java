@@ -0,0 +1,55 @@
+package simpledb;
+
+/**
+ * WorkMemory is the working memory of an operator that buffers tuples,
+ * such as the hash table of a {@link HashJoin}: frames taken out of the
+ * buffer pool (see {@link BufferPool#reserveWorkPages}) when the operator
+ * opens, and given back when it closes, or when its open fails.
+ * <p>
+ * The operator asks for a number of pages, or for
+ * {@link BufferPool#defaultWorkPages} if it does not say, and works with
+ * as many as the pool could spare, but never fewer than
+ * {@link BufferPool#MIN_WORK_PAGES}.
+ */
+public class WorkMemory {
+    /** Pages asked for, or -1 for the buffer pool's default. */
+    private final int requested;
+    private BufferPool bp;
+    /** Frames reserved by the last reserve, and not given back yet. */
+    private int reserved;
+
+    /**
+     * @param pages the number of pages to ask for, or -1 for the buffer
+     *   pool's default
+     */
+    public WorkMemory(int pages) {
+        this.requested = pages < 0 ? -1 : Math.max(BufferPool.MIN_WORK_PAGES, pages);
+    }
+
+    /**
+     * Reserves the frames from the current buffer pool, first giving
+     * back those reserved before, if any.
+     */
+    public void reserve() {
+        release();
+        bp = Database.getBufferPool();
+        reserved = bp.reserveWorkPages(requested < 0 ? bp.defaultWorkPages() : requested);
+    }
+
+    /** @return the number of pages the operator works with */
+    public int pages() {
+        return Math.max(BufferPool.MIN_WORK_PAGES, reserved);
+    }
+
+    /** @return the number of bytes the operator works with */
+    public long bytes() {
+        return (long)pages() * BufferPool.PAGE_SIZE;
+    }
+
+    /** Gives back the frames reserved, if any. */
+    public void release() {
+        if (reserved > 0)
+            bp.releaseWorkPages(reserved);
+        reserved = 0;
+    }
+}
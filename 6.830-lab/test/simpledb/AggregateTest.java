@@ -1,14 +1,19 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +181,102 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * The child is not read until the aggregate is opened, so a plan can be
+   * built without running it.
+   */
+  @Test public void lazy() throws Exception {
+    final int[] opens = new int[1];
+    TupleIterator child = new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()) {
+      public void open() {
+        opens[0]++;
+        super.open();
+      }
+    };
+    Aggregate op = new Aggregate(child, 1, 0, Aggregator.Op.SUM);
+    assertEquals(0, opens[0]);
+    op.open();
+    assertEquals(1, opens[0]);
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Over a child sorted on the group field, groups are aggregated one at a
+   * time, with the same results, before and after a rewind.
+   */
+  @Test public void streaming() throws Exception {
+    Aggregate op = new Aggregate(new OrderBy(0, false, scan1), 1, 0,
+        Aggregator.Op.SUM);
+    assertTrue(op.isStreaming());
+    assertFalse(new Aggregate(scan1, 1, 0, Aggregator.Op.SUM).isStreaming());
+    op.open();
+    sum.open();
+    TestUtil.matchAllTuples(sum, op);
+    op.rewind();
+    sum.rewind();
+    TestUtil.matchAllTuples(sum, op);
+    op.close();
+  }
+
+  /**
+   * An error reading the child is not swallowed.
+   */
+  @Test(expected=DbException.class) public void childError() throws Exception {
+    DbIterator child = new AbstractDbIterator() {
+      public void open() {
+      }
+
+      public void rewind() {
+      }
+
+      public TupleDesc getTupleDesc() {
+        return Utility.getTupleDesc(2);
+      }
+
+      protected Tuple readNext() throws DbException {
+        throw new DbException("read failed");
+      }
+    };
+    new Aggregate(child, 1, 0, Aggregator.Op.SUM).open();
+  }
+
+  /**
+   * Over a scan of a HeapFile, the aggregate reads the file with several
+   * threads and has the same results as with one.
+   */
+  @Test public void parallel() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, 20, null, null);
+    TransactionId tid = new TransactionId();
+    Aggregate parallel = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0,
+        Aggregator.Op.AVG, 4);
+    Aggregate serial = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0,
+        Aggregator.Op.AVG);
+    assertTrue(parallel.isParallel());
+    assertFalse(serial.isParallel());
+    serial.open();
+    parallel.open();
+    TestUtil.matchAllTuples(serial, parallel);
+    parallel.rewind();
+    serial.rewind();
+    TestUtil.matchAllTuples(serial, parallel);
+    parallel.close();
+    serial.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A table is given a thread per PARALLEL_PAGES_PER_THREAD pages, up to
+   * the number of processors.
+   */
+  @Test public void parallelism() {
+    assertEquals(1, Aggregate.parallelism(0, 8));
+    assertEquals(1, Aggregate.parallelism(Aggregate.PARALLEL_PAGES_PER_THREAD * 2 - 1, 8));
+    assertEquals(2, Aggregate.parallelism(Aggregate.PARALLEL_PAGES_PER_THREAD * 2, 8));
+    assertEquals(8, Aggregate.parallelism(Aggregate.PARALLEL_PAGES_PER_THREAD * 100, 8));
+    assertEquals(1, Aggregate.parallelism(Aggregate.PARALLEL_PAGES_PER_THREAD * 100, 1));
+  }
+
   /**
    * JUnit suite target
    */
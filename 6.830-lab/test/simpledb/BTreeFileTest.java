@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends IndexTestBase<BTreeFile> {
+    protected BTreeFile newIndex(File f, HeapFile table) {
+        return new BTreeFile(f, table, 0);
+    }
+
+    /** Checks every operator the index supports against a sorted copy of the keys. */
+    private void checkRanges(List<Integer> all) throws Exception {
+        List<Integer> sorted = new ArrayList<Integer>(all);
+        Collections.sort(sorted);
+        TransactionId tid = new TransactionId();
+        assertEquals(sorted, keys(index.iterator(tid)));
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+        int[] operands = { -1, 0, 350, 699, 700 };
+        for (Predicate.Op op : ops) {
+            for (int operand : operands) {
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int k : sorted)
+                    if (new IntField(k).compare(op, new IntField(operand)))
+                        expected.add(k);
+                assertEquals(op + " " + operand, expected, keys(index.iterator(tid, op, new IntField(operand))));
+            }
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts through the buffer pool split leaves and the root, and the
+     * index returns every tuple in key order, for every operator.
+     */
+    @Test public void insertAndSearch() throws Exception {
+        List<Integer> keys = insert(5000, 700);
+        assertTrue(index.height() > 1);
+        checkRanges(keys);
+    }
+
+    /**
+     * Deletes through the buffer pool remove the tuples' entries.
+     */
+    @Test public void deleteKeepsIndexInSync() throws Exception {
+        insert(3000, 700);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<Integer> kept = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField)t.getField(0)).getValue();
+            if (key % 3 == 0)
+                bp.deleteTuple(tid, t);
+            else
+                kept.add(key);
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        checkRanges(kept);
+    }
+
+    /**
+     * An aborted insert leaves no entries behind.
+     */
+    @Test public void abortedInsert() throws Exception {
+        List<Integer> keys = insert(1000, 700);
+        TransactionId tid = new TransactionId();
+        for (int i = 0;i < 1000;i++)
+            bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i % 700, -i }));
+        bp.transactionComplete(tid, false);
+        checkRanges(keys);
+    }
+
+    /**
+     * build() bulk-loads the index of an existing table, and IndexScan
+     * reads the same tuples as a filtered SeqScan.
+     */
+    @Test public void buildAndIndexScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, tuples);
+        index = newIndex(big);
+        index.build();
+        assertEquals(2, index.height());
+        List<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            keys.add(t.get(0));
+        table = big;
+        checkRanges(keys);
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < 100)
+                expected.add(t);
+        IndexScan scan = new IndexScan(tid, big.getId(), "", p);
+        SystemTestUtil.matchTuples(scan, expected);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * physicalPlan reads a selective predicate on an indexed field through
+     * an IndexScan, and an unselective one with a SeqScan.
+     */
+    @Test public void physicalPlanUsesIndex() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, null, "t.c");
+        String name = Database.getCatalog().getTableName(big.getId());
+        newIndex(big).build();
+        HashMap<String,TableStats> stats = new HashMap<String,TableStats>();
+        stats.put(name, new TableStats(big.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        assertTrue(plan(tid, big, stats, Predicate.Op.EQUALS, "42") instanceof IndexScan);
+        DbIterator scan = plan(tid, big, stats, Predicate.Op.GREATER_THAN, "10");
+        assertTrue(scan instanceof Filter);
+        bp.transactionComplete(tid);
+    }
+
+    /** @return the access path physicalPlan picks for a filter on c0 */
+    private static DbIterator plan(TransactionId tid, HeapFile table, HashMap<String,TableStats> stats,
+            Predicate.Op op, String constant) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", op, constant);
+        lp.addProjectField("t.c1", null);
+        return ((Project)lp.physicalPlan(tid, stats, false)).child;
+    }
+
+    /**
+     * Transactions that add entries to different leaves only read-lock
+     * the pages above them, so neither waits for the other.
+     */
+    @Test public void insertsIntoDifferentLeaves() throws Exception {
+        insert(5000, 700);
+        assertTrue(index.height() > 1);
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Tuple low = Utility.getHeapTuple(new int[] { -1, 0 });
+        low.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 0));
+        Tuple high = Utility.getHeapTuple(new int[] { 1000, 0 });
+        high.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 1));
+        index.addTuple(tid1, low);
+        index.addTuple(tid2, high);
+        BTreePageId root = new BTreePageId(index.getId(), 0);
+        assertTrue(bp.holdsLock(tid1, root));
+        assertTrue(bp.holdsLock(tid2, root));
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, false);
+    }
+
+    /**
+     * The index's pages are the size of its table's.
+     */
+    @Test public void tablePageSize() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        table = new HeapFile(f, Utility.getTupleDesc(2), 8192);
+        Database.getCatalog().addTable(table, "big pages");
+        index = newIndex(table);
+        assertEquals(8192, index.getPageSize());
+        assertEquals(8192, Database.getCatalog().getPageSize(index.getId()));
+        List<Integer> keys = insert(2000, 700);
+        assertTrue(index.numPages() > 1);
+        assertEquals((long)index.numPages() * 8192, index.getFile().length());
+        checkRanges(keys);
+    }
+
+    /**
+     * The index is current once built and after each commit, and not once
+     * its table file is written behind its back.
+     */
+    @Test public void stamp() throws Exception {
+        assertFalse(index.isCurrent());
+        insert(100, 700);
+        assertTrue(index.isCurrent());
+        index.build();
+        assertTrue(index.isCurrent());
+        table.writePage(new HeapPage(new HeapPageId(table.getId(), table.numPages()),
+            HeapPage.createEmptyPageData()));
+        assertFalse(index.isCurrent());
+    }
+
+    /**
+     * The index does not evaluate LIKE or NOT_EQUALS.
+     */
+    @Test(expected=IllegalArgumentException.class) public void unsupportedOp() {
+        index.iterator(new TransactionId(), Predicate.Op.NOT_EQUALS, new IntField(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  /** A scan that counts how often it is rewound. */
+  private static class CountingScan extends SeqScan {
+    int rewinds;
+
+    CountingScan(TransactionId tid, int tableid) {
+      super(tid, tableid, "");
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /** @return the tuples of a nested-loops Join of the two tables */
+  private static ArrayList<ArrayList<Integer>> nestedLoops(TransactionId tid, JoinPredicate pred,
+      HeapFile t1, HeapFile t2) throws Exception {
+    Join join = new Join(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), ""));
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    join.open();
+    while (join.hasNext())
+      expected.add(SystemTestUtil.tupleToList(join.next()));
+    join.close();
+    return expected;
+  }
+
+  /**
+   * With one-page blocks, the join returns the tuples of Join and rescans
+   * the inner child once per block rather than once per outer tuple; the
+   * frames it reserved go back to the buffer pool on close.
+   */
+  @Test public void matchesJoin() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 2000, 20, null, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 50, 20, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 1);
+    ArrayList<ArrayList<Integer>> expected = nestedLoops(tid, pred, t1, t2);
+
+    CountingScan inner = new CountingScan(tid, t2.getId());
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, new SeqScan(tid, t1.getId(), ""), inner, 1);
+    SystemTestUtil.matchTuples(op, expected);
+    int blockTuples = op.getBlockTuples();
+    int blocks = (2000 + blockTuples - 1) / blockTuples;
+    assertTrue(blocks > 1);
+    assertEquals(blocks - 1, inner.rewinds);
+    assertEquals(0, Database.getBufferPool().getWorkPages());
+
+    op.open();
+    op.next();
+    op.rewind();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    op.close();
+    assertEquals(expected.size(), n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A block large enough for the whole outer child reads the inner child
+   * once.
+   */
+  @Test public void oneBlock() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.GREATER_THAN, 0);
+    CountingScan inner = new CountingScan(tid, t2.getId());
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, new SeqScan(tid, t1.getId(), ""), inner, 4);
+    SystemTestUtil.matchTuples(op, nestedLoops(tid, pred, t1, t2));
+    assertTrue(op.getBlockTuples() >= 300);
+    assertEquals(0, inner.rewinds);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An empty outer child joins to nothing.
+   */
+  @Test public void emptyOuter() throws Exception {
+    DbIterator empty = TestUtil.createTupleList(2, new int[] {});
+    DbIterator scan = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4 });
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), empty, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * A failed open gives back the frames it reserved, and opening again
+   * without a close does not reserve them twice.
+   */
+  @Test public void failedOpenReleasesPages() throws Exception {
+    BufferPool bp = Database.getBufferPool();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, new TestUtil.FailingScan(100, 2),
+        new TestUtil.MockScan(0, 100, 2), 3);
+    try {
+      op.open();
+      fail("opened with a failing child");
+    } catch (DbException e) {
+    }
+    assertEquals(0, bp.getWorkPages());
+
+    op = new BlockNestedLoopJoin(pred, new TestUtil.MockScan(0, 100, 2), new TestUtil.MockScan(0, 100, 2), 3);
+    op.open();
+    op.open();
+    assertEquals(3, bp.getWorkPages());
+    op.close();
+    assertEquals(0, bp.getWorkPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
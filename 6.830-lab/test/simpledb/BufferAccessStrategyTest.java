@@ -0,0 +1,61 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferAccessStrategyTest extends SimpleDbTestBase {
+
+    /**
+     * Small reads go through the shared pool, large ones get a ring.
+     */
+    @Test public void scanStrategy() {
+        BufferPool bp = Database.resetBufferPool(64);
+        assertNull(bp.scanStrategy(64));
+        assertEquals(8, bp.scanStrategy(65).getRingSize());
+        bp = Database.resetBufferPool(1000);
+        assertEquals(BufferPool.SCAN_RING_PAGES, bp.scanStrategy(10000).getRingSize());
+    }
+
+    /**
+     * A scan of a table twice the size of the pool must leave the pages
+     * of another table resident.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, null);
+        BufferPool bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        for (int i = 0;i < hot.numPages();i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 100, count);
+
+        bp.resetStats();
+        for (int i = 0;i < hot.numPages();i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(hot.numPages(), bp.getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
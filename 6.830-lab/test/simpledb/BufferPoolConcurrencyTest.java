@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Multi-threaded stress test of BufferPool page lookup.
+ */
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    /** Repeatedly reads random pages of a table and checks each one. */
+    private static class Reader extends Thread {
+        private final BufferPool bp;
+        private final int tableId, numPages, gets;
+        final AtomicInteger errors;
+
+        Reader(BufferPool bp, int tableId, int numPages, int gets, AtomicInteger errors) {
+            this.bp = bp;
+            this.tableId = tableId;
+            this.numPages = numPages;
+            this.gets = gets;
+            this.errors = errors;
+        }
+
+        public void run() {
+            Random r = new Random(getId());
+            try {
+                for (int i = 0;i < gets;i++) {
+                    HeapPageId pid = new HeapPageId(tableId, r.nextInt(numPages));
+                    Page pg = bp.getPage(null, pid, Permissions.READ_ONLY);
+                    if (!pid.equals(pg.getId()))
+                        errors.incrementAndGet();
+                }
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Runs the readers to completion.
+     * @return the number of getPage calls per second
+     */
+    private static double run(List<Reader> readers) throws InterruptedException {
+        long start = System.nanoTime();
+        for (Reader r: readers)
+            r.start();
+        for (Reader r: readers)
+            r.join();
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        int gets = 0;
+        for (Reader r: readers)
+            gets += r.gets;
+        return gets * 1e9 / elapsed;
+    }
+
+    /**
+     * Many threads missing on a table larger than the pool must always get
+     * back the page they asked for, and every call must be counted once.
+     */
+    @Test public void concurrentMissesAndEvictions() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+        BufferPool bp = Database.resetBufferPool(64);
+        AtomicInteger errors = new AtomicInteger(0);
+        List<Reader> readers = new ArrayList<Reader>();
+        for (int i = 0;i < 8;i++)
+            readers.add(new Reader(bp, f.getId(), f.numPages(), 2000, errors));
+        run(readers);
+        assertEquals(0, errors.get());
+        assertEquals(8 * 2000, bp.getHits() + bp.getMisses());
+    }
+
+    /**
+     * Hits on a resident table should scale with the number of cores.
+     * The scaling check needs at least four cores; on smaller machines the
+     * test is skipped once the hits have been checked.
+     */
+    @Test public void hitThroughputScales() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 32, null, null);
+        BufferPool bp = Database.resetBufferPool(64);
+        AtomicInteger errors = new AtomicInteger(0);
+        final int gets = 200000;
+        // warm up the pool and the JIT
+        run(Collections.singletonList(new Reader(bp, f.getId(), f.numPages(), gets, errors)));
+
+        double single = run(Collections.singletonList(new Reader(bp, f.getId(), f.numPages(), gets, errors)));
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(2, Math.min(cores, 8));
+        List<Reader> readers = new ArrayList<Reader>();
+        for (int i = 0;i < threads;i++)
+            readers.add(new Reader(bp, f.getId(), f.numPages(), gets, errors));
+        double multi = run(readers);
+        System.out.println("BufferPoolConcurrencyTest: " + (long)single + " gets/s on 1 thread, " +
+            (long)multi + " gets/s on " + threads + " threads (" + cores + " cores)");
+
+        assertEquals(0, errors.get());
+        assertEquals(f.numPages(), bp.getMisses());
+        assumeTrue(cores >= 4);
+        assertTrue("throughput did not scale", multi > 1.5 * single);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
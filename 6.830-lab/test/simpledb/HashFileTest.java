@@ -0,0 +1,226 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends IndexTestBase<HashFile> {
+    protected HashFile newIndex(File f, HeapFile table) {
+        return new HashFile(f, table, 0);
+    }
+
+    /** @return the sorted keys of the tuples read by the iterator */
+    private static List<Integer> sortedKeys(DbFileIterator it) throws Exception {
+        List<Integer> keys = keys(it);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /** Checks a full scan and an EQUALS probe of every key, and one absent key. */
+    private void checkKeys(List<Integer> all, int distinct) throws Exception {
+        List<Integer> sorted = new ArrayList<Integer>(all);
+        Collections.sort(sorted);
+        TransactionId tid = new TransactionId();
+        assertEquals(sorted, sortedKeys(index.iterator(tid)));
+        int[] counts = new int[distinct + 1];
+        for (int k : all)
+            counts[k]++;
+        for (int k = 0;k <= distinct;k++)
+            assertEquals("key " + k, Collections.nCopies(counts[k], k),
+                sortedKeys(index.iterator(tid, Predicate.Op.EQUALS, new IntField(k))));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts through the buffer pool split buckets and grow the directory,
+     * and every key is found.
+     */
+    @Test public void insertAndProbe() throws Exception {
+        List<Integer> keys = insert(5000, 2500);
+        assertTrue(index.depth() > 2);
+        checkKeys(keys, 2500);
+    }
+
+    /**
+     * Many duplicates of a few keys go to overflow pages instead of
+     * splitting the directory to its limit.
+     */
+    @Test public void duplicatesOverflow() throws Exception {
+        List<Integer> keys = insert(3000, 3);
+        assertTrue(index.depth() < index.maxDepth());
+        checkKeys(keys, 3);
+    }
+
+    /**
+     * Deletes through the buffer pool remove the tuples' entries, and an
+     * aborted insert leaves none behind.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        insert(3000, 1000);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<Integer> kept = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField)t.getField(0)).getValue();
+            if (key % 3 == 0)
+                bp.deleteTuple(tid, t);
+            else
+                kept.add(key);
+        }
+        it.close();
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 0;i < 1000;i++)
+            bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+        bp.transactionComplete(tid, false);
+        checkKeys(kept, 1000);
+    }
+
+    /**
+     * build() bulk-loads the index of an existing table.
+     */
+    @Test public void build() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, tuples);
+        index = newIndex(table);
+        index.build();
+        List<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            keys.add(t.get(0));
+        checkKeys(keys, 5000);
+    }
+
+    /** @return the page number of the bucket the specified key hashes to */
+    private int bucket(int key) throws Exception {
+        HashPage dir = (HashPage)index.readPage(new HashPageId(index.getId(), 0));
+        return dir.dir[HashFile.hash(new IntField(key)) & ((1 << dir.depth) - 1)];
+    }
+
+    /**
+     * Two transactions add entries to different buckets at once: the
+     * directory is only read-locked by each.
+     */
+    @Test public void insertsIntoDifferentBuckets() throws Exception {
+        insert(1000, 1000);
+        int low = -1, high = -2;
+        while (bucket(high) == bucket(low))
+            high--;
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Tuple t1 = Utility.getHeapTuple(new int[] { low, 0 });
+        t1.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 0));
+        Tuple t2 = Utility.getHeapTuple(new int[] { high, 0 });
+        t2.setRecordId(new RecordId(new HeapPageId(table.getId(), 0), 1));
+        index.addTuple(tid1, t1);
+        index.addTuple(tid2, t2);
+        HashPageId dir = new HashPageId(index.getId(), 0);
+        assertTrue(bp.holdsLock(tid1, dir));
+        assertTrue(bp.holdsLock(tid2, dir));
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, false);
+    }
+
+    /**
+     * A catalog entry with the "hash" option indexes its primary key with
+     * a HashFile, which is rebuilt only once the table file changes.
+     */
+    @Test public void cataloged() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dir.deleteOnExit();
+        File text = new File(dir, "t.txt");
+        PrintWriter pw = new PrintWriter(new FileWriter(text));
+        for (int i = 0;i < 1000;i++)
+            pw.println(i + "," + -i);
+        pw.close();
+        HeapFileEncoder.convert(text, new File(dir, "t.dat"), BufferPool.PAGE_SIZE, 2);
+
+        File schema = new File(dir, "catalog.txt");
+        pw = new PrintWriter(new FileWriter(schema));
+        String name = new File(dir, "t").getPath();
+        pw.println(name + " (id int pk, v int) hash");
+        pw.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId(name);
+        assertTrue(Database.getCatalog().getIndex(tableId, 0) instanceof HashFile);
+        index = (HashFile)Database.getCatalog().getIndex(tableId, 0);
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0;i < 1000;i++)
+            keys.add(i);
+        checkKeys(keys, 999);
+
+        File hash = new File(name + ".id.hash");
+        assertTrue(hash.setLastModified(1000000000000L));
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertEquals(1000000000000L, hash.lastModified());
+        assertTrue(new File(dir, "t.dat").setLastModified(1000000000000L));
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertTrue(hash.lastModified() != 1000000000000L);
+
+        Database.getCatalog().clear();
+        for (File child : dir.listFiles())
+            child.delete();
+    }
+
+    /**
+     * An IndexJoin returns the same tuples as a Join of the same children,
+     * and instantiateJoin picks it for an equi-join with an indexed table.
+     */
+    @Test public void indexJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 300, 1000, null, outer, "s.c");
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null, "t.c");
+        index = newIndex(big);
+        index.build();
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Join join = new Join(p, new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, big.getId(), "t"));
+        IndexJoin ij = new IndexJoin(p, new SeqScan(tid, small.getId(), "s"), tid, index);
+        assertEquals(join.getTupleDesc(), ij.getTupleDesc());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        join.open();
+        while (join.hasNext())
+            expected.add(SystemTestUtil.tupleToList(join.next()));
+        join.close();
+        assertTrue(expected.size() > 0);
+        SystemTestUtil.matchTuples(ij, expected);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(big.getId(), "t");
+        LogicalJoinNode lj = new LogicalJoinNode("s", "t", "s.c0", "t.c0", Predicate.Op.EQUALS);
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        HashMap<String,TableStats> stats = new HashMap<String,TableStats>();
+        assertTrue(jo.instantiateJoin(lj, new SeqScan(tid, small.getId(), "s"),
+            new SeqScan(tid, big.getId(), "t"), stats) instanceof IndexJoin);
+        lj = new LogicalJoinNode("s", "t", "s.c0", "t.c0", Predicate.Op.LESS_THAN);
+        assertTrue(jo.instantiateJoin(lj, new SeqScan(tid, small.getId(), "s"),
+            new SeqScan(tid, big.getId(), "t"), stats) instanceof SortMergeJoin);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The index evaluates EQUALS only.
+     */
+    @Test(expected=IllegalArgumentException.class) public void unsupportedOp() {
+        index.iterator(new TransactionId(), Predicate.Op.LESS_THAN, new IntField(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), building on either side
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+
+    // with the fields swapped, child1 is the larger side
+    pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    op = new HashJoin(pred, scan2, scan1);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (int i = 1;i <= 5;i += 2)
+      expected.add(new ArrayList<Integer>(Arrays.asList(i, i + 1, i + 2, i, i + 1)));
+    SystemTestUtil.matchTuples(op, expected);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * HashJoin returns the same tuples as Join on tables with many
+   * duplicate keys.
+   */
+  @Test public void matchesJoin() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 2000, 300, null, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 500, 300, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+    Join join = new Join(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), ""));
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    join.open();
+    while (join.hasNext())
+      expected.add(SystemTestUtil.tupleToList(join.next()));
+    join.close();
+    assertTrue(expected.size() > 0);
+    SystemTestUtil.matchTuples(new HashJoin(pred, new SeqScan(tid, t1.getId(), ""),
+        new SeqScan(tid, t2.getId(), "")), expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return the tuples of a nested-loops Join of the two tables on the specified fields */
+  private static ArrayList<ArrayList<Integer>> nestedLoops(TransactionId tid, JoinPredicate pred,
+      HeapFile t1, HeapFile t2) throws Exception {
+    Join join = new Join(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), ""));
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    join.open();
+    while (join.hasNext())
+      expected.add(SystemTestUtil.tupleToList(join.next()));
+    join.close();
+    return expected;
+  }
+
+  /**
+   * With a budget of a few pages, the join spills partitions of both
+   * sides and still returns the tuples of Join, before and after a
+   * rewind; the frames it reserved go back to the buffer pool on close.
+   */
+  @Test public void spillingMatchesJoin() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 3000, 2000, null, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 2000, 2000, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    ArrayList<ArrayList<Integer>> expected = nestedLoops(tid, pred, t1, t2);
+    assertTrue(expected.size() > 0);
+
+    BufferPool bp = Database.getBufferPool();
+    HashJoin op = new HashJoin(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), ""), 3);
+    op.open();
+    assertTrue(op.isSpilling());
+    assertEquals(3, bp.getWorkPages());
+    op.close();
+    assertEquals(0, bp.getWorkPages());
+    SystemTestUtil.matchTuples(op, expected);
+    op.open();
+    op.next();
+    op.rewind();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    op.close();
+    assertEquals(expected.size(), n);
+    assertEquals(0, bp.getWorkPages());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Duplicates of one key cannot be split into partitions; after a few
+   * levels of partitioning they are joined in memory anyway.
+   */
+  @Test public void spillingOneKey() throws Exception {
+    HashMap<Integer, Integer> one = new HashMap<Integer, Integer>();
+    one.put(0, 7);
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 2000, one, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 30, one, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), ""), 3);
+    SystemTestUtil.matchTuples(op, nestedLoops(tid, pred, t1, t2));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A SpillFile returns the tuples added to it, in order, over several
+   * pages.
+   */
+  @Test public void spillFile() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(3);
+    SpillFile f = new SpillFile(td);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0;i < 1000;i++) {
+      f.add(Utility.getHeapTuple(new int[] { i, -i, i * 2 }));
+      expected.add(new ArrayList<Integer>(Arrays.asList(i, -i, i * 2)));
+    }
+    DbIterator it = f.iterator();
+    assertTrue(f.numPages() > 2);
+    ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext())
+      actual.add(SystemTestUtil.tupleToList(it.next()));
+    it.close();
+    assertEquals(expected, actual);
+    f.delete();
+  }
+
+  /**
+   * A hash join only evaluates EQUALS.
+   */
+  @Test(expected=IllegalArgumentException.class) public void rejectsRangePredicate() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * A failed open gives back the frames it reserved, and opening again
+   * without a close does not reserve them twice.
+   */
+  @Test public void failedOpenReleasesPages() throws Exception {
+    BufferPool bp = Database.getBufferPool();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, new TestUtil.FailingScan(100, 2), new TestUtil.MockScan(0, 100, 2), 3);
+    try {
+      op.open();
+      fail("opened with a failing child");
+    } catch (DbException e) {
+    }
+    assertEquals(0, bp.getWorkPages());
+
+    op = new HashJoin(pred, new TestUtil.MockScan(0, 100, 2), new TestUtil.MockScan(0, 100, 2), 3);
+    op.open();
+    op.open();
+    assertEquals(3, bp.getWorkPages());
+    op.close();
+    assertEquals(0, bp.getWorkPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
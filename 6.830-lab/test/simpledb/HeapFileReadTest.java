@@ -77,6 +77,52 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.getSlot(20));
     }
 
+    /**
+     * The file stays readable after it is closed, and after a reader was
+     * interrupted in the middle of a read, which fails.
+     */
+    @Test
+    public void readPageAfterCloseAndInterrupt() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+        assertEquals(484, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+
+        Thread.currentThread().interrupt();
+        try {
+            hf.readPage(pid);
+            fail("an interrupted read returned");
+        } catch (RuntimeException e) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(484, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Pages read through the memory mapping match plain reads, and writing
+     * a page falls back to plain reads.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        byte[][] expected = new byte[big.numPages()][];
+        for (int i = 0;i < big.numPages();i++)
+            expected[i] = big.readPage(new HeapPageId(big.getId(), i)).getPageData();
+
+        big.setMemoryMapped(true);
+        for (int i = 0;i < big.numPages();i++) {
+            Page p = big.readPage(new HeapPageId(big.getId(), i));
+            assertTrue(Arrays.equals(expected[i], p.getPageData()));
+        }
+
+        HeapPage empty = new HeapPage(new HeapPageId(big.getId(), 0), HeapPage.createEmptyPageData());
+        big.writePage(empty);
+        assertFalse(big.isMemoryMapped());
+        assertEquals(empty.getNumEmptySlots(),
+            ((HeapPage) big.readPage(new HeapPageId(big.getId(), 0))).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -6,6 +6,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -43,6 +46,101 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserting into a table whose pages are all full builds the free-space
+     * map by reading each page once, directly from disk, and then reads only
+     * the new page through the buffer pool.  The map is saved when the
+     * transaction commits.
+     */
+    @Test public void addTupleUsesFreeSpaceMap() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.insertTuple(tid, full.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(11, full.numPages());
+        bp.insertTuple(tid, full.getId(), Utility.getHeapTuple(2, 2));
+        assertEquals(11, full.numPages());
+        assertEquals(1, bp.getMisses());
+        bp.transactionComplete(tid);
+        File fsm = new File(full.getFile().getPath() + FreeSpaceMap.SUFFIX);
+        assertTrue(fsm.exists());
+        fsm.delete();
+    }
+
+    /** A HeapFile that counts the pages read from it. */
+    private static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * The saved map is used by the next HeapFile on the same file, as in a
+     * new process, so its first insert reads none of the full pages.
+     */
+    @Test public void freeSpaceMapIsReloaded() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        Database.getBufferPool().insertTuple(tid, full.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CountingHeapFile reopened = new CountingHeapFile(full.getFile(), full.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(10, reopened.freeSpaceMap().nextFreePage(0));
+        reopened.addTuple(tid, Utility.getHeapTuple(2, 2));
+        assertEquals(1, reopened.reads);
+        assertTrue(new File(full.getFile().getPath() + FreeSpaceMap.SUFFIX).delete());
+    }
+
+    /**
+     * A map saved for another version of the heap file, even one with as
+     * many pages, is not trusted.
+     */
+    @Test public void staleFreeSpaceMapIsRebuilt() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        Database.getBufferPool().insertTuple(tid, full.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        File fsm = new File(full.getFile().getPath() + FreeSpaceMap.SUFFIX);
+        assertTrue(fsm.exists());
+
+        full.close();
+
+        // as if the table had been regenerated with the same number of pages
+        assertTrue(full.getFile().setLastModified(full.getFile().lastModified() - 10000));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CountingHeapFile reopened = new CountingHeapFile(full.getFile(), full.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(-1, reopened.freeSpaceMap().nextFreePage(0));
+        reopened.freeSpaceMap().rebuild(reopened);
+        assertEquals(11, reopened.reads);
+        assertEquals(10, reopened.freeSpaceMap().nextFreePage(0));
+        assertTrue(fsm.delete());
+    }
+
+    /**
+     * A bulk load that appends pages saves the map once, when it commits,
+     * not once per appended page.
+     */
+    @Test public void freeSpaceMapSavedAtCommit() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        File fsm = new File(full.getFile().getPath() + FreeSpaceMap.SUFFIX);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId load = new TransactionId();
+        for (int i = 0;i < 504 * 5;i++)
+            bp.insertTuple(load, full.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(15, full.numPages());
+        assertFalse(fsm.exists());
+        bp.transactionComplete(load);
+        assertTrue(fsm.exists());
+        assertTrue(fsm.delete());
+    }
+
     /**
      * JUnit suite target
      */
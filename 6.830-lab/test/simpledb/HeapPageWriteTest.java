@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,50 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Modifying a page never writes to the data it was created from, and
+     * tuples read before a modification keep their values.
+     */
+    @Test public void modifyLeavesSourceIntact() throws Exception {
+        byte[] source = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, source);
+        Tuple first = page.iterator().next();
+        int v0 = ((IntField) first.getField(0)).getValue();
+
+        page.deleteTuple(first);
+        page.addTuple(Utility.getHeapTuple(-1, 2));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, source));
+        assertEquals(v0, ((IntField) first.getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+
+        // the modified page round-trips through getPageData
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple added = copy.iterator().next();
+        assertEquals(-1, ((IntField) added.getField(0)).getValue());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    }
+
+    /**
+     * The before image is the page as of construction or the last
+     * setBeforeImage, however often the page is modified in between.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        page.addTuple(Utility.getHeapTuple(1, 2));
+        page.addTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.addTuple(Utility.getHeapTuple(3, 2));
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        assertEquals(free - 3, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Fixture of the tests of an IndexFile: an empty table of two int
+ * columns, and an empty index of the subclass's kind on its first column.
+ */
+public abstract class IndexTestBase<I extends IndexFile> extends SimpleDbTestBase {
+    protected HeapFile table;
+    protected I index;
+    protected BufferPool bp;
+
+    /**
+     * @return an empty index on the first field of the specified table,
+     *   stored in the specified file
+     */
+    protected abstract I newIndex(File f, HeapFile table) throws Exception;
+
+    @Before public void setUp() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        table = Utility.openHeapFile(2, f);
+        index = newIndex(table);
+        bp = Database.resetBufferPool(500);
+    }
+
+    /**
+     * Creates an empty index on the first field of the specified table in
+     * a temporary file, deleted with its stamp on exit.
+     */
+    protected I newIndex(HeapFile table) throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        new File(f.getPath() + IndexStamp.SUFFIX).deleteOnExit();
+        I index = newIndex(f, table);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /** Inserts rows with keys i % distinct, in a shuffled order, and commits. */
+    protected List<Integer> insert(int rows, int distinct) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0;i < rows;i++)
+            keys.add(i % distinct);
+        Collections.shuffle(keys, new Random(0));
+        TransactionId tid = new TransactionId();
+        for (int i = 0;i < rows;i++)
+            bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { keys.get(i), i }));
+        bp.transactionComplete(tid);
+        return keys;
+    }
+
+    /** @return the keys of the tuples read by the iterator, in the order read */
+    protected static List<Integer> keys(DbFileIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField)it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+}
@@ -2,7 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
-import java.util.NoSuchElementException;
+import java.util.*;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -178,6 +178,93 @@ public class IntAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /** @return the (group, aggregate) pairs of the aggregator's iterator */
+  private static HashMap<Integer, Integer> results(IntAggregator agg) throws Exception {
+    HashMap<Integer, Integer> actual = new HashMap<Integer, Integer>();
+    DbIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      actual.put(((IntField)t.getField(0)).getValue(), ((IntField)t.getField(1)).getValue());
+    }
+    it.close();
+    return actual;
+  }
+
+  /**
+   * Sums and averages are accumulated without overflow: only a result
+   * outside the range of an int is cut to 32 bits.
+   */
+  @Test public void noOverflow() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    2, Integer.MIN_VALUE,
+                    2, Integer.MIN_VALUE });
+    IntAggregator avg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntAggregator sum = new IntAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM);
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      avg.merge(t);
+      sum.merge(t);
+    }
+    HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    expected.put(1, Integer.MAX_VALUE);
+    expected.put(2, Integer.MIN_VALUE);
+    assertEquals(expected, results(avg));
+
+    DbIterator it = sum.iterator();
+    it.open();
+    assertEquals(Integer.MAX_VALUE - 2, ((IntField)it.next().getField(0)).getValue());
+    assertEquals(false, it.hasNext());
+  }
+
+  /**
+   * Many groups, including negative and zero values, grow the hash table
+   * and each gets its own aggregate.
+   */
+  @Test public void manyGroups() throws Exception {
+    Random r = new Random(0);
+    HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+    for (int i = 0;i < 50000;i++) {
+      int g = r.nextInt(20000) - 10000, v = r.nextInt();
+      agg.merge(Utility.getHeapTuple(new int[] { g, v }));
+      Integer max = expected.get(g);
+      expected.put(g, max == null ? v : Math.max(max, v));
+    }
+    assertEquals(expected, results(agg));
+  }
+
+  /**
+   * Groups on a string field are counted and summed separately.
+   */
+  @Test public void stringGroups() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    IntAggregator agg = new IntAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    String[] names = { "a", "b", "a", "c", "a" };
+    for (int i = 0;i < names.length;i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(names[i], Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      agg.merge(t);
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    int total = 0, groups = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((StringField)t.getField(0)).getValue().equals("a"))
+        assertEquals(3, ((IntField)t.getField(1)).getValue());
+      total += ((IntField)t.getField(1)).getValue();
+      groups++;
+    }
+    assertEquals(3, groups);
+    assertEquals(names.length, total);
+  }
+
   /**
    * JUnit suite target
    */
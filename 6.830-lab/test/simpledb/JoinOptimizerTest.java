@@ -461,4 +461,61 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		// Make sure that "bigTable" is the innermost table in the join
 		Assert.assertEquals(result.get(result.size()-1).t1, "a");		
 	}
+
+	/**
+	 * estimateJoinCost prices the operator instantiateJoin picks.  An
+	 * IndexJoin probes a primary key, whose probes each fetch one tuple,
+	 * but not a field whose probes each fetch many.
+	 */
+	@Test public void indexJoinCost() throws Exception {
+		HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 2, 1000, null, null, "s.c");
+		HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null, "t.c");
+		Database.getCatalog().addTable(outer, "S");
+		Database.getCatalog().addTable(inner, "T");
+		File f = File.createTempFile("join", ".idx");
+		f.deleteOnExit();
+		HashFile index = new HashFile(f, inner, 0);
+		Database.getCatalog().addIndex(index);
+		index.build();
+
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put("s", new TableStats(outer.getId(), 1000));
+		stats.put("t", new TableStats(inner.getId(), 1000));
+		double cost1 = stats.get("s").estimateScanCost(), cost2 = stats.get("t").estimateScanCost();
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(outer.getId(), "s");
+		lp.addScan(inner.getId(), "t");
+		LogicalJoinNode lj = new LogicalJoinNode("s", "t", "s.c0", "t.c0", Predicate.Op.EQUALS);
+		JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+		TransactionId tid = new TransactionId();
+
+		// each probe would fetch thousands of tuples, one page each
+		double hash = JoinOptimizer.hashJoinCost(2, 5000, cost1, cost2);
+		Assert.assertTrue(jo.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "s"),
+				new SeqScan(tid, inner.getId(), "t"), stats) instanceof HashJoin);
+		Assert.assertEquals(hash, jo.estimateJoinCost(lj, 2, 5000, cost1, cost2), 0.001);
+
+		Database.getCatalog().addTable(inner, "T", "t.c0");
+		Assert.assertTrue(jo.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "s"),
+				new SeqScan(tid, inner.getId(), "t"), stats) instanceof IndexJoin);
+		double cost = jo.estimateJoinCost(lj, 2, 5000, cost1, cost2);
+		Assert.assertEquals(JoinOptimizer.indexJoinCost(index, 2, 5000, cost1, cost2), cost, 0.001);
+		Assert.assertTrue(cost < hash);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A HashJoin whose smaller side fits in its memory costs one pass over
+	 * each side; one whose smaller side does not is charged for writing
+	 * and reading back the part of both sides that spills.
+	 */
+	@Test public void hashJoinSpillCost() {
+		int budget = Database.getBufferPool().defaultWorkPages();
+		double small = budget * (double)TableStats.IOCOSTPERPAGE;
+		Assert.assertEquals(small + 2 * small + 10 + 20,
+				JoinOptimizer.hashJoinCost(10, 20, small, 2 * small), 0.001);
+		double big = 4 * small;
+		double expected = big + 2 * big + 10 + 20 + 2 * (3 * big) * 0.75;
+		Assert.assertEquals(expected, JoinOptimizer.hashJoinCost(10, 20, big, 2 * big), 0.001);
+	}
 }
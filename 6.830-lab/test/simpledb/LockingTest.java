@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -185,6 +187,23 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * A lock wait that times out aborts the transaction without
+   * interrupting its thread, so its later reads from disk still work.
+   */
+  @Test public void timeoutDoesNotInterrupt() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    try {
+      bp.getPage(tid2, p0, Permissions.READ_ONLY);
+      fail("acquired a lock held by another transaction");
+    } catch (TransactionAbortedException e) {
+    }
+    assertFalse(Thread.currentThread().isInterrupted());
+    Thread.sleep(1200);
+    assertFalse(Thread.currentThread().isInterrupted());
+    bp.getPage(tid2, p2, Permissions.READ_ONLY);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+  private static final Aggregator.Op[] OPS = { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+      Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX };
+
+  /**
+   * @return for each (c0, c1) group of the tuples, the group followed by
+   *   the COUNT, SUM, AVG, MIN and MAX of c2
+   */
+  private static HashSet<ArrayList<Integer>> expected(ArrayList<ArrayList<Integer>> tuples) {
+    HashMap<List<Integer>, ArrayList<Integer>> groups = new HashMap<List<Integer>, ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      List<Integer> key = t.subList(0, 2);
+      ArrayList<Integer> values = groups.get(key);
+      if (values == null) {
+        values = new ArrayList<Integer>();
+        groups.put(key, values);
+      }
+      values.add(t.get(2));
+    }
+    HashSet<ArrayList<Integer>> expected = new HashSet<ArrayList<Integer>>();
+    for (Map.Entry<List<Integer>, ArrayList<Integer>> e : groups.entrySet()) {
+      ArrayList<Integer> row = new ArrayList<Integer>(e.getKey());
+      int sum = 0;
+      for (int v : e.getValue())
+        sum += v;
+      row.add(e.getValue().size());
+      row.add(sum);
+      row.add(sum / e.getValue().size());
+      row.add(Collections.min(e.getValue()));
+      row.add(Collections.max(e.getValue()));
+      expected.add(row);
+    }
+    return expected;
+  }
+
+  private static HashSet<ArrayList<Integer>> readAll(DbIterator it) throws Exception {
+    HashSet<ArrayList<Integer>> actual = new HashSet<ArrayList<Integer>>();
+    while (it.hasNext())
+      assertTrue(actual.add(SystemTestUtil.tupleToList(it.next())));
+    return actual;
+  }
+
+  /**
+   * Every aggregate of every (c0, c1) group is computed in one pass, before
+   * and after a rewind.
+   */
+  @Test public void compositeGroups() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 20, null, tuples, "c");
+    TransactionId tid = new TransactionId();
+    MultiAggregate op = new MultiAggregate(new SeqScan(tid, table.getId(), ""),
+        new int[] { 0, 1 }, new int[] { 2, 2, 2, 2, 2 }, OPS);
+    assertEquals("c0", op.getTupleDesc().getFieldName(0));
+    assertEquals("avg(c2)", op.getTupleDesc().getFieldName(4));
+
+    HashSet<ArrayList<Integer>> expected = expected(tuples);
+    op.open();
+    assertEquals(expected, readAll(op));
+    op.rewind();
+    assertEquals(expected, readAll(op));
+    op.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * With a budget of a few pages, the groups that do not fit are spilled
+   * to partitions and aggregated from them, before and after a rewind;
+   * the frames the aggregate reserved go back to the buffer pool on close.
+   */
+  @Test public void spilling() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 20000, 3000, null, tuples, "c");
+    TransactionId tid = new TransactionId();
+    BufferPool bp = Database.getBufferPool();
+    MultiAggregate op = new MultiAggregate(new SeqScan(tid, table.getId(), ""),
+        new int[] { 0, 1 }, new int[] { 2, 2, 2, 2, 2 }, OPS, 3);
+
+    HashSet<ArrayList<Integer>> expected = expected(tuples);
+    op.open();
+    assertTrue(op.isSpilling());
+    assertEquals(3, bp.getWorkPages());
+    assertEquals(expected, readAll(op));
+    op.rewind();
+    assertEquals(expected, readAll(op));
+    op.close();
+    assertEquals(0, bp.getWorkPages());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Over a child ordered on the group-by fields, whatever their order,
+   * each group is returned as soon as it ends, before and after a rewind.
+   */
+  @Test public void streaming() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 20, null, tuples, "c");
+    TransactionId tid = new TransactionId();
+    OrderBy sorted = new OrderBy(new int[] { 1, 0 }, new boolean[] { true, false },
+        new SeqScan(tid, table.getId(), ""));
+    MultiAggregate op = new MultiAggregate(sorted,
+        new int[] { 0, 1 }, new int[] { 2, 2, 2, 2, 2 }, OPS);
+    assertTrue(op.isStreaming());
+
+    HashSet<ArrayList<Integer>> expected = expected(tuples);
+    op.open();
+    assertEquals(expected, readAll(op));
+    op.rewind();
+    assertEquals(expected, readAll(op));
+    op.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Without grouping there is one result, of all the aggregates.
+   */
+  @Test public void noGrouping() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 9 });
+    MultiAggregate op = new MultiAggregate(scan, new int[0], new int[] { 0, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.COUNT });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3, new int[] { 9, 2, 3 }), op);
+    op.close();
+  }
+
+  /**
+   * The parser accepts several aggregates and GROUP BY fields, and the
+   * planner computes them with one MultiAggregate.
+   */
+  @Test public void query() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, 10, null, tuples, "s.c");
+    Database.getCatalog().addTable(table, "sales");
+    HashMap<String,TableStats> stats = new HashMap<String,TableStats>();
+    stats.put("sales", new TableStats(table.getId(), 1000));
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = Parser.generateLogicalPlan(tid,
+        "SELECT s.c0, s.c1, COUNT(s.c2), SUM(s.c2), AVG(s.c2), MIN(s.c2), MAX(s.c2) FROM sales s GROUP BY s.c0, s.c1;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    plan.open();
+    assertEquals(expected(tuples), readAll(plan));
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Only COUNT applies to a string field.
+   */
+  @Test(expected=IllegalArgumentException.class) public void sumOfString() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    new MultiAggregate(new TupleIterator(td, new ArrayList<Tuple>()), new int[] { 0 }, new int[] { 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM });
+  }
+
+  /**
+   * A failed open gives back the frames it reserved, and opening again
+   * without a close does not reserve them twice.
+   */
+  @Test public void failedOpenReleasesPages() throws Exception {
+    BufferPool bp = Database.getBufferPool();
+    int[] gfields = { 0 }, afields = { 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM };
+    MultiAggregate op = new MultiAggregate(new TestUtil.FailingScan(5000, 2), gfields, afields, ops, 3);
+    try {
+      op.open();
+      fail("opened with a failing child");
+    } catch (DbException e) {
+    }
+    assertEquals(0, bp.getWorkPages());
+
+    op = new MultiAggregate(new TestUtil.MockScan(0, 100, 2), gfields, afields, ops, 3);
+    op.open();
+    op.open();
+    assertEquals(3, bp.getWorkPages());
+    op.close();
+    assertEquals(0, bp.getWorkPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregateTest.class);
+  }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+  private static final int ROWS = 5000;
+
+  private HeapFile table;
+  private ArrayList<ArrayList<Integer>> tuples;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    table = SystemTestUtil.createRandomHeapFile(2, ROWS, 200, null, tuples);
+    tid = new TransactionId();
+  }
+
+  /** @return the table's tuples stably sorted on the specified field */
+  private ArrayList<ArrayList<Integer>> sorted(final int field, final boolean asc) {
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+    Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+      public int compare(ArrayList<Integer> t1, ArrayList<Integer> t2) {
+        int c = t1.get(field).compareTo(t2.get(field));
+        return asc ? c : -c;
+      }
+    });
+    return expected;
+  }
+
+  private static ArrayList<ArrayList<Integer>> readAll(DbIterator it) throws Exception {
+    ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+    while (it.hasNext())
+      actual.add(SystemTestUtil.tupleToList(it.next()));
+    return actual;
+  }
+
+  /**
+   * Sorted in memory, the tuples come in stable order, before and after a
+   * rewind and a reopen.
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(1, false, new SeqScan(tid, table.getId(), ""));
+    ArrayList<ArrayList<Integer>> expected = sorted(1, false);
+    op.open();
+    assertEquals(0, op.numRuns());
+    assertEquals(expected, readAll(op));
+    op.rewind();
+    assertEquals(expected, readAll(op));
+    op.close();
+    op.open();
+    assertEquals(expected, readAll(op));
+    op.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * With a budget of a few pages, the sort writes runs and merges them in
+   * several passes, and still returns the tuples in stable order; the
+   * frames it reserved go back to the buffer pool on close.
+   */
+  @Test public void external() throws Exception {
+    OrderBy op = new OrderBy(0, true, new SeqScan(tid, table.getId(), ""), -1, 3);
+    ArrayList<ArrayList<Integer>> expected = sorted(0, true);
+    op.open();
+    assertTrue(op.numRuns() > 0);
+    assertTrue(op.numRuns() <= 2);
+    assertEquals(3, Database.getBufferPool().getWorkPages());
+    assertEquals(expected, readAll(op));
+    op.rewind();
+    op.next();
+    op.rewind();
+    assertEquals(expected, readAll(op));
+    op.close();
+    assertEquals(0, Database.getBufferPool().getWorkPages());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A limit that fits in memory keeps the first tuples in a heap, in
+   * stable order; one that does not stops the external merge early.
+   */
+  @Test public void limit() throws Exception {
+    ArrayList<ArrayList<Integer>> expected = sorted(0, true);
+
+    OrderBy op = new OrderBy(0, true, new SeqScan(tid, table.getId(), ""), 10, 3);
+    op.open();
+    assertEquals(0, op.numRuns());
+    ArrayList<ArrayList<Integer>> actual = readAll(op);
+    // ties keep the order the tuples came in
+    assertEquals(expected.subList(0, 10), actual);
+    op.close();
+
+    op = new OrderBy(0, true, new SeqScan(tid, table.getId(), ""), 300, 3);
+    op.open();
+    assertEquals(0, op.numRuns());
+    assertEquals(expected.subList(0, 300), readAll(op));
+    op.close();
+
+    op = new OrderBy(0, true, new SeqScan(tid, table.getId(), ""), 3000, 3);
+    op.open();
+    assertTrue(op.numRuns() > 0);
+    assertEquals(expected.subList(0, 3000), readAll(op));
+    op.close();
+
+    op = new OrderBy(0, true, new SeqScan(tid, table.getId(), ""), 0);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Sorting on the first field ascending and the second descending
+   * returns the tuples in that order, in memory and from runs on disk.
+   */
+  @Test public void multipleFields() throws Exception {
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+    Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+      public int compare(ArrayList<Integer> t1, ArrayList<Integer> t2) {
+        int c = t1.get(0).compareTo(t2.get(0));
+        return c != 0 ? c : t2.get(1).compareTo(t1.get(1));
+      }
+    });
+    int[] fields = { 0, 1 };
+    boolean[] asc = { true, false };
+    for (int pages : new int[] { -1, 3 }) {
+      OrderBy op = new OrderBy(fields, asc, new SeqScan(tid, table.getId(), ""), -1, pages);
+      op.open();
+      assertEquals(pages > 0, op.numRuns() > 0);
+      assertEquals(expected, readAll(op));
+      op.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Packed integer keys order the extreme values correctly both ways, and
+   * string fields sort through the comparator.
+   */
+  @Test public void keys() throws Exception {
+    int[] values = { 5, Integer.MAX_VALUE, -1, Integer.MIN_VALUE, 0, 5, Integer.MIN_VALUE };
+    ArrayList<Tuple> tups = new ArrayList<Tuple>();
+    for (int i = 0;i < values.length;i++)
+      tups.add(Utility.getHeapTuple(new int[] { values[i], i }));
+    DbIterator child = new TupleIterator(Utility.getTupleDesc(2), tups);
+
+    ArrayList<Tuple> sorted = new ArrayList<Tuple>(tups);
+    new OrderBy(0, true, child).sort(sorted);
+    int[] order = { 3, 6, 2, 4, 0, 5, 1 };
+    for (int i = 0;i < order.length;i++)
+      assertSame(tups.get(order[i]), sorted.get(i));
+    sorted = new ArrayList<Tuple>(tups);
+    new OrderBy(0, false, child).sort(sorted);
+    order = new int[] { 1, 0, 5, 4, 2, 3, 6 };
+    for (int i = 0;i < order.length;i++)
+      assertSame(tups.get(order[i]), sorted.get(i));
+
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    String[] strings = { "pear", "apple", "fig" };
+    ArrayList<Tuple> stringTups = new ArrayList<Tuple>();
+    for (String str : strings) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(str, Type.STRING_LEN));
+      stringTups.add(t);
+    }
+    OrderBy op = new OrderBy(0, false, new TupleIterator(td, stringTups));
+    op.open();
+    assertEquals("pear", ((StringField)op.next().getField(0)).getValue());
+    assertEquals("fig", ((StringField)op.next().getField(0)).getValue());
+    assertEquals("apple", ((StringField)op.next().getField(0)).getValue());
+    op.close();
+  }
+
+  /**
+   * A failed open gives back the frames it reserved, and opening again
+   * without a close does not reserve them twice.
+   */
+  @Test public void failedOpenReleasesPages() throws Exception {
+    BufferPool bp = Database.getBufferPool();
+    // enough tuples to write a run before the read fails
+    OrderBy op = new OrderBy(0, true, new TestUtil.FailingScan(5000, 2), -1, 3);
+    try {
+      op.open();
+      fail("opened with a failing child");
+    } catch (DbException e) {
+    }
+    assertEquals(0, bp.getWorkPages());
+
+    op = new OrderBy(0, true, new TestUtil.MockScan(0, 100, 2), -1, 3);
+    op.open();
+    op.open();
+    assertEquals(3, bp.getWorkPages());
+    op.close();
+    assertEquals(0, bp.getWorkPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares sequential scan and point-lookup throughput of the same table
+ * stored with 4 KB, 16 KB and 64 KB pages.  The buffer pool gets the same
+ * number of bytes at every page size, so larger pages mean fewer frames.
+ * <p>
+ * Usage, after ant testcompile:
+ * java -cp bin/src:bin/test simpledb.PageSizeBenchmark [rows [pool bytes [lookups]]]
+ * <p>
+ * It lives with the tests so that it is not shipped in the database jar.
+ * <p>
+ * Point lookups fetch random tuples by RecordId, as an index probe would.
+ * The table files are freshly written, so reads are mostly served by the
+ * OS page cache: the numbers measure the cost of moving and decoding
+ * pages, not of the disk.
+ */
+public class PageSizeBenchmark {
+    static final int[] PAGE_SIZES = { 4096, 16384, 65536 };
+    static final int COLUMNS = 3;
+    static final int RUNS = 3;
+
+    public static void main(String args[]) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int poolBytes = args.length > 1 ? Integer.parseInt(args[1]) : 2 << 20;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        File text = File.createTempFile("pagesize", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0;i < rows;i++)
+            out.println(i + "," + r.nextInt() + "," + r.nextInt());
+        out.close();
+
+        System.out.println(rows + " rows, " + poolBytes + " bytes of buffer pool, " + lookups + " lookups");
+        System.out.println("page size  pages  frames  scan rows/s  lookups/s");
+        for (int pageSize : PAGE_SIZES) {
+            File dat = File.createTempFile("pagesize" + pageSize, ".dat");
+            dat.deleteOnExit();
+            HeapFileEncoder.convert(text, dat, pageSize, COLUMNS);
+            HeapFile hf = Utility.openHeapFile(COLUMNS, dat);
+            int frames = Math.max(1, poolBytes / pageSize);
+
+            double scan = 0, lookup = 0;
+            for (int run = 0;run < RUNS;run++) {
+                Database.resetBufferPool(frames);
+                scan = Math.max(scan, scan(hf, rows));
+                Database.resetBufferPool(frames);
+                lookup = Math.max(lookup, lookups(hf, rows, lookups));
+            }
+            System.out.println(String.format("%9d  %5d  %6d  %11.0f  %9.0f",
+                    pageSize, hf.numPages(), frames, scan, lookup));
+            hf.close();
+        }
+    }
+
+    /** @return the rows per second of a full scan of the table */
+    static double scan(HeapFile hf, int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        long start = System.nanoTime();
+        scan.open();
+        long sum = 0;
+        int n = 0;
+        while (scan.hasNext()) {
+            sum += ((IntField)scan.next().getField(0)).getValue();
+            n++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (n != rows || sum != (long)rows * (rows - 1) / 2)
+            throw new IllegalStateException("scan read " + n + " rows");
+        return n * 1e9 / elapsed;
+    }
+
+    /** @return the lookups per second of fetching random tuples by RecordId */
+    static double lookups(HeapFile hf, int rows, int lookups) throws Exception {
+        int perPage = (hf.getPageSize() * 8) / (hf.getTupleDesc().getSize() * 8 + 1);
+        Random r = new Random(1);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        for (int i = 0;i < lookups;i++) {
+            int row = r.nextInt(rows);
+            HeapPageId pid = new HeapPageId(hf.getId(), row / perPage);
+            HeapPage page = (HeapPage)bp.getPage(tid, pid, Permissions.READ_ONLY);
+            Tuple t = page.getTuple(row % perPage);
+            if (((IntField)t.getField(0)).getValue() != row)
+                throw new IllegalStateException("lookup of row " + row + " found " + t);
+        }
+        long elapsed = System.nanoTime() - start;
+        bp.transactionComplete(tid);
+        return lookups * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * A file with 16 KB pages gets a header on its first write, holds four
+     * times the tuples per page, and has its page size found again when
+     * it is reopened.
+     */
+    @Test public void largePagesRoundTrip() throws Exception {
+        File f = tempFile();
+        TupleDesc td = Utility.getTupleDesc(2);
+        HeapFile hf = new HeapFile(f, td, 16384);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(16384, hf.getPageSize());
+        assertEquals(16384, Database.getCatalog().getPageSize(hf.getId()));
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        int perPage = (16384 * 8) / (td.getSize() * 8 + 1);
+        int rows = perPage * 2 + 1;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0;i < rows;i++) {
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        bp.transactionComplete(tid);
+        assertEquals(3, hf.numPages());
+        assertEquals(HeapFile.FILE_HEADER_SIZE + 3 * 16384, f.length());
+
+        hf.close();
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        assertEquals(16384, reopened.getPageSize());
+        assertEquals(3, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * HeapFileEncoder records a non-default page size in the file header,
+     * and such files read back the same through a memory mapping.
+     */
+    @Test public void encoderWritesHeader() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0;i < 5000;i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i * 2, i * 3)));
+        File f = tempFile();
+        HeapFileEncoder.convert(tuples, f, 8192, 3);
+        assertEquals(8192, HeapFile.readFileHeader(f));
+        assertEquals(0, (f.length() - HeapFile.FILE_HEADER_SIZE) % 8192);
+
+        HeapFile hf = Utility.openHeapFile(3, f);
+        assertEquals(8192, hf.getPageSize());
+        SystemTestUtil.matchTuples(hf, tuples);
+        hf.setMemoryMapped(true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Files with the default page size keep the headerless layout.
+     */
+    @Test public void defaultSizeHasNoHeader() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 100, null, null);
+        assertEquals(0, HeapFile.readFileHeader(f));
+        assertEquals(0, f.length() % BufferPool.PAGE_SIZE);
+        assertEquals(BufferPool.PAGE_SIZE, Utility.openHeapFile(2, f).getPageSize());
+        assertEquals(BufferPool.PAGE_SIZE, new HeapFile(f, Utility.getTupleDesc(2), BufferPool.PAGE_SIZE).getPageSize());
+    }
+
+    /**
+     * Page sizes that are not powers of two in range, and sizes that do
+     * not match an existing file, are rejected.
+     */
+    @Test public void invalidPageSizes() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        int[] bad = { 0, 256, 5000, 2 * BufferPool.MAX_PAGE_SIZE };
+        for (int size : bad) {
+            try {
+                new HeapFile(tempFile(), td, size);
+                fail("expected IllegalArgumentException for " + size);
+            } catch (IllegalArgumentException e) {
+                // explicitly ignored
+            }
+        }
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 100, null, null);
+        try {
+            new HeapFile(f, td, 16384);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregatorTest extends SimpleDbTestBase {
+
+  private static HashSet<ArrayList<Integer>> readAll(DbIterator it) throws Exception {
+    HashSet<ArrayList<Integer>> actual = new HashSet<ArrayList<Integer>>();
+    it.open();
+    while (it.hasNext())
+      assertTrue(actual.add(SystemTestUtil.tupleToList(it.next())));
+    it.close();
+    return actual;
+  }
+
+  /**
+   * Every operator, grouped or not, has the same results whether the file
+   * is read by several threads or by one.
+   */
+  @Test public void matchesSerial() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 20000, 50, null, null);
+    assertTrue(table.numPages() > 4);
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : Type.INT_TYPE;
+        TransactionId tid = new TransactionId();
+        IntAggregator serial = new IntAggregator(gfield, gtype, 1, op);
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+          serial.merge(it.next());
+        it.close();
+
+        ParallelAggregator parallel = new ParallelAggregator(gfield, gtype, 1, Type.INT_TYPE, op, 4);
+        assertEquals(4, parallel.numThreads());
+        parallel.scan(tid, table);
+        assertEquals(op + " grouped on " + gfield, readAll(serial.iterator()), readAll(parallel.iterator()));
+        Database.getBufferPool().transactionComplete(tid);
+      }
+    }
+  }
+
+  /**
+   * Averages are combined from the sums and counts of the partials, not
+   * from their averages.
+   */
+  @Test public void combineAverages() throws Exception {
+    IntAggregator a = new IntAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.AVG);
+    IntAggregator b = new IntAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.AVG);
+    DbIterator tuples = TestUtil.createTupleList(2, new int[] { 0, 1, 0, 2, 0, 3, 0, 10 });
+    tuples.open();
+    for (int i = 0;i < 3;i++)
+      a.merge(tuples.next());
+    b.merge(tuples.next());
+    a.combine(b);
+    DbIterator expected = TestUtil.createTupleList(1, new int[] { 4 });
+    DbIterator actual = a.iterator();
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+  }
+
+  /**
+   * A file of fewer pages than threads is read by a thread per page.
+   */
+  @Test public void fewPages() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    TransactionId tid = new TransactionId();
+    ParallelAggregator agg = new ParallelAggregator(Aggregator.NO_GROUPING, null, 0, Type.INT_TYPE,
+        Aggregator.Op.COUNT, 8);
+    agg.scan(tid, table);
+    DbIterator expected = TestUtil.createTupleList(1, new int[] { 10 });
+    DbIterator actual = agg.iterator();
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An interrupted scan stops its threads and waits for them before it
+   * aborts, so none of them still reads the file for the transaction.
+   */
+  @Test public void interrupted() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+    TransactionId tid = new TransactionId();
+    ParallelAggregator agg = new ParallelAggregator(Aggregator.NO_GROUPING, null, 0, Type.INT_TYPE,
+        Aggregator.Op.COUNT, 4);
+    Thread.currentThread().interrupt();
+    try {
+      agg.scan(tid, table);
+      fail("an interrupted scan returned");
+    } catch (TransactionAbortedException e) {
+    }
+    Thread.interrupted();
+    for (StackTraceElement[] stack : Thread.getAllStackTraces().values())
+      for (StackTraceElement frame : stack)
+        assertFalse(frame.getClassName().startsWith(ParallelAggregator.class.getName() + "$"));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelAggregatorTest.class);
+  }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        bp = Database.resetBufferPool(64);
+    }
+
+    /**
+     * Once two consecutive pages are requested, the window after them is
+     * read ahead, and requesting those pages counts as prefetch hits.
+     */
+    @Test public void readsAheadOfSequentialReader() throws Exception {
+        Prefetcher p = new Prefetcher(bp, hf.getId(), hf.numPages(), null);
+        p.pageRequested(0);
+        Prefetcher.awaitIdle();
+        assertEquals(0, bp.getPrefetchedPages());
+
+        p.pageRequested(1);
+        Prefetcher.awaitIdle();
+        assertEquals(BufferPool.DEFAULT_PREFETCH_PAGES, bp.getPrefetchedPages());
+
+        for (int i = 2;i < 2 + BufferPool.DEFAULT_PREFETCH_PAGES;i++)
+            bp.getPage(null, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(BufferPool.DEFAULT_PREFETCH_PAGES, bp.getPrefetchHits());
+        assertEquals(BufferPool.DEFAULT_PREFETCH_PAGES, bp.getHits());
+        assertEquals(0, bp.getMisses());
+    }
+
+    /**
+     * Random access, and a window of 0, read nothing ahead.
+     */
+    @Test public void noReadAhead() throws Exception {
+        Prefetcher p = new Prefetcher(bp, hf.getId(), hf.numPages(), null);
+        p.pageRequested(3);
+        p.pageRequested(7);
+        p.pageRequested(1);
+        Prefetcher.awaitIdle();
+        assertEquals(0, bp.getPrefetchedPages());
+
+        bp.setPrefetchWindow(0);
+        p.pageRequested(2);
+        p.pageRequested(3);
+        Prefetcher.awaitIdle();
+        assertEquals(0, bp.getPrefetchedPages());
+    }
+
+    /**
+     * A full scan returns every tuple and never reads a page twice,
+     * however the reader and the I/O thread interleave.
+     */
+    @Test public void scanWithReadAhead() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Prefetcher.awaitIdle();
+        assertEquals(504 * 20, count);
+        assertEquals(hf.numPages(), bp.getMisses() + bp.getPrefetchedPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,268 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedFile sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        pid = new HeapPageId(sf.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        StringBuilder sb = new StringBuilder("n");
+        for (int j = 0;j < i % 20;j++)
+            sb.append((char)('a' + j));
+        return sb.toString();
+    }
+
+    /**
+     * Tuples of different lengths survive a round trip through getPageData.
+     */
+    @Test public void addAndRead() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, name(n)))) {
+            Tuple t = tuple(n, name(n));
+            page.addTuple(t);
+            assertEquals(n, t.getRecordId().tupleno());
+            n++;
+        }
+        // far more than the 30 fixed-length tuples a HeapPage holds
+        assertTrue(n > 100);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0;i < n;i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField)t.getField(0)).getValue());
+            assertEquals(name(i), ((StringField)t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused once the page is compacted, and the
+     * remaining tuples keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> added = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(0, "short"))) {
+            Tuple t = tuple(added.size(), "short");
+            page.addTuple(t);
+            added.add(t);
+        }
+        for (int i = 0;i < added.size();i += 2)
+            page.deleteTuple(added.get(i));
+        assertEquals(added.size() / 2, page.getNumTuples());
+        try {
+            page.deleteTuple(added.get(0));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        String longer = "a much longer name than before";
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(-1, longer))) {
+            page.addTuple(tuple(-1, longer));
+            inserted++;
+        }
+        assertTrue(inserted > 0);
+
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField)t.getField(0)).getValue();
+            if (id >= 0) {
+                assertEquals(1, id % 2);
+                assertEquals(added.get(id).getRecordId(), t.getRecordId());
+            }
+        }
+    }
+
+    /**
+     * The before image is the page as it was at the last setBeforeImage.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        page.addTuple(tuple(1, "one"));
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+        page.setBeforeImage();
+        page.addTuple(tuple(2, "two"));
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * A table of short strings takes several times fewer pages as a
+     * SlottedFile than as a HeapFile, and scans back the same tuples.
+     */
+    @Test public void stringTableShrinks() throws Exception {
+        File hfFile = File.createTempFile("heap", ".dat");
+        hfFile.deleteOnExit();
+        HeapFile heap = new HeapFile(hfFile, td);
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+        File sfFile = File.createTempFile("slotted", ".dat");
+        sfFile.deleteOnExit();
+        SlottedFile slotted = new SlottedFile(sfFile, td);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(200);
+        TransactionId tid = new TransactionId();
+        int rows = 3000;
+        for (int i = 0;i < rows;i++) {
+            bp.insertTuple(tid, heap.getId(), tuple(i, name(i)));
+            bp.insertTuple(tid, slotted.getId(), tuple(i, name(i)));
+        }
+        bp.transactionComplete(tid);
+        assertTrue(heap.numPages() >= 4 * slotted.numPages());
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, slotted.getId(), "");
+        scan.open();
+        int count = 0;
+        long sum = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            sum += ((IntField)t.getField(0)).getValue();
+            count++;
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+        assertEquals(rows, count);
+        assertEquals((long)rows * (rows - 1) / 2, sum);
+    }
+
+    /**
+     * Strings are stored in UTF-8 and cut to Type.STRING_LEN characters,
+     * never in the middle of a character.
+     */
+    @Test public void multibyteStrings() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        StringBuilder accents = new StringBuilder();
+        for (int i = 0;i < Type.STRING_LEN + 5;i++)
+            accents.append('\u00e9');
+        StringBuilder pairs = new StringBuilder("x");
+        for (int i = 0;i < Type.STRING_LEN;i++)
+            pairs.append("\ud83d\ude00");
+        Tuple a = tuple(1, accents.toString());
+        Tuple b = new Tuple(td);
+        b.setField(0, new IntField(2));
+        b.setField(1, new StringField(pairs.toString(), 2 * Type.STRING_LEN + 1));
+        page.addTuple(a);
+        page.addTuple(b);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        String s = ((StringField)copy.getTuple(0).getField(1)).getValue();
+        assertEquals(accents.substring(0, Type.STRING_LEN), s);
+        s = ((StringField)copy.getTuple(1).getField(1)).getValue();
+        // "x" and then whole pairs only
+        assertEquals(Type.STRING_LEN - 1, s.length());
+        assertEquals(pairs.substring(0, Type.STRING_LEN - 1), s);
+    }
+
+    /**
+     * A slotted file's header records its layout, so it cannot be opened
+     * as a file of HeapPages, nor a HeapPage file as a slotted one.
+     */
+    @Test public void layoutIsRecorded() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedFile slotted = new SlottedFile(f, td);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, slotted.getId(), tuple(1, "a"));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(HeapFile.LAYOUT_SLOTTED, HeapFile.readFileLayout(f));
+        assertEquals(HeapFile.FILE_HEADER_SIZE + BufferPool.PAGE_SIZE, f.length());
+        try {
+            new HeapFile(f, td);
+            fail("opened a slotted file as a HeapFile");
+        } catch (IllegalArgumentException e) {
+        }
+
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 10, null, null);
+        assertEquals(HeapFile.LAYOUT_HEAP, HeapFile.readFileLayout(heap));
+        try {
+            new SlottedFile(heap, Utility.getTupleDesc(2));
+            fail("opened a HeapPage file as a SlottedFile");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * HeapFileEncoder writes slotted files, and a catalog entry with the
+     * "slotted" option opens its table as a SlottedFile.
+     */
+    @Test public void encodedAndCataloged() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dir.deleteOnExit();
+        File text = new File(dir, "names.txt");
+        PrintWriter pw = new PrintWriter(new FileWriter(text));
+        for (int i = 0;i < 1000;i++)
+            pw.println(i + "," + name(i));
+        pw.close();
+        File dat = new File(dir, "names.dat");
+        HeapFileEncoder.convertSlotted(text, dat, BufferPool.PAGE_SIZE, new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        assertEquals(HeapFile.LAYOUT_SLOTTED, HeapFile.readFileLayout(dat));
+
+        File schema = new File(dir, "catalog.txt");
+        pw = new PrintWriter(new FileWriter(schema));
+        String table = new File(dir, "names").getPath();
+        pw.println(table + " (id int, name string) slotted");
+        pw.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile f = Database.getCatalog().getDbFile(Database.getCatalog().getTableId(table));
+        assertTrue(f instanceof SlottedFile);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField)t.getField(0)).getValue();
+            assertEquals(name(i), ((StringField)t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, count);
+        for (File child : dir.listFiles())
+            child.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Compares the throughput of sorting tuples in memory the way OrderBy did
+ * before, with a comparator that calls Field.compare twice per field, with
+ * that of {@link TupleComparator} and of OrderBy's packed integer keys,
+ * on one integer key and on an integer key followed by a descending one.
+ * <p>
+ * Usage, after ant testcompile:
+ * java -cp bin/src:bin/test simpledb.SortBenchmark [rows [distinct keys]]
+ * <p>
+ * Each sort gets a fresh copy of the same random tuples, and the best of
+ * a few runs is reported, after a run to warm up the JIT.
+ */
+public class SortBenchmark {
+    static final int COLUMNS = 3;
+    static final int RUNS = 5;
+
+    /** The comparator OrderBy used before, on one field. */
+    static class FieldCompareComparator implements Comparator<Tuple> {
+        int field;
+        boolean asc;
+
+        FieldCompareComparator(int field, boolean asc) {
+            this.field = field;
+            this.asc = asc;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            Field t1 = o1.getField(field);
+            Field t2 = o2.getField(field);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                return 0;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc ? 1 : -1;
+            else
+                return asc ? -1 : 1;
+        }
+    }
+
+    public static void main(String args[]) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Random r = new Random(0);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        for (int i = 0;i < rows;i++)
+            tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(keys), r.nextInt(), i }));
+        OrderBy one = new OrderBy(0, true, new TupleIterator(Utility.getTupleDesc(COLUMNS), tuples));
+        OrderBy two = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                new TupleIterator(Utility.getTupleDesc(COLUMNS), tuples));
+
+        System.out.println(rows + " rows, " + keys + " distinct keys");
+        System.out.println("sort                                  rows/s");
+        report("one key, Field.compare comparator", tuples, new FieldCompareComparator(0, true), null);
+        report("one key, TupleComparator", tuples, new TupleComparator(0, true), null);
+        report("one key, packed keys", tuples, null, one);
+        report("two keys, TupleComparator", tuples, new TupleComparator(new int[] { 0, 1 }, new boolean[] { true, false }), null);
+        report("two keys, packed keys", tuples, null, two);
+    }
+
+    /** Prints the best rows per second of sorting with the comparator, or else by the OrderBy. */
+    static void report(String name, ArrayList<Tuple> tuples, Comparator<Tuple> cmp, OrderBy op) {
+        double best = 0;
+        for (int run = 0;run <= RUNS;run++) {
+            ArrayList<Tuple> copy = new ArrayList<Tuple>(tuples);
+            long start = System.nanoTime();
+            if (cmp != null)
+                Collections.sort(copy, cmp);
+            else
+                op.sort(copy);
+            long elapsed = System.nanoTime() - start;
+            if (((IntField)copy.get(0).getField(0)).getValue() != 0)
+                throw new IllegalStateException(name + " did not sort");
+            if (run > 0)
+                best = Math.max(best, copy.size() * 1e9 / elapsed);
+        }
+        System.out.println(String.format("%-36s  %8.0f", name, best));
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+  private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+      Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+  /** @return the tuples of a nested-loops Join of the two children */
+  private static ArrayList<ArrayList<Integer>> nestedLoops(JoinPredicate pred, DbIterator c1, DbIterator c2)
+      throws Exception {
+    Join join = new Join(pred, c1, c2);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    join.open();
+    while (join.hasNext())
+      expected.add(SystemTestUtil.tupleToList(join.next()));
+    join.close();
+    return expected;
+  }
+
+  /**
+   * For every operator, SortMergeJoin returns the tuples of Join on
+   * unsorted tables with duplicate keys, in ascending order of the outer
+   * join field.
+   */
+  @Test public void matchesJoin() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 200, 100, null, null);
+    TransactionId tid = new TransactionId();
+    for (Predicate.Op op : OPS) {
+      JoinPredicate pred = new JoinPredicate(1, op, 2);
+      SortMergeJoin smj = new SortMergeJoin(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), ""));
+      SystemTestUtil.matchTuples(smj, nestedLoops(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), "")));
+
+      smj.open();
+      int last = Integer.MIN_VALUE;
+      while (smj.hasNext()) {
+        int key = ((IntField)smj.next().getField(1)).getValue();
+        assertTrue(op + " out of order", key >= last);
+        last = key;
+      }
+      smj.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Children already sorted on their join fields are not sorted again,
+   * and rewind returns the same tuples.
+   */
+  @Test public void sortedInputs() throws Exception {
+    DbIterator scan1 = TestUtil.createTupleList(2, new int[] { 1, 10, 2, 20, 2, 21, 4, 40 });
+    DbIterator scan2 = TestUtil.createTupleList(1, new int[] { 2, 3, 1, 2 });
+    OrderBy sorted1 = new OrderBy(0, true, scan1);
+    OrderBy sorted2 = new OrderBy(0, true, scan2);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, sorted1, sorted2);
+    assertTrue(smj.skipsSort(sorted1));
+    assertTrue(smj.skipsSort(sorted2));
+    OrderBy descending = new OrderBy(0, false, scan1), otherField = new OrderBy(1, true, scan1);
+    assertFalse(new SortMergeJoin(pred, descending, sorted2).skipsSort(descending));
+    assertFalse(new SortMergeJoin(pred, otherField, scan2).skipsSort(otherField));
+    assertFalse(new SortMergeJoin(pred, sorted1, scan2).skipsSort(scan2));
+
+    DbIterator expected = TestUtil.createTupleList(3, new int[] {
+        1, 10, 1, 1, 10, 2, 1, 10, 2, 1, 10, 3,
+        2, 20, 2, 2, 20, 2, 2, 20, 3,
+        2, 21, 2, 2, 21, 2, 2, 21, 3 });
+    smj.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, smj);
+    smj.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, smj);
+    smj.close();
+  }
+
+  /**
+   * An equi-join holds only the current run of equal inner keys, and the
+   * inner tuple after it.
+   */
+  @Test public void equiJoinBuffersRuns() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, null);
+    int[] keys = new int[2000];
+    for (int i = 0;i < keys.length;i++)
+      keys[i] = i / 2;
+    DbIterator scan2 = TestUtil.createTupleList(1, keys);
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, new SeqScan(tid, t1.getId(), ""), new OrderBy(0, true, scan2));
+    SystemTestUtil.matchTuples(smj, nestedLoops(pred, new SeqScan(tid, t1.getId(), ""), scan2));
+
+    smj.open();
+    while (smj.hasNext()) {
+      smj.next();
+      assertTrue(smj.numBuffered() <= 3);
+    }
+    smj.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An equi-join whose run of equal inner keys does not fit in its frames
+   * writes the run to disk, reads it back for each outer tuple with that
+   * key, and gives back the frames on close.
+   */
+  @Test public void spillingRun() throws Exception {
+    int[] outerKeys = { 1, 7, 7, 7, 9 };
+    int[] innerKeys = new int[2 * 5000];
+    for (int i = 0;i < 5000;i++) {
+      innerKeys[2 * i] = i < 4998 ? 7 : 9;
+      innerKeys[2 * i + 1] = i;
+    }
+    DbIterator scan1 = TestUtil.createTupleList(1, outerKeys);
+    DbIterator scan2 = TestUtil.createTupleList(2, innerKeys);
+    BufferPool bp = Database.getBufferPool();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, scan1, scan2, 3);
+    ArrayList<ArrayList<Integer>> expected = nestedLoops(pred, scan1, scan2);
+    assertEquals(3 * 4998 + 2, expected.size());
+    SystemTestUtil.matchTuples(smj, expected);
+
+    smj.open();
+    boolean spilled = false;
+    while (smj.hasNext()) {
+      smj.next();
+      spilled |= smj.isSpilling();
+      assertTrue(smj.numBuffered() * 8 <= 3 * BufferPool.PAGE_SIZE + 8);
+    }
+    assertTrue(spilled);
+    smj.close();
+    assertEquals(0, bp.getWorkPages());
+  }
+
+  /**
+   * A range join whose inner tuples do not fit in its frames writes them
+   * to disk, and still returns the tuples of Join in ascending order of
+   * the outer join field; the frames go back to the buffer pool on close.
+   */
+  @Test public void spillingRangeJoin() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 10, 1000, null, null);
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 2000, 1000, null, null);
+    TransactionId tid = new TransactionId();
+    BufferPool bp = Database.getBufferPool();
+    for (Predicate.Op op : OPS) {
+      if (op == Predicate.Op.EQUALS)
+        continue;
+      JoinPredicate pred = new JoinPredicate(1, op, 2);
+      SortMergeJoin smj = new SortMergeJoin(pred, new SeqScan(tid, t1.getId(), ""),
+          new SeqScan(tid, t2.getId(), ""), 3);
+      smj.open();
+      assertTrue(smj.isSpilling());
+      assertEquals(0, smj.numBuffered());
+      int last = Integer.MIN_VALUE;
+      while (smj.hasNext()) {
+        int key = ((IntField)smj.next().getField(1)).getValue();
+        assertTrue(op + " out of order", key >= last);
+        last = key;
+      }
+      smj.close();
+      assertEquals(0, bp.getWorkPages());
+      SystemTestUtil.matchTuples(smj, nestedLoops(pred, new SeqScan(tid, t1.getId(), ""), new SeqScan(tid, t2.getId(), "")));
+    }
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * instantiateJoin merges for range predicates, keeps HashJoin for
+   * unsorted equi-joins, and falls back to a BlockNestedLoopJoin for
+   * NOT_EQUALS.
+   */
+  @Test public void instantiateJoin() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 10, 100, null, null, "s.c");
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 10, 100, null, null, "t.c");
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(t1.getId(), "s");
+    lp.addScan(t2.getId(), "t");
+    JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    HashMap<String,TableStats> stats = new HashMap<String,TableStats>();
+    assertTrue(plan(jo, tid, t1, t2, Predicate.Op.GREATER_THAN, stats) instanceof SortMergeJoin);
+    assertTrue(plan(jo, tid, t1, t2, Predicate.Op.EQUALS, stats) instanceof HashJoin);
+    assertTrue(plan(jo, tid, t1, t2, Predicate.Op.NOT_EQUALS, stats) instanceof BlockNestedLoopJoin);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static DbIterator plan(JoinOptimizer jo, TransactionId tid, HeapFile t1, HeapFile t2,
+      Predicate.Op op, HashMap<String,TableStats> stats) throws Exception {
+    LogicalJoinNode lj = new LogicalJoinNode("s", "t", "s.c0", "t.c0", op);
+    return jo.instantiateJoin(lj, new SeqScan(tid, t1.getId(), "s"), new SeqScan(tid, t2.getId(), "t"), stats);
+  }
+
+  /**
+   * A sort-merge join cannot evaluate NOT_EQUALS.
+   */
+  @Test(expected=IllegalArgumentException.class) public void rejectsNotEquals() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(1, new int[] { 1 });
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan, scan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -298,6 +298,38 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * A scan that returns rows tuples of width fields, numbered from 0, and
+     * then fails, as a scan of a damaged file would.
+     */
+    public static class FailingScan extends AbstractDbIterator {
+        private final int rows, width;
+        private int cur;
+
+        public FailingScan(int rows, int width) {
+            this.rows = rows;
+            this.width = width;
+        }
+
+        public void open() {
+            cur = 0;
+        }
+
+        public void rewind() {
+            cur = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return Utility.getTupleDesc(width);
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (cur >= rows)
+                throw new DbException("read failed");
+            return Utility.getHeapTuple(cur++, width);
+        }
+    }
+
     /**
      * Helper class that attempts to acquire a lock on a given page in a new
      * thread.